@@ -4,7 +4,9 @@ import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import uk.ac.ic.wlgitbridge.application.exception.ConfigFileException;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStoreConfig;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStoreConfig;
+import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApiConfig;
 import uk.ac.ic.wlgitbridge.bridge.swap.job.SwapJobConfig;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStoreConfig;
 import uk.ac.ic.wlgitbridge.snapshot.base.JSONSource;
@@ -34,7 +36,9 @@ public class Config implements JSONSource {
                 config.repoStore,
                 SwapStoreConfig.sanitisedCopy(config.swapStore),
                 config.swapJob,
-                config.sqliteHeapLimitBytes
+                config.sqliteHeapLimitBytes,
+                DBStoreConfig.sanitisedCopy(config.database),
+                config.snapshotApi
         );
     }
 
@@ -54,6 +58,10 @@ public class Config implements JSONSource {
     @Nullable
     private SwapJobConfig swapJob;
     private int sqliteHeapLimitBytes = 0;
+    @Nullable
+    private DBStoreConfig database;
+    @Nullable
+    private SnapshotApiConfig snapshotApi;
 
     public Config(
             String configFilePath
@@ -78,7 +86,9 @@ public class Config implements JSONSource {
             RepoStoreConfig repoStore,
             SwapStoreConfig swapStore,
             SwapJobConfig swapJob,
-            int sqliteHeapLimitBytes
+            int sqliteHeapLimitBytes,
+            DBStoreConfig database,
+            SnapshotApiConfig snapshotApi
     ) {
         this.port = port;
         this.bindIp = bindIp;
@@ -92,6 +102,8 @@ public class Config implements JSONSource {
         this.swapStore = swapStore;
         this.swapJob = swapJob;
         this.sqliteHeapLimitBytes = sqliteHeapLimitBytes;
+        this.database = database;
+        this.snapshotApi = snapshotApi;
     }
 
     @Override
@@ -131,6 +143,14 @@ public class Config implements JSONSource {
         if (configObject.has("sqliteHeapLimitBytes")) {
             sqliteHeapLimitBytes = getElement(configObject, "sqliteHeapLimitBytes").getAsInt();
         }
+        database = new Gson().fromJson(
+                configObject.get("database"),
+                DBStoreConfig.class
+        );
+        snapshotApi = new Gson().fromJson(
+                configObject.get("snapshotApi"),
+                SnapshotApiConfig.class
+        );
     }
 
     public String getSanitisedString() {
@@ -192,6 +212,14 @@ public class Config implements JSONSource {
         return Optional.ofNullable(swapJob);
     }
 
+    public Optional<DBStoreConfig> getDatabase() {
+        return Optional.ofNullable(database);
+    }
+
+    public Optional<SnapshotApiConfig> getSnapshotApi() {
+        return Optional.ofNullable(snapshotApi);
+    }
+
     private JsonElement getElement(JsonObject configObject, String name) {
         JsonElement element = configObject.get(name);
         if (element == null) {
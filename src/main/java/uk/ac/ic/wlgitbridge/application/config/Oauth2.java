@@ -5,18 +5,31 @@ package uk.ac.ic.wlgitbridge.application.config;
  */
 public class Oauth2 {
 
+    public static final int DEFAULT_TOKEN_CACHE_SECONDS = 300;
+
     private final String oauth2ClientID;
     private final String oauth2ClientSecret;
     private final String oauth2Server;
+    private final Integer tokenCacheSeconds;
 
     public Oauth2(
             String oauth2ClientID,
             String oauth2ClientSecret,
             String oauth2Server
+    ) {
+        this(oauth2ClientID, oauth2ClientSecret, oauth2Server, null);
+    }
+
+    public Oauth2(
+            String oauth2ClientID,
+            String oauth2ClientSecret,
+            String oauth2Server,
+            Integer tokenCacheSeconds
     ) {
         this.oauth2ClientID = oauth2ClientID;
         this.oauth2ClientSecret = oauth2ClientSecret;
         this.oauth2Server = oauth2Server;
+        this.tokenCacheSeconds = tokenCacheSeconds;
     }
 
     public String getOauth2ClientID() {
@@ -31,11 +44,22 @@ public class Oauth2 {
         return oauth2Server;
     }
 
+    /**
+     * How long an access token issued for a user's password is reused for.
+     * 0 turns the cache off.
+     */
+    public int getTokenCacheSeconds() {
+        return tokenCacheSeconds == null
+                ? DEFAULT_TOKEN_CACHE_SECONDS
+                : tokenCacheSeconds;
+    }
+
     public static Oauth2 asSanitised(Oauth2 oauth2) {
         return new Oauth2(
                 "<oauth2ClientID>",
                 "<oauth2ClientSecret>",
-                oauth2.oauth2Server
+                oauth2.oauth2Server,
+                oauth2.tokenCacheSeconds
         );
     }
 
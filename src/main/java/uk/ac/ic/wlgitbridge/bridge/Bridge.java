@@ -2,6 +2,8 @@ package uk.ac.ic.wlgitbridge.bridge;
 
 import com.google.api.client.auth.oauth2.Credential;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
 import uk.ac.ic.wlgitbridge.application.config.Config;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
@@ -10,11 +12,14 @@ import uk.ac.ic.wlgitbridge.bridge.gc.GcJob;
 import uk.ac.ic.wlgitbridge.bridge.gc.GcJobImpl;
 import uk.ac.ic.wlgitbridge.bridge.lock.LockGuard;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
+import uk.ac.ic.wlgitbridge.bridge.reconcile.Reconciler;
 import uk.ac.ic.wlgitbridge.bridge.repo.*;
 import uk.ac.ic.wlgitbridge.bridge.resource.ResourceCache;
+import uk.ac.ic.wlgitbridge.bridge.resource.UrlIndex;
 import uk.ac.ic.wlgitbridge.bridge.resource.UrlResourceCache;
 import uk.ac.ic.wlgitbridge.bridge.snapshot.NetSnapshotApi;
 import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApi;
+import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApiConfig;
 import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApiFacade;
 import uk.ac.ic.wlgitbridge.bridge.swap.job.SwapJob;
 import uk.ac.ic.wlgitbridge.bridge.swap.job.SwapJobImpl;
@@ -33,6 +38,8 @@ import uk.ac.ic.wlgitbridge.git.handler.WLReceivePackFactory;
 import uk.ac.ic.wlgitbridge.git.handler.WLRepositoryResolver;
 import uk.ac.ic.wlgitbridge.git.handler.WLUploadPackFactory;
 import uk.ac.ic.wlgitbridge.git.handler.hook.WriteLatexPutHook;
+import uk.ac.ic.wlgitbridge.git.util.RepositoryObjectTreeWalker;
+import uk.ac.ic.wlgitbridge.io.http.ning.PooledHttpClient;
 import uk.ac.ic.wlgitbridge.server.FileHandler;
 import uk.ac.ic.wlgitbridge.server.PostbackContents;
 import uk.ac.ic.wlgitbridge.server.PostbackHandler;
@@ -51,6 +58,7 @@ import java.io.IOException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This is the heart of the Git Bridge. You plug in all the parts (project
@@ -140,6 +148,9 @@ import java.util.*;
  */
 public class Bridge {
 
+    private static final long RECONCILE_RETRY_MIN_MILLIS = 1000;
+    private static final long RECONCILE_RETRY_MAX_MILLIS = 5 * 60 * 1000;
+
     private final Config config;
 
     private final ProjectLock lock;
@@ -152,9 +163,13 @@ public class Bridge {
 
     private final SnapshotApiFacade snapshotAPI;
     private final ResourceCache resourceCache;
+    private final PooledHttpClient httpClient;
 
     private final PostbackManager postbackManager;
 
+    /* Completes once the repo store has been reconciled with the DB */
+    private final CompletableFuture<Void> reconciliation;
+
     /**
      * Creates a Bridge from its configurable parts, which are the repo, db and
      * swap store, and the swap job config.
@@ -165,6 +180,8 @@ public class Bridge {
      * @param dbStore The db store to use
      * @param swapStore The swap store to use
      * @param snapshotApi The snapshot api to use
+     * @param httpClient The HTTP client the snapshot api uses, which is also
+     *                   used to fetch files, and is closed at shutdown
      * @return The constructed Bridge.
      */
     public static Bridge make(
@@ -172,7 +189,8 @@ public class Bridge {
             RepoStore repoStore,
             DBStore dbStore,
             SwapStore swapStore,
-            SnapshotApi snapshotApi
+            SnapshotApi snapshotApi,
+            PooledHttpClient httpClient
     ) {
         ProjectLock lock = new ProjectLockImpl((int threads) ->
                 Log.info("Waiting for " + threads + " projects...")
@@ -192,7 +210,8 @@ public class Bridge {
                 ),
                 new GcJobImpl(repoStore, lock),
                 new SnapshotApiFacade(snapshotApi),
-                new UrlResourceCache(dbStore)
+                new UrlResourceCache(httpClient),
+                httpClient
         );
     }
 
@@ -208,6 +227,7 @@ public class Bridge {
      * @param gcJob
      * @param snapshotAPI the {@link SnapshotApi} to use
      * @param resourceCache the {@link ResourceCache} to use
+     * @param httpClient the {@link PooledHttpClient} to close at shutdown
      */
     Bridge(
             Config config,
@@ -218,7 +238,8 @@ public class Bridge {
             SwapJob swapJob,
             GcJob gcJob,
             SnapshotApiFacade snapshotAPI,
-            ResourceCache resourceCache
+            ResourceCache resourceCache,
+            PooledHttpClient httpClient
     ) {
         this.config = config;
         this.lock = lock;
@@ -227,11 +248,12 @@ public class Bridge {
         this.swapStore = swapStore;
         this.snapshotAPI = snapshotAPI;
         this.resourceCache = resourceCache;
+        this.httpClient = httpClient;
         this.swapJob = swapJob;
         this.gcJob = gcJob;
         postbackManager = new PostbackManager();
+        reconciliation = new CompletableFuture<>();
         Runtime.getRuntime().addShutdownHook(new Thread(this::doShutdown));
-        repoStore.purgeNonexistentProjects(dbStore.getProjectNames());
     }
 
     /**
@@ -251,6 +273,14 @@ public class Bridge {
         gcJob.stop();
         Log.info("Waiting for projects");
         lock.lockAll();
+        Log.info("Closing DB");
+        dbStore.close();
+        Log.info("Closing HTTP client");
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            Log.warn("Failed to close HTTP client", e);
+        }
         Log.info("Bye");
     }
 
@@ -263,6 +293,54 @@ public class Bridge {
         gcJob.start();
     }
 
+    /**
+     * Reconciles the repo store with the DB on a background thread, see
+     * {@link Reconciler}. This used to be done before the server started
+     * listening, which took minutes with many projects. Until it has
+     * finished, {@link #isReady()} is false.
+     *
+     * If it fails, e.g. because the DB is unavailable, it is tried again
+     * after a delay that doubles each time, up to a few minutes, so that the
+     * bridge becomes ready once the problem goes away.
+     * @return a future that completes when reconciliation has finished
+     */
+    public CompletableFuture<Void> startReconciliation() {
+        Thread thread = new Thread(() -> {
+            long delay = RECONCILE_RETRY_MIN_MILLIS;
+            while (true) {
+                try {
+                    new Reconciler(lock, repoStore, dbStore).run();
+                    reconciliation.complete(null);
+                    return;
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Throwable t) {
+                    Log.error(
+                            "Reconciliation failed, retrying in {} ms",
+                            delay,
+                            t
+                    );
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                delay = Math.min(delay * 2, RECONCILE_RETRY_MAX_MILLIS);
+            }
+        }, "reconcile");
+        thread.setDaemon(true);
+        thread.start();
+        return reconciliation;
+    }
+
+    /**
+     * @return whether the startup reconciliation has finished successfully
+     */
+    public boolean isReady() {
+        return reconciliation.isDone();
+    }
+
     public boolean healthCheck() {
        try {
          dbStore.getNumProjects();
@@ -279,62 +357,81 @@ public class Bridge {
     }
 
     /**
-     * Performs a check of inconsistencies in the DB. This was used to upgrade
-     * the schema.
+     * Synchronises the given repository with Overleaf.
+     *
+     * It acquires the project lock and calls
+     * {@link #getUpdatedRepoCritical(Optional, String, GetDocResult)}.
+     * @param oauth2 The oauth2 to use
+     * @param projectName The name of the project
+     * @throws IOException
+     * @throws GitUserException
      */
-    public void checkDB() {
-        Log.info("Checking DB");
-        File rootDir = repoStore.getRootDirectory();
-        for (File f : rootDir.listFiles()) {
-            if (f.getName().equals(".wlgb")) {
-                continue;
-            }
-            String projName = f.getName();
-            try (LockGuard __ = lock.lockGuard(projName)) {
-                File dotGit = new File(f, ".git");
-                if (!dotGit.exists()) {
-                    Log.warn("Project: {} has no .git", projName);
-                    continue;
-                }
-                ProjectState state = dbStore.getProjectState(projName);
-                if (state != ProjectState.NOT_PRESENT) {
-                    continue;
-                }
-                Log.warn(
-                        "Project: {} not in swap_store, adding",
-                        projName
-                );
-                dbStore.setLastAccessedTime(
-                        projName,
-                        new Timestamp(dotGit.lastModified())
-                );
-            }
+    public ProjectRepo getUpdatedRepo(
+            Optional<Credential> oauth2,
+            String projectName
+    ) throws IOException, GitUserException {
+        try (LockGuard __ = lock.lockGuard(projectName)) {
+            GetDocResult doc = getDoc(oauth2, projectName);
+            Log.info("[{}] Updating repository", projectName);
+            return getUpdatedRepoCritical(oauth2, projectName, doc);
         }
     }
 
     /**
-     * Synchronises the given repository with Overleaf.
+     * Like {@link #getUpdatedRepo(Optional, String)}, for requests that only
+     * need the project's refs, i.e. an upload-pack ref advertisement.
      *
-     * It acquires the project lock and calls
-     * {@link #getUpdatedRepoCritical(Optional, String, GetDocResult)}.
+     * If the project is swapped, Overleaf has no newer version than the one
+     * we swapped, and we recorded its refs when swapping, this returns a
+     * {@link SwappedProjectRepository} that advertises those refs without
+     * restoring the project. A client that is already up to date stops
+     * there; one that wants objects sends another request, which restores
+     * the project as usual.
+     *
+     * Otherwise, it synchronises the project as usual.
      * @param oauth2 The oauth2 to use
      * @param projectName The name of the project
      * @throws IOException
      * @throws GitUserException
      */
-    public ProjectRepo getUpdatedRepo(
+    public Repository getRepoForRefAdvertisement(
             Optional<Credential> oauth2,
             String projectName
     ) throws IOException, GitUserException {
         try (LockGuard __ = lock.lockGuard(projectName)) {
-            Optional<GetDocResult> maybeDoc = snapshotAPI.getDoc(oauth2, projectName);
-            if (!maybeDoc.isPresent()) {
-                throw new RepositoryNotFoundException(projectName);
+            GetDocResult doc = getDoc(oauth2, projectName);
+            if (dbStore.getProjectState(projectName) == ProjectState.SWAPPED) {
+                Map<String, String> refs = dbStore.getSwappedRefs(projectName);
+                if (
+                        refs != null &&
+                        doc.getVersionID() ==
+                                dbStore.getLatestVersionForProject(projectName)
+                ) {
+                    Log.info(
+                            "[{}] Up to date, advertising refs without restoring",
+                            projectName
+                    );
+                    return new SwappedProjectRepository(projectName, refs);
+                }
             }
-            GetDocResult doc = maybeDoc.get();
             Log.info("[{}] Updating repository", projectName);
-            return getUpdatedRepoCritical(oauth2, projectName, doc);
+            return getUpdatedRepoCritical(
+                    oauth2,
+                    projectName,
+                    doc
+            ).getJGitRepository();
+        }
+    }
+
+    private GetDocResult getDoc(
+            Optional<Credential> oauth2,
+            String projectName
+    ) throws IOException, GitUserException {
+        Optional<GetDocResult> maybeDoc = snapshotAPI.getDoc(oauth2, projectName);
+        if (!maybeDoc.isPresent()) {
+            throw new RepositoryNotFoundException(projectName);
         }
+        return maybeDoc.get();
     }
 
     /**
@@ -354,7 +451,7 @@ public class Bridge {
      * present.
      *
      * With the project present, snapshots are downloaded from the snapshot
-     * API with {@link #updateProject(Optional, ProjectRepo)}.
+     * API with {@link #updateProject(Optional, ProjectRepo, GetDocResult)}.
      *
      * Then, the last accessed time of the project is set to the current time.
      * This is to support the LRU of the swap store.
@@ -416,14 +513,33 @@ public class Bridge {
         default:
             repo = repoStore.getExistingRepo(projectName);
         }
-        updateProject(oauth2, repo);
-        dbStore.setLastAccessedTime(
-                projectName,
-                Timestamp.valueOf(LocalDateTime.now())
-        );
+        updateProject(oauth2, repo, doc);
         return repo;
     }
 
+    /**
+     * Called by {@link WriteLatexPutHook} before the pushed files are read.
+     *
+     * Checks the number of files, and their sizes, against the configured
+     * limits, using only the commit's trees and the headers of its objects.
+     * A push that is too big is rejected before any of its files is loaded.
+     * @param repository the repository being pushed to
+     * @param commitId the pushed commit
+     * @throws IOException if the repository could not be read
+     * @throws GitUserException if the push is over a limit
+     */
+    public void checkPushLimits(
+            Repository repository,
+            ObjectId commitId
+    ) throws IOException, GitUserException {
+        Optional<RepoStoreConfig> repoStoreConfig = config.getRepoStore();
+        new RepositoryObjectTreeWalker(repository, commitId).checkLimits(
+                Optional.of(repoStore.getMaxFileSize()),
+                repoStoreConfig.flatMap(RepoStoreConfig::getMaxFileNum),
+                repoStoreConfig.flatMap(RepoStoreConfig::getMaxTotalSize)
+        );
+    }
+
     /**
      * The public call to push a project.
      *
@@ -569,9 +685,29 @@ public class Bridge {
                         "[{}] Push to Overleaf successful",
                         projectName
                 );
-                Log.info("[{}] Waiting for postback...", projectName);
-                int versionID =
-                        postbackManager.waitForVersionIdOrThrow(projectName);
+                if (result.getNeededHashes().isPresent()) {
+                    Log.info(
+                            "[{}] Overleaf already has {} changed files",
+                            projectName,
+                            candidate.releaseUnneededFiles(
+                                    result.getNeededHashes().get()
+                            )
+                    );
+                }
+                int versionID;
+                if (result.isComplete()) {
+                    Log.info(
+                            "[{}] Push completed without a postback",
+                            projectName
+                    );
+                    postbackManager.discardPostbackForProject(projectName);
+                    versionID = result.getVersionIdOrThrow();
+                } else {
+                    Log.info("[{}] Waiting for postback...", projectName);
+                    versionID = postbackManager.waitForVersionIdOrThrow(
+                            projectName
+                    );
+                }
                 Log.info(
                         "[{}] Got version ID for push: {}",
                         projectName,
@@ -676,58 +812,83 @@ public class Bridge {
     /* PRIVATE */
 
     /**
-     * Called by {@link #getUpdatedRepoCritical(Optional, String)}
+     * Called by {@link #getUpdatedRepoCritical(Optional, String, GetDocResult)}
      *
      * Does the actual work of getting the snapshots for a project from the
      * snapshot API and committing them to a repo.
      *
-     * If any snapshots were found, sets the latest version for the project.
+     * If any snapshots were found, sets the latest version for the project
+     * and records its new size on disk. Either way, the project's last
+     * accessed time is updated, in the same transaction as the changes to
+     * the project's URL index.
      *
      * @param oauth2
      * @param repo
+     * @param doc the project's latest doc, already fetched for this request
      * @throws IOException
      * @throws GitUserException
      */
     private void updateProject(
             Optional<Credential> oauth2,
-            ProjectRepo repo
+            ProjectRepo repo,
+            GetDocResult doc
     ) throws IOException, GitUserException {
         String projectName = repo.getProjectName();
         int latestVersionId = dbStore.getLatestVersionForProject(projectName);
         Deque<Snapshot> snapshots = snapshotAPI.getSnapshots(
-                oauth2, projectName, latestVersionId);
+                oauth2, projectName, doc, latestVersionId);
 
-        makeCommitsFromSnapshots(repo, snapshots);
+        UrlIndex urlIndex = new UrlIndex(dbStore, projectName);
+        try {
+            makeCommitsFromSnapshots(repo, snapshots, urlIndex);
+        } catch (IOException | GitUserException | RuntimeException e) {
+            /* Keep the attachments of the versions that were committed */
+            urlIndex.save();
+            throw e;
+        }
 
         // TODO: in case crashes around here, add an
         // "updating_from_commit" column to the DB as a way to rollback the
         // any failed partial updates before re-trying
         // Also need to consider the empty state (a new git init'd repo being
         // the rollback target)
-        if (!snapshots.isEmpty()) {
-            dbStore.setLatestVersionForProject(
+        try (DBStore.Batch batch = dbStore.beginBatch()) {
+            urlIndex.save();
+            if (!snapshots.isEmpty()) {
+                dbStore.setLatestVersionForProject(
+                        projectName,
+                        snapshots.getLast().getVersionID()
+                );
+            }
+            dbStore.setLastAccessedTime(
                     projectName,
-                    snapshots.getLast().getVersionID()
+                    Timestamp.valueOf(LocalDateTime.now())
             );
         }
+        if (!snapshots.isEmpty()) {
+            swapJob.recordDiskSize(projectName);
+        }
     }
 
     /**
-     * Called by {@link #updateProject(Optional, ProjectRepo)}.
+     * Called by {@link #updateProject(Optional, ProjectRepo, GetDocResult)}.
      *
      * Performs the actual Git commits on the disk.
      *
-     * Each commit adds files to the db store
-     * ({@link ResourceCache#get(String, String, String, Map, Map, Optional)},
-     * and then removes any files that were deleted.
+     * Each commit adds files to the URL index
+     * ({@link ResourceCache#get(UrlIndex, String, String, Map, Map, Optional)},
+     * and then removes any files that were deleted. The index is only
+     * changed in memory; the caller saves it.
      * @param repo The repository to commit to
      * @param snapshots The snapshots to commit
+     * @param urlIndex The project's URL index
      * @throws IOException If an IOException occurred
      * @throws SizeLimitExceededException If one of the files was too big.
      */
     private void makeCommitsFromSnapshots(
             ProjectRepo repo,
-            Collection<Snapshot> snapshots
+            Collection<Snapshot> snapshots,
+            UrlIndex urlIndex
     ) throws IOException, GitUserException {
         String name = repo.getProjectName();
         Optional<Long> maxSize = config
@@ -750,12 +911,12 @@ public class Bridge {
                 }
             }
             Map<String, byte[]> fetchedUrls = new HashMap<>();
-            for (SnapshotAttachment snapshotAttachment : snapshot.getAtts()) {
+            for (SnapshotAttachment attachment : snapshot.getAtts()) {
                 files.add(
                         resourceCache.get(
-                                name,
-                                snapshotAttachment.getUrl(),
-                                snapshotAttachment.getPath(),
+                                urlIndex,
+                                attachment.getUrl(),
+                                attachment.getPath(),
                                 fileTable,
                                 fetchedUrls,
                                 maxSize
@@ -775,10 +936,7 @@ public class Bridge {
                             snapshot
                     )
             );
-            dbStore.deleteFilesForProject(
-                    name,
-                    missingFiles.toArray(new String[missingFiles.size()])
-            );
+            urlIndex.deleteFiles(missingFiles);
         }
     }
 
@@ -805,7 +963,13 @@ public class Bridge {
                 projectName,
                 dbStore.getLatestVersionForProject(projectName),
                 directoryContents,
-                oldDirectoryContents
+                oldDirectoryContents,
+                config.getSnapshotApi()
+                        .map(SnapshotApiConfig::getInlineFileBytes)
+                        .orElse(0L),
+                config.getSnapshotApi()
+                        .map(SnapshotApiConfig::getPushWaitMillis)
+                        .orElse(0L)
         );
         candidateSnapshot.writeServletFiles(repoStore.getRootDirectory());
         return candidateSnapshot;
@@ -817,7 +981,9 @@ public class Bridge {
      *
      * This method approves a push by setting the latest version and removing
      * any deleted files from the db store (files were already added by the
-     * resources cache).
+     * resources cache). It also records the project's size on disk, which
+     * already includes the pushed objects. The writes are made in one
+     * transaction.
      * @param versionID
      * @param candidateSnapshot
      */
@@ -826,14 +992,17 @@ public class Bridge {
             CandidateSnapshot candidateSnapshot
     ) {
         List<String> deleted = candidateSnapshot.getDeleted();
-        dbStore.setLatestVersionForProject(
-                candidateSnapshot.getProjectName(),
-                versionID
-        );
-        dbStore.deleteFilesForProject(
-                candidateSnapshot.getProjectName(),
-                deleted.toArray(new String[deleted.size()])
-        );
+        try (DBStore.Batch batch = dbStore.beginBatch()) {
+            dbStore.setLatestVersionForProject(
+                    candidateSnapshot.getProjectName(),
+                    versionID
+            );
+            dbStore.deleteFilesForProject(
+                    candidateSnapshot.getProjectName(),
+                    deleted.toArray(new String[deleted.size()])
+            );
+        }
+        swapJob.recordDiskSize(candidateSnapshot.getProjectName());
     }
 
 }
@@ -0,0 +1,14 @@
+package uk.ac.ic.wlgitbridge.bridge.db;
+
+/**
+ * Thrown when a project's row was changed by someone else, e.g. another
+ * bridge node sharing the database, in a way that the update can't be
+ * retried on top of.
+ */
+public class ConcurrentUpdateException extends RuntimeException {
+
+    public ConcurrentUpdateException(String message) {
+        super(message);
+    }
+
+}
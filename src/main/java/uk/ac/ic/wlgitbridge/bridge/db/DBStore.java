@@ -2,11 +2,23 @@ package uk.ac.ic.wlgitbridge.bridge.db;
 
 import java.sql.Timestamp;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by winston on 20/08/2016.
  */
-public interface DBStore {
+public interface DBStore extends AutoCloseable {
+
+    /**
+     * A group of updates that are written together, in one transaction.
+     * Closing the batch writes them.
+     */
+    interface Batch extends AutoCloseable {
+
+        @Override
+        void close();
+
+    }
 
     int getNumProjects();
 
@@ -22,23 +34,112 @@ public interface DBStore {
 
     String getPathForURLInProject(String projectName, String url);
 
+    /**
+     * Gets every URL in the project's URL index, with its path, so that an
+     * import can look attachments up without a query each.
+     * @param projectName the project's name
+     * @return URL to path, possibly empty
+     */
+    Map<String, String> getURLIndexForProject(String projectName);
+
     String getOldestUnswappedProject();
 
+    /**
+     * Gets up to limit unswapped projects, best eviction candidates first.
+     * @param policy how to rank the candidates
+     * @param limit the maximum number of candidates to return
+     * @return the names of the candidates, possibly empty
+     */
+    List<String> getSwapCandidates(EvictionPolicy policy, int limit);
+
     void swap(String projectName, String compressionMethod);
 
     void restore(String projectName);
 
     String getSwapCompression(String projectName);
 
+    /**
+     * Records the refs of a project that is being swapped, so that they can
+     * be advertised without restoring it. Cleared by
+     * {@link #restore(String)}.
+     * @param projectName the project's name
+     * @param refs ref name to object id, or to "ref: target" for symbolic
+     *             refs such as HEAD, or null to clear the recorded refs
+     */
+    void setSwappedRefs(String projectName, Map<String, String> refs);
+
+    /**
+     * Gets the refs recorded by {@link #setSwappedRefs(String, Map)}.
+     * @param projectName the project's name
+     * @return the refs, or null if none were recorded
+     */
+    Map<String, String> getSwappedRefs(String projectName);
+
     int getNumUnswappedProjects();
 
     ProjectState getProjectState(String projectName);
 
+    /**
+     * Gets the state of every project, for reconciling the repo store with
+     * the DB at startup. Projects that aren't in the map are
+     * {@link ProjectState#NOT_PRESENT}.
+     * @return the state of each project, by name
+     */
+    Map<String, ProjectState> getProjectStates();
+
     /**
      * Sets the last accessed time for the given project name.
+     *
+     * Stores may hold back access times and write them later, see
+     * {@link #flush()}, so they are only used to pick projects to swap. A
+     * held back time is only written if the project is still present when
+     * it is written, so that it can't undo a swap made in the meantime; use
+     * {@link #restore(String)} to mark a swapped project present.
      * @param projectName the project's name
      * @param time the time, or null if the project is to be swapped
      */
     void setLastAccessedTime(String projectName, Timestamp time);
 
+    /**
+     * Records how many bytes the project takes up on disk, for ranking
+     * eviction candidates. Has no effect if the project doesn't exist.
+     * @param projectName the project's name
+     * @param bytes the size of the project's directory
+     */
+    void setDiskSize(String projectName, long bytes);
+
+    /**
+     * Starts a batch on the calling thread. Until the batch is closed, the
+     * thread's updates are held back and then written in one transaction,
+     * rather than committing each one separately. Use it with
+     * try-with-resources.
+     *
+     * Queries made by the thread in the meantime don't see the held back
+     * updates, so keep batches to writes that nothing reads back before the
+     * batch is closed.
+     *
+     * A batch started while another is open on the same thread joins the
+     * outer one. Stores without transactions write updates straight away.
+     * @return the batch, which must be closed
+     */
+    default Batch beginBatch() {
+        return () -> {};
+    }
+
+    /**
+     * Writes any updates that the store has held back, such as access
+     * times.
+     */
+    default void flush() {}
+
+    /**
+     * Writes any updates that the store has held back, see {@link #flush()},
+     * and releases its connections and threads. The store can't be used
+     * afterwards. Called at shutdown.
+     */
+    @Override
+    default void close() {
+        flush();
+    }
+
 }
@@ -0,0 +1,60 @@
+package uk.ac.ic.wlgitbridge.bridge.db;
+
+/**
+ * Configures a shared SQL database for project state, instead of the
+ * SQLite file on the local disk. See
+ * {@link uk.ac.ic.wlgitbridge.bridge.db.jdbc.JdbcDBStore}.
+ */
+public class DBStoreConfig {
+
+    public static final int DEFAULT_POOL_SIZE = 10;
+
+    private String url;
+    private String username;
+    private String password;
+    private Integer poolSize;
+
+    public DBStoreConfig() {}
+
+    public DBStoreConfig(
+            String url,
+            String username,
+            String password,
+            Integer poolSize
+    ) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.poolSize = poolSize;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public int getPoolSize() {
+        return poolSize == null ? DEFAULT_POOL_SIZE : poolSize;
+    }
+
+    public DBStoreConfig sanitisedCopy() {
+        return new DBStoreConfig(
+                url,
+                username,
+                password == null ? null : "<password>",
+                poolSize
+        );
+    }
+
+    public static DBStoreConfig sanitisedCopy(DBStoreConfig database) {
+        return database == null ? null : database.sanitisedCopy();
+    }
+
+}
@@ -0,0 +1,39 @@
+package uk.ac.ic.wlgitbridge.bridge.db;
+
+import uk.ac.ic.wlgitbridge.util.Log;
+
+/**
+ * How the swap job ranks unswapped projects when choosing what to evict.
+ *
+ * LRU evicts the least recently accessed projects first.
+ *
+ * SIZE_IDLE scores each project by its on-disk size multiplied by how long it
+ * has been idle, and evicts the highest scores first, so that a few big idle
+ * projects go before many tiny ones. Projects whose size isn't known yet are
+ * scored as if they were of average size.
+ */
+public enum EvictionPolicy {
+
+    LRU,
+    SIZE_IDLE;
+
+    public static EvictionPolicy fromString(String policy) {
+        if (policy == null) {
+            return LRU;
+        }
+        switch (policy) {
+            case "lru":
+                return LRU;
+            case "sizeIdle":
+                return SIZE_IDLE;
+            default:
+                Log.info(
+                        "EvictionPolicy: un-supported policy '{}', " +
+                                "default to 'lru'",
+                        policy
+                );
+                return LRU;
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package uk.ac.ic.wlgitbridge.bridge.db;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * How the refs of a swapped project are stored in a text column: one
+ * "&lt;value&gt; &lt;name&gt;" line per ref, like packed-refs. Ref names
+ * can't contain spaces, so lines are split on the last one.
+ */
+public class SwappedRefs {
+
+    public static String encode(Map<String, String> refs) {
+        if (refs == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            sb.append(ref.getValue());
+            sb.append(' ');
+            sb.append(ref.getKey());
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static Map<String, String> decode(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        Map<String, String> refs = new LinkedHashMap<>();
+        for (String line : encoded.split("\n")) {
+            int space = line.lastIndexOf(' ');
+            if (space < 0) {
+                continue;
+            }
+            refs.put(line.substring(space + 1), line.substring(0, space));
+        }
+        return refs;
+    }
+
+}
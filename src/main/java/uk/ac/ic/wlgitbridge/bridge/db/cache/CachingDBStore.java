@@ -0,0 +1,346 @@
+package uk.ac.ic.wlgitbridge.bridge.db.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.prometheus.client.Counter;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.EvictionPolicy;
+import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A {@link DBStore} that keeps each project's state, latest version and swap
+ * compression in memory, in front of another {@link DBStore}.
+ *
+ * Writes go to the underlying store first and then update the cache, so the
+ * cache never has to be invalidated. The number of projects and of unswapped
+ * projects are counted once and then kept up to date as projects are
+ * created, swapped and restored.
+ *
+ * Writes made in a {@link DBStore.Batch} only update the cache once the
+ * batch has been written, so a batch that fails leaves the cache as it was.
+ *
+ * This relies on being the only writer to the underlying store. Everything
+ * else is passed straight through.
+ */
+public class CachingDBStore implements DBStore {
+
+    public static final long DEFAULT_MAX_PROJECTS = 10000;
+
+    private static final Counter lookups = Counter.build()
+            .name("wlgb_db_cache_lookups_total")
+            .help("DB store cache lookups, by cached value and result.")
+            .labelNames("value", "result")
+            .register();
+
+    private final DBStore delegate;
+
+    private final Cache<String, ProjectState> states;
+    private final Cache<String, Integer> versions;
+    private final Cache<String, Optional<String>> compressions;
+
+    /* Null until first asked for. Guarded by countLock */
+    private final Object countLock = new Object();
+    private Integer numProjects;
+    private Integer numUnswappedProjects;
+
+    /* The open batch on each thread, if any */
+    private final ThreadLocal<Batched> batches = new ThreadLocal<>();
+
+    /* Cache updates for the writes held back by a batch */
+    private static class Batched {
+
+        /* The state each project will be in once the batch is written */
+        final Map<String, ProjectState> states = new HashMap<>();
+        final List<Runnable> cacheUpdates = new ArrayList<>();
+
+    }
+
+    public CachingDBStore(DBStore delegate) {
+        this(delegate, DEFAULT_MAX_PROJECTS);
+    }
+
+    public CachingDBStore(DBStore delegate, long maxProjects) {
+        this.delegate = delegate;
+        states = CacheBuilder.newBuilder().maximumSize(maxProjects).build();
+        versions = CacheBuilder.newBuilder().maximumSize(maxProjects).build();
+        compressions = CacheBuilder.newBuilder()
+                .maximumSize(maxProjects)
+                .build();
+    }
+
+    @Override
+    public int getNumProjects() {
+        synchronized (countLock) {
+            if (numProjects == null) {
+                lookups.labels("num_projects", "miss").inc();
+                numProjects = delegate.getNumProjects();
+            } else {
+                lookups.labels("num_projects", "hit").inc();
+            }
+            return numProjects;
+        }
+    }
+
+    @Override
+    public List<String> getProjectNames() {
+        return delegate.getProjectNames();
+    }
+
+    @Override
+    public void setLatestVersionForProject(String project, int versionID) {
+        /* Replaces the whole row, so the project is present and unswapped */
+        changeState(project, ProjectState.PRESENT, () -> {
+            delegate.setLatestVersionForProject(project, versionID);
+        }, () -> {
+            versions.put(project, versionID);
+            compressions.put(project, Optional.empty());
+        });
+    }
+
+    @Override
+    public int getLatestVersionForProject(String project) {
+        return get(
+                "latest_version",
+                versions,
+                project,
+                () -> delegate.getLatestVersionForProject(project)
+        );
+    }
+
+    @Override
+    public void addURLIndexForProject(
+            String projectName,
+            String url,
+            String path
+    ) {
+        delegate.addURLIndexForProject(projectName, url, path);
+    }
+
+    @Override
+    public void deleteFilesForProject(String project, String... files) {
+        delegate.deleteFilesForProject(project, files);
+    }
+
+    @Override
+    public String getPathForURLInProject(String projectName, String url) {
+        return delegate.getPathForURLInProject(projectName, url);
+    }
+
+    @Override
+    public Map<String, String> getURLIndexForProject(String projectName) {
+        return delegate.getURLIndexForProject(projectName);
+    }
+
+    @Override
+    public String getOldestUnswappedProject() {
+        return delegate.getOldestUnswappedProject();
+    }
+
+    @Override
+    public List<String> getSwapCandidates(EvictionPolicy policy, int limit) {
+        return delegate.getSwapCandidates(policy, limit);
+    }
+
+    @Override
+    public void swap(String projectName, String compressionMethod) {
+        changeState(projectName, ProjectState.SWAPPED, () -> {
+            delegate.swap(projectName, compressionMethod);
+        }, () -> {
+            compressions.put(
+                    projectName,
+                    Optional.ofNullable(compressionMethod)
+            );
+        });
+    }
+
+    @Override
+    public void restore(String projectName) {
+        changeState(projectName, ProjectState.PRESENT, () -> {
+            delegate.restore(projectName);
+        }, () -> {
+            compressions.put(projectName, Optional.empty());
+        });
+    }
+
+    @Override
+    public String getSwapCompression(String projectName) {
+        return get(
+                "swap_compression",
+                compressions,
+                projectName,
+                () -> Optional.ofNullable(
+                        delegate.getSwapCompression(projectName)
+                )
+        ).orElse(null);
+    }
+
+    @Override
+    public void setSwappedRefs(String projectName, Map<String, String> refs) {
+        delegate.setSwappedRefs(projectName, refs);
+    }
+
+    @Override
+    public Map<String, String> getSwappedRefs(String projectName) {
+        return delegate.getSwappedRefs(projectName);
+    }
+
+    @Override
+    public int getNumUnswappedProjects() {
+        synchronized (countLock) {
+            if (numUnswappedProjects == null) {
+                lookups.labels("num_unswapped_projects", "miss").inc();
+                numUnswappedProjects = delegate.getNumUnswappedProjects();
+            } else {
+                lookups.labels("num_unswapped_projects", "hit").inc();
+            }
+            return numUnswappedProjects;
+        }
+    }
+
+    @Override
+    public ProjectState getProjectState(String projectName) {
+        return get(
+                "project_state",
+                states,
+                projectName,
+                () -> delegate.getProjectState(projectName)
+        );
+    }
+
+    @Override
+    public Map<String, ProjectState> getProjectStates() {
+        return delegate.getProjectStates();
+    }
+
+    @Override
+    public void setLastAccessedTime(String projectName, Timestamp time) {
+        if (time != null) {
+            /* Doesn't change the state: access times are only written to
+               unswapped projects */
+            delegate.setLastAccessedTime(projectName, time);
+            return;
+        }
+        changeState(projectName, ProjectState.SWAPPED, () -> {
+            delegate.setLastAccessedTime(projectName, null);
+        }, () -> {});
+    }
+
+    @Override
+    public void setDiskSize(String projectName, long bytes) {
+        delegate.setDiskSize(projectName, bytes);
+    }
+
+    @Override
+    public Batch beginBatch() {
+        if (batches.get() != null) {
+            /* Joins the outer batch, which updates the cache */
+            return () -> {};
+        }
+        Batch batch = delegate.beginBatch();
+        Batched batched = new Batched();
+        batches.set(batched);
+        return () -> {
+            if (batches.get() != batched) {
+                /* Already closed */
+                return;
+            }
+            batches.remove();
+            /* Counts can't be loaded between the write and the update */
+            synchronized (countLock) {
+                batch.close();
+                batched.cacheUpdates.forEach(Runnable::run);
+            }
+        };
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    /**
+     * Runs an update that moves an existing project to the given state, or,
+     * if the new state is {@link ProjectState#PRESENT}, may create it, and
+     * then updates the cache, unless the project doesn't exist and the
+     * update did nothing. The counts are adjusted under the same lock as the
+     * update, so they can't be loaded in between.
+     *
+     * In a batch, the cache is updated once the batch has been written.
+     */
+    private void changeState(
+            String projectName,
+            ProjectState after,
+            Runnable update,
+            Runnable cacheUpdate
+    ) {
+        Batched batch = batches.get();
+        ProjectState before = batch != null
+                && batch.states.containsKey(projectName)
+                ? batch.states.get(projectName)
+                : getProjectState(projectName);
+        if (before == ProjectState.NOT_PRESENT
+                && after != ProjectState.PRESENT) {
+            update.run();
+            return;
+        }
+        /* Run under countLock */
+        Runnable apply = () -> {
+            states.put(projectName, after);
+            if (numProjects != null && before == ProjectState.NOT_PRESENT) {
+                ++numProjects;
+            }
+            if (numUnswappedProjects != null) {
+                numUnswappedProjects += unswapped(after) - unswapped(before);
+            }
+            cacheUpdate.run();
+        };
+        if (batch != null) {
+            update.run();
+            batch.states.put(projectName, after);
+            batch.cacheUpdates.add(apply);
+            return;
+        }
+        synchronized (countLock) {
+            update.run();
+            apply.run();
+        }
+    }
+
+    private static int unswapped(ProjectState state) {
+        return state == ProjectState.PRESENT ? 1 : 0;
+    }
+
+    private static <V> V get(
+            String value,
+            Cache<String, V> cache,
+            String projectName,
+            Callable<V> load
+    ) {
+        V cached = cache.getIfPresent(projectName);
+        if (cached != null) {
+            lookups.labels(value, "hit").inc();
+            return cached;
+        }
+        lookups.labels(value, "miss").inc();
+        try {
+            return cache.get(projectName, load);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+}
@@ -0,0 +1,665 @@
+package uk.ac.ic.wlgitbridge.bridge.db.jdbc;
+
+import com.google.common.base.Preconditions;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import uk.ac.ic.wlgitbridge.bridge.db.ConcurrentUpdateException;
+import uk.ac.ic.wlgitbridge.bridge.db.DBInitException;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStoreConfig;
+import uk.ac.ic.wlgitbridge.bridge.db.EvictionPolicy;
+import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+import uk.ac.ic.wlgitbridge.bridge.db.SwappedRefs;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link DBStore} on a shared SQL database, so that several bridge nodes
+ * can keep their project state in one place.
+ *
+ * The SQL is plain enough for PostgreSQL and for H2, which the tests use.
+ * The schema is the SQLite one, and is migrated the same way, column by
+ * column.
+ *
+ * Every update runs in a transaction on a pooled connection, and is
+ * retried if it loses a race with another node. Updates that change a
+ * project's state (setting its version, swapping and restoring it) are
+ * optimistic: they read the row's row_version and only apply if it hasn't
+ * changed since. Swapping a project that is already swapped does nothing,
+ * as in SQLite. Restoring one that is no longer swapped fails with a
+ * {@link ConcurrentUpdateException} instead of being retried, since another
+ * node must have done it already.
+ *
+ * Don't put a {@link uk.ac.ic.wlgitbridge.bridge.db.cache.CachingDBStore}
+ * in front of this when the database is shared, as it assumes it is the
+ * only writer.
+ */
+public class JdbcDBStore implements DBStore {
+
+    private static final int MAX_ATTEMPTS = 5;
+
+    /* SQLSTATE class of integrity constraint violations, e.g. duplicate keys */
+    private static final String INTEGRITY_CONSTRAINT_VIOLATION = "23";
+
+    private static final String[] CREATE_TABLES = {
+            "CREATE TABLE IF NOT EXISTS projects (\n" +
+            "    name VARCHAR(255) NOT NULL,\n" +
+            "    version_id INTEGER NOT NULL DEFAULT 0,\n" +
+            "    PRIMARY KEY (name)\n" +
+            ")",
+            "CREATE TABLE IF NOT EXISTS url_index_store (\n" +
+            "    project_name VARCHAR(255) NOT NULL,\n" +
+            "    url VARCHAR NOT NULL,\n" +
+            "    path VARCHAR NOT NULL,\n" +
+            "    PRIMARY KEY (project_name, url)\n" +
+            ")",
+            "CREATE UNIQUE INDEX IF NOT EXISTS project_path_index\n" +
+            "    ON url_index_store (project_name, path)"
+    };
+
+    /* The same migrations as SqliteDBStore, plus the row version */
+    private static final String[] MIGRATIONS = {
+            "ALTER TABLE projects\n" +
+            "    ADD COLUMN IF NOT EXISTS last_accessed TIMESTAMP NULL",
+            "ALTER TABLE projects\n" +
+            "    ADD COLUMN IF NOT EXISTS swap_time TIMESTAMP NULL",
+            "ALTER TABLE projects\n" +
+            "    ADD COLUMN IF NOT EXISTS restore_time TIMESTAMP NULL",
+            "ALTER TABLE projects\n" +
+            "    ADD COLUMN IF NOT EXISTS swap_compression VARCHAR(255) NULL",
+            "ALTER TABLE projects\n" +
+            "    ADD COLUMN IF NOT EXISTS disk_size BIGINT NULL",
+            "ALTER TABLE projects\n" +
+            "    ADD COLUMN IF NOT EXISTS swapped_refs VARCHAR NULL",
+            "ALTER TABLE projects\n" +
+            "    ADD COLUMN IF NOT EXISTS row_version BIGINT NOT NULL DEFAULT 0",
+            "CREATE INDEX IF NOT EXISTS projects_index_last_accessed\n" +
+            "    ON projects (last_accessed)"
+    };
+
+    private static final String GET_ROW =
+            "SELECT row_version, last_accessed FROM projects WHERE name = ?";
+
+    private static final String INSERT_PROJECT =
+            "INSERT INTO projects (name, version_id, last_accessed)\n" +
+            "    VALUES (?, ?, CURRENT_TIMESTAMP)";
+
+    /* Like SQLite's INSERT OR REPLACE, which clears the other columns */
+    private static final String REPLACE_PROJECT =
+            "UPDATE projects\n" +
+            "SET version_id = ?,\n" +
+            "    last_accessed = CURRENT_TIMESTAMP,\n" +
+            "    swap_time = NULL,\n" +
+            "    restore_time = NULL,\n" +
+            "    swap_compression = NULL,\n" +
+            "    disk_size = NULL,\n" +
+            "    swapped_refs = NULL,\n" +
+            "    row_version = row_version + 1\n" +
+            "WHERE name = ? AND row_version = ?";
+
+    private static final String SWAP_PROJECT =
+            "UPDATE projects\n" +
+            "SET last_accessed = NULL,\n" +
+            "    swap_time = ?,\n" +
+            "    restore_time = NULL,\n" +
+            "    swap_compression = ?,\n" +
+            "    row_version = row_version + 1\n" +
+            "WHERE name = ? AND row_version = ?";
+
+    private static final String RESTORE_PROJECT =
+            "UPDATE projects\n" +
+            "SET last_accessed = ?,\n" +
+            "    swap_time = NULL,\n" +
+            "    restore_time = ?,\n" +
+            "    swap_compression = NULL,\n" +
+            "    swapped_refs = NULL,\n" +
+            "    row_version = row_version + 1\n" +
+            "WHERE name = ? AND row_version = ?";
+
+    /* Biggest size times idle seconds first, as in SqliteDBStore. Both
+       times go through EXTRACT, so they are converted the same way */
+    private static final String GET_SIZE_IDLE_CANDIDATES =
+            "SELECT name FROM projects\n" +
+            "WHERE last_accessed IS NOT NULL\n" +
+            "ORDER BY COALESCE(\n" +
+            "    disk_size,\n" +
+            "    (SELECT AVG(disk_size) FROM projects\n" +
+            "        WHERE disk_size IS NOT NULL),\n" +
+            "    1\n" +
+            ") * GREATEST(\n" +
+            "    EXTRACT(EPOCH FROM CAST(? AS TIMESTAMP))\n" +
+            "        - EXTRACT(EPOCH FROM last_accessed),\n" +
+            "    1\n" +
+            ") DESC\n" +
+            "LIMIT ?";
+
+    /* Access times don't change the state, so they don't bump the version */
+    private static final String SET_LAST_ACCESSED =
+            "UPDATE projects SET last_accessed = ?\n" +
+            "WHERE name = ? AND last_accessed IS NOT NULL";
+
+    private static final String SET_DISK_SIZE =
+            "UPDATE projects SET disk_size = ? WHERE name = ?";
+
+    private static final String SET_SWAPPED_REFS =
+            "UPDATE projects SET swapped_refs = ? WHERE name = ?";
+
+    /* Like INSERT OR REPLACE, which also replaces a row with the same path */
+    private static final String DELETE_URL =
+            "DELETE FROM url_index_store\n" +
+            "WHERE project_name = ? AND (url = ? OR path = ?)";
+
+    private static final String INSERT_URL =
+            "INSERT INTO url_index_store (project_name, url, path)\n" +
+            "    VALUES (?, ?, ?)";
+
+    private static final String DELETE_PATH =
+            "DELETE FROM url_index_store WHERE project_name = ? AND path = ?";
+
+    private interface Parameters {
+
+        void set(PreparedStatement statement) throws SQLException;
+
+    }
+
+    private interface Results<T> {
+
+        T read(ResultSet results) throws SQLException;
+
+    }
+
+    /* An update, which may be run again if it conflicts */
+    private interface Work {
+
+        void run(Connection connection) throws SQLException, Conflict;
+
+    }
+
+    /* The row a work read has been changed since */
+    private static class Conflict extends Exception {}
+
+    private final DataSource dataSource;
+    /* The works held back by the open batch on each thread, if any */
+    private final ThreadLocal<List<Work>> batches = new ThreadLocal<>();
+
+    public JdbcDBStore(DBStoreConfig config) {
+        this(makeDataSource(config));
+    }
+
+    public JdbcDBStore(DataSource dataSource) {
+        this.dataSource = dataSource;
+        try (Connection connection = dataSource.getConnection()) {
+            for (String sql : CREATE_TABLES) {
+                execute(connection, sql, statement -> {});
+            }
+            for (String sql : MIGRATIONS) {
+                execute(connection, sql, statement -> {});
+            }
+        } catch (SQLException e) {
+            throw new DBInitException("Unable to create tables", e);
+        }
+    }
+
+    private static DataSource makeDataSource(DBStoreConfig config) {
+        Preconditions.checkArgument(
+                config.getUrl() != null,
+                "url is required for a database"
+        );
+        HikariConfig hikari = new HikariConfig();
+        hikari.setJdbcUrl(config.getUrl());
+        hikari.setUsername(config.getUsername());
+        hikari.setPassword(config.getPassword());
+        hikari.setMaximumPoolSize(config.getPoolSize());
+        hikari.setPoolName("wlgb-db");
+        try {
+            return new HikariDataSource(hikari);
+        } catch (RuntimeException e) {
+            throw new DBInitException("Unable to connect to DB", e);
+        }
+    }
+
+    /* Closes the connection pool, if the store made it from a config */
+    @Override
+    public void close() {
+        if (dataSource instanceof HikariDataSource) {
+            ((HikariDataSource) dataSource).close();
+        }
+    }
+
+    @Override
+    public int getNumProjects() {
+        return query(
+                "SELECT COUNT(*) FROM projects",
+                statement -> {},
+                results -> results.next() ? results.getInt(1) : 0
+        );
+    }
+
+    @Override
+    public List<String> getProjectNames() {
+        return query(
+                "SELECT name FROM projects",
+                statement -> {},
+                JdbcDBStore::readNames
+        );
+    }
+
+    @Override
+    public void setLatestVersionForProject(String project, int versionID) {
+        write(connection -> {
+            Long rowVersion = getRowVersion(connection, project);
+            if (rowVersion == null) {
+                /* A duplicate key means another node got there first */
+                execute(connection, INSERT_PROJECT, statement -> {
+                    statement.setString(1, project);
+                    statement.setInt(2, versionID);
+                });
+                return;
+            }
+            if (execute(connection, REPLACE_PROJECT, statement -> {
+                statement.setInt(1, versionID);
+                statement.setString(2, project);
+                statement.setLong(3, rowVersion);
+            }) == 0) {
+                throw new Conflict();
+            }
+        });
+    }
+
+    @Override
+    public int getLatestVersionForProject(String project) {
+        return query(
+                "SELECT version_id FROM projects WHERE name = ?",
+                statement -> statement.setString(1, project),
+                results -> results.next() ? results.getInt(1) : 0
+        );
+    }
+
+    @Override
+    public void addURLIndexForProject(
+            String projectName,
+            String url,
+            String path
+    ) {
+        write(connection -> {
+            execute(connection, DELETE_URL, statement -> {
+                statement.setString(1, projectName);
+                statement.setString(2, url);
+                statement.setString(3, path);
+            });
+            execute(connection, INSERT_URL, statement -> {
+                statement.setString(1, projectName);
+                statement.setString(2, url);
+                statement.setString(3, path);
+            });
+        });
+    }
+
+    @Override
+    public void deleteFilesForProject(String project, String... files) {
+        if (files.length == 0) {
+            return;
+        }
+        write(connection -> {
+            try (PreparedStatement statement =
+                         connection.prepareStatement(DELETE_PATH)) {
+                for (String file : files) {
+                    statement.setString(1, project);
+                    statement.setString(2, file);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        });
+    }
+
+    @Override
+    public String getPathForURLInProject(String projectName, String url) {
+        return query(
+                "SELECT path FROM url_index_store\n" +
+                "WHERE project_name = ? AND url = ?",
+                statement -> {
+                    statement.setString(1, projectName);
+                    statement.setString(2, url);
+                },
+                results -> results.next() ? results.getString(1) : null
+        );
+    }
+
+    @Override
+    public Map<String, String> getURLIndexForProject(String projectName) {
+        return query(
+                "SELECT url, path FROM url_index_store\n" +
+                "WHERE project_name = ?",
+                statement -> statement.setString(1, projectName),
+                results -> {
+                    Map<String, String> index = new HashMap<>();
+                    while (results.next()) {
+                        index.put(results.getString(1), results.getString(2));
+                    }
+                    return index;
+                }
+        );
+    }
+
+    @Override
+    public String getOldestUnswappedProject() {
+        List<String> oldest = getSwapCandidates(EvictionPolicy.LRU, 1);
+        return oldest.isEmpty() ? null : oldest.get(0);
+    }
+
+    @Override
+    public List<String> getSwapCandidates(EvictionPolicy policy, int limit) {
+        if (policy == EvictionPolicy.SIZE_IDLE) {
+            return getSizeIdleCandidates(limit);
+        }
+        return query(
+                "SELECT name FROM projects\n" +
+                "WHERE last_accessed IS NOT NULL\n" +
+                "ORDER BY last_accessed ASC",
+                statement -> statement.setMaxRows(limit),
+                JdbcDBStore::readNames
+        );
+    }
+
+    private List<String> getSizeIdleCandidates(int limit) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        return query(
+                GET_SIZE_IDLE_CANDIDATES,
+                statement -> {
+                    statement.setTimestamp(1, now);
+                    statement.setInt(2, limit);
+                },
+                JdbcDBStore::readNames
+        );
+    }
+
+    @Override
+    public void swap(String projectName, String compressionMethod) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        write(connection -> {
+            Long rowVersion = getRowVersion(connection, projectName);
+            if (rowVersion == null) {
+                return;
+            }
+            if (getState(connection, projectName) != ProjectState.PRESENT) {
+                /* Another node swapped it already */
+                return;
+            }
+            if (execute(connection, SWAP_PROJECT, statement -> {
+                statement.setTimestamp(1, now);
+                statement.setString(2, compressionMethod);
+                statement.setString(3, projectName);
+                statement.setLong(4, rowVersion);
+            }) == 0) {
+                throw new Conflict();
+            }
+        });
+    }
+
+    @Override
+    public void restore(String projectName) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        write(connection -> {
+            Long rowVersion = getRowVersion(connection, projectName);
+            if (rowVersion == null) {
+                return;
+            }
+            if (getState(connection, projectName) != ProjectState.SWAPPED) {
+                throw new ConcurrentUpdateException(
+                        "project " + projectName + " is already restored"
+                );
+            }
+            if (execute(connection, RESTORE_PROJECT, statement -> {
+                statement.setTimestamp(1, now);
+                statement.setTimestamp(2, now);
+                statement.setString(3, projectName);
+                statement.setLong(4, rowVersion);
+            }) == 0) {
+                throw new Conflict();
+            }
+        });
+    }
+
+    @Override
+    public String getSwapCompression(String projectName) {
+        return query(
+                "SELECT swap_compression FROM projects WHERE name = ?",
+                statement -> statement.setString(1, projectName),
+                results -> results.next() ? results.getString(1) : null
+        );
+    }
+
+    @Override
+    public void setSwappedRefs(String projectName, Map<String, String> refs) {
+        write(connection -> execute(connection, SET_SWAPPED_REFS, statement -> {
+            statement.setString(1, SwappedRefs.encode(refs));
+            statement.setString(2, projectName);
+        }));
+    }
+
+    @Override
+    public Map<String, String> getSwappedRefs(String projectName) {
+        return query(
+                "SELECT swapped_refs FROM projects WHERE name = ?",
+                statement -> statement.setString(1, projectName),
+                results -> SwappedRefs.decode(
+                        results.next() ? results.getString(1) : null
+                )
+        );
+    }
+
+    @Override
+    public int getNumUnswappedProjects() {
+        return query(
+                "SELECT COUNT(*) FROM projects\n" +
+                "WHERE last_accessed IS NOT NULL",
+                statement -> {},
+                results -> results.next() ? results.getInt(1) : 0
+        );
+    }
+
+    @Override
+    public ProjectState getProjectState(String projectName) {
+        try (Connection connection = dataSource.getConnection()) {
+            return getState(connection, projectName);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Map<String, ProjectState> getProjectStates() {
+        return query(
+                "SELECT name, last_accessed FROM projects",
+                statement -> {},
+                results -> {
+                    Map<String, ProjectState> states = new HashMap<>();
+                    while (results.next()) {
+                        states.put(
+                                results.getString(1),
+                                results.getTimestamp(2) == null
+                                        ? ProjectState.SWAPPED
+                                        : ProjectState.PRESENT
+                        );
+                    }
+                    return states;
+                }
+        );
+    }
+
+    @Override
+    public void setLastAccessedTime(String projectName, Timestamp time) {
+        if (time == null) {
+            /* Marks the project swapped, without an archive */
+            swap(projectName, null);
+            return;
+        }
+        write(connection -> execute(connection, SET_LAST_ACCESSED, statement -> {
+            statement.setTimestamp(1, time);
+            statement.setString(2, projectName);
+        }));
+    }
+
+    @Override
+    public void setDiskSize(String projectName, long bytes) {
+        write(connection -> execute(connection, SET_DISK_SIZE, statement -> {
+            statement.setLong(1, bytes);
+            statement.setString(2, projectName);
+        }));
+    }
+
+    @Override
+    public Batch beginBatch() {
+        if (batches.get() != null) {
+            /* Joins the outer batch, which runs the works */
+            return () -> {};
+        }
+        List<Work> works = new ArrayList<>();
+        batches.set(works);
+        return () -> {
+            if (batches.get() != works) {
+                /* Already closed */
+                return;
+            }
+            batches.remove();
+            if (!works.isEmpty()) {
+                runInTransaction(works);
+            }
+        };
+    }
+
+    private void write(Work work) {
+        List<Work> batch = batches.get();
+        if (batch != null) {
+            batch.add(work);
+            return;
+        }
+        runInTransaction(Collections.singletonList(work));
+    }
+
+    /**
+     * Runs the works in one transaction. If one of them conflicts with
+     * another node, the transaction is rolled back and all of them run again,
+     * as the databases we support abort a transaction on its first error.
+     */
+    private void runInTransaction(List<Work> works) {
+        for (int attempt = 1; ; ++attempt) {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(false);
+                try {
+                    for (Work work : works) {
+                        work.run(connection);
+                    }
+                    connection.commit();
+                    return;
+                } catch (Conflict | SQLException | RuntimeException e) {
+                    try {
+                        connection.rollback();
+                    } catch (SQLException rollbackFailure) {
+                        e.addSuppressed(rollbackFailure);
+                        throw e;
+                    }
+                    if (attempt >= MAX_ATTEMPTS || !isRetryable(e)) {
+                        throw e;
+                    }
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (Conflict e) {
+                throw new ConcurrentUpdateException(
+                        "gave up after " + MAX_ATTEMPTS + " conflicting updates"
+                );
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static boolean isRetryable(Exception e) {
+        if (e instanceof Conflict) {
+            return true;
+        }
+        if (!(e instanceof SQLException)) {
+            return false;
+        }
+        String state = ((SQLException) e).getSQLState();
+        return state != null && state.startsWith(INTEGRITY_CONSTRAINT_VIOLATION);
+    }
+
+    private <T> T query(String sql, Parameters parameters, Results<T> results) {
+        try (
+                Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement(sql)
+        ) {
+            parameters.set(statement);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return results.read(resultSet);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int execute(
+            Connection connection,
+            String sql,
+            Parameters parameters
+    ) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            parameters.set(statement);
+            return statement.executeUpdate();
+        }
+    }
+
+    /* Null if the project doesn't exist */
+    private static Long getRowVersion(
+            Connection connection,
+            String projectName
+    ) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(GET_ROW)) {
+            statement.setString(1, projectName);
+            try (ResultSet results = statement.executeQuery()) {
+                return results.next() ? results.getLong(1) : null;
+            }
+        }
+    }
+
+    private static ProjectState getState(
+            Connection connection,
+            String projectName
+    ) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(GET_ROW)) {
+            statement.setString(1, projectName);
+            try (ResultSet results = statement.executeQuery()) {
+                if (!results.next()) {
+                    return ProjectState.NOT_PRESENT;
+                }
+                return results.getTimestamp(2) == null
+                        ? ProjectState.SWAPPED
+                        : ProjectState.PRESENT;
+            }
+        }
+    }
+
+    private static List<String> readNames(
+            ResultSet results
+    ) throws SQLException {
+        List<String> names = new ArrayList<>();
+        while (results.next()) {
+            names.add(results.getString(1));
+        }
+        return names;
+    }
+
+}
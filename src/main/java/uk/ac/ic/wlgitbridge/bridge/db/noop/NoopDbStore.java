@@ -1,10 +1,13 @@
 package uk.ac.ic.wlgitbridge.bridge.db.noop;
 
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.EvictionPolicy;
 import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
 
 import java.sql.Timestamp;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 public class NoopDbStore implements DBStore {
 
@@ -43,11 +46,21 @@ public class NoopDbStore implements DBStore {
         return null;
     }
 
+    @Override
+    public Map<String, String> getURLIndexForProject(String projectName) {
+        return Collections.emptyMap();
+    }
+
     @Override
     public String getOldestUnswappedProject() {
         return null;
     }
 
+    @Override
+    public List<String> getSwapCandidates(EvictionPolicy policy, int limit) {
+        return Collections.emptyList();
+    }
+
     @Override
     public int getNumUnswappedProjects() {
         return 0;
@@ -58,10 +71,18 @@ public class NoopDbStore implements DBStore {
         return null;
     }
 
+    @Override
+    public Map<String, ProjectState> getProjectStates() {
+        return Collections.emptyMap();
+    }
+
     @Override
     public void setLastAccessedTime(String projectName, Timestamp time) {
     }
 
+    @Override
+    public void setDiskSize(String projectName, long bytes) {}
+
     @Override
     public void swap(String projectName, String compressionMethod) {}
 
@@ -72,4 +93,12 @@ public class NoopDbStore implements DBStore {
     public String getSwapCompression(String projectName) {
         return null;
     }
+
+    @Override
+    public void setSwappedRefs(String projectName, Map<String, String> refs) {}
+
+    @Override
+    public Map<String, String> getSwappedRefs(String projectName) {
+        return null;
+    }
 }
@@ -0,0 +1,193 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A JDBC connection that keeps its prepared statements around, so that
+ * running the same {@link SQLQuery} or {@link SQLUpdate} again doesn't
+ * prepare it again.
+ *
+ * Statements are cached by their SQL, since a few of our query classes build
+ * their SQL from their arguments. The cache is bounded, and the least
+ * recently used statement is closed when it is full.
+ *
+ * Every statement run is timed, by the class of its {@link SQLQuery} or
+ * {@link SQLUpdate}.
+ *
+ * Not thread safe: a connection is only used by one thread at a time.
+ */
+class CachingConnection implements AutoCloseable {
+
+    private static final int MAX_CACHED_STATEMENTS = 64;
+
+    private static final Counter statementCache = Counter.build()
+            .name("wlgb_sqlite_statement_cache_total")
+            .help("Prepared statement cache lookups, by result.")
+            .labelNames("result")
+            .register();
+    private static final Histogram statementDuration = Histogram.build()
+            .name("wlgb_sqlite_statement_duration_seconds")
+            .help("Time taken to run SQLite statements, by operation.")
+            .labelNames("operation")
+            .buckets(0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5)
+            .register();
+    private static final Counter statementErrors = Counter.build()
+            .name("wlgb_sqlite_statement_errors_total")
+            .help("SQLite statements that failed, by operation.")
+            .labelNames("operation")
+            .register();
+
+    /* The operation label for transaction commits */
+    private static final String COMMIT = "commit";
+
+    private final Connection connection;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    CachingConnection(Connection connection) {
+        this.connection = connection;
+        statements = new LinkedHashMap<String, PreparedStatement>(
+                16,
+                0.75f,
+                true
+        ) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, PreparedStatement> eldest
+            ) {
+                if (size() <= MAX_CACHED_STATEMENTS) {
+                    return false;
+                }
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    void update(SQLUpdate update) throws SQLException {
+        String operation = operationOf(update);
+        long start = System.nanoTime();
+        PreparedStatement statement = prepare(update);
+        try {
+            update.addParametersToStatement(statement);
+            statement.executeUpdate();
+            statement.clearParameters();
+        } catch (SQLException e) {
+            statementErrors.labels(operation).inc();
+            discard(update);
+            throw e;
+        } finally {
+            observe(operation, start);
+        }
+    }
+
+    /* Either all of the updates are written or, if one fails, none are */
+    void updateAll(List<SQLUpdate> updates) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            for (SQLUpdate update : updates) {
+                update(update);
+            }
+            commit();
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackFailure) {
+                e.addSuppressed(rollbackFailure);
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    <T> T query(SQLQuery<T> query) throws SQLException {
+        String operation = operationOf(query);
+        long start = System.nanoTime();
+        PreparedStatement statement = prepare(query);
+        try {
+            query.addParametersToStatement(statement);
+            T ret;
+            try (ResultSet results = statement.executeQuery()) {
+                ret = query.processResultSet(results);
+            }
+            statement.clearParameters();
+            return ret;
+        } catch (SQLException e) {
+            statementErrors.labels(operation).inc();
+            discard(query);
+            throw e;
+        } finally {
+            observe(operation, start);
+        }
+    }
+
+    /* e.g. SetProjectSQLUpdate */
+    static String operationOf(SQLUpdate update) {
+        return update.getClass().getSimpleName();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+        connection.close();
+    }
+
+    private PreparedStatement prepare(SQLUpdate update) throws SQLException {
+        String sql = update.getSQL();
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null) {
+            statementCache.labels("hit").inc();
+            return statement;
+        }
+        statementCache.labels("miss").inc();
+        statement = connection.prepareStatement(sql);
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    /* A statement that failed may be unusable, so prepare it afresh */
+    private void discard(SQLUpdate update) {
+        PreparedStatement statement = statements.remove(update.getSQL());
+        if (statement != null) {
+            closeQuietly(statement);
+        }
+    }
+
+    /* Committing is where WAL writes are synced, so it is timed too */
+    private void commit() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            connection.commit();
+        } catch (SQLException e) {
+            statementErrors.labels(COMMIT).inc();
+            throw e;
+        } finally {
+            observe(COMMIT, start);
+        }
+    }
+
+    private static void observe(String operation, long startNanos) {
+        statementDuration.labels(operation).observe(
+                (System.nanoTime() - startNanos) / 1e9
+        );
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignore) {}
+    }
+
+}
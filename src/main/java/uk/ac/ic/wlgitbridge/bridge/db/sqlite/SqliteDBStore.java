@@ -1,26 +1,128 @@
 package uk.ac.ic.wlgitbridge.bridge.db.sqlite;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import org.sqlite.SQLiteConfig;
 import uk.ac.ic.wlgitbridge.bridge.db.DBInitException;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.EvictionPolicy;
 import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.query.*;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.alter.*;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.create.*;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.delete.*;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.insert.*;
+import uk.ac.ic.wlgitbridge.util.Log;
 
 import java.io.File;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Stream;
 
 /**
  * Created by Winston on 17/11/14.
+ *
+ * The database runs in WAL mode, so readers don't block the writer or each
+ * other. All updates go through a single writer connection, one at a time,
+ * and queries borrow one of a small pool of read-only connections.
+ *
+ * Updates made in a {@link DBStore.Batch} are kept per thread until the
+ * batch is closed, and then written in one transaction.
+ *
+ * Access times are only used to pick projects to swap, so they are held in
+ * memory and written behind, every few seconds, in one transaction. Queries
+ * that rank projects by access time write them first.
+ *
+ * Statements are timed by {@link CachingConnection}. The time callers wait
+ * for a connection is timed here, as are retries of statements that fail
+ * because another connection holds the database lock for longer than the
+ * busy timeout.
  */
 public class SqliteDBStore implements DBStore {
 
-    private final Connection connection;
+    public static final int DEFAULT_READ_POOL_SIZE = 4;
+
+    private static final int BUSY_TIMEOUT_MILLIS = 5000;
+
+    private static final long ACCESS_TIME_FLUSH_INTERVAL_SECONDS = 5;
+
+    private static final int MAX_BUSY_ATTEMPTS = 3;
+
+    private static final long BUSY_RETRY_DELAY_MILLIS = 50;
+
+    /* SQLite result codes; extended codes share the low byte */
+    private static final int SQLITE_BUSY = 5;
+    private static final int SQLITE_LOCKED = 6;
+
+    private static final Gauge readConnectionsInUse = Gauge.build()
+            .name("wlgb_sqlite_read_connections_in_use")
+            .help("SQLite read connections currently borrowed from the pool.")
+            .register();
+    private static final Gauge readConnectionsTotal = Gauge.build()
+            .name("wlgb_sqlite_read_connections")
+            .help("Size of the SQLite read connection pool.")
+            .register();
+    private static final Counter readConnectionWaits = Counter.build()
+            .name("wlgb_sqlite_read_connection_waits_total")
+            .help("Queries that had to wait for a free read connection.")
+            .register();
+    private static final Histogram connectionWait = Histogram.build()
+            .name("wlgb_sqlite_connection_wait_seconds")
+            .help("Time spent waiting for a SQLite connection, by type.")
+            .labelNames("connection")
+            .buckets(0.0001, 0.001, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30)
+            .register();
+    private static final Counter busyRetries = Counter.build()
+            .name("wlgb_sqlite_busy_retries_total")
+            .help("SQLite operations retried because the DB was busy.")
+            .labelNames("operation")
+            .register();
+
+    /* Something to run on a connection */
+    private interface Operation<T> {
+
+        T run(CachingConnection connection) throws SQLException;
+
+    }
+
+    /* Takes a connection, runs something on it and gives it back. May be
+       run again if the DB is busy */
+    private interface Attempt<T> {
+
+        T run() throws SQLException;
+
+    }
+
+    /* Guarded by itself */
+    private final CachingConnection writeConnection;
+    private final BlockingQueue<CachingConnection> readConnections;
+    /* Every read connection, borrowed or not, so that close() closes all */
+    private final List<CachingConnection> allReadConnections =
+            new ArrayList<>();
+    /* The updates held back by the open batch on each thread, if any */
+    private final ThreadLocal<List<SQLUpdate>> batches = new ThreadLocal<>();
+    /* Access times that haven't been written yet */
+    private final ConcurrentMap<String, Timestamp> pendingAccessTimes =
+            new ConcurrentHashMap<>();
+    /* Held from taking the pending access times until they are written, so
+       that a flush only returns once every earlier time is in the DB */
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService accessTimeFlusher;
+    private final AtomicBoolean closed = new AtomicBoolean();
     private int heapLimitBytes = 0;
 
     public SqliteDBStore(File dbFile) {
@@ -28,13 +130,44 @@ public class SqliteDBStore implements DBStore {
     }
 
     public SqliteDBStore(File dbFile, int heapLimitBytes) {
+        this(dbFile, heapLimitBytes, DEFAULT_READ_POOL_SIZE);
+    }
+
+    public SqliteDBStore(File dbFile, int heapLimitBytes, int readPoolSize) {
+        Preconditions.checkArgument(
+                readPoolSize > 0,
+                "invalid read pool size: %s",
+                readPoolSize
+        );
         this.heapLimitBytes = heapLimitBytes;
         try {
-            connection = openConnectionTo(dbFile);
+            writeConnection = new CachingConnection(
+                    openConnectionTo(dbFile, false)
+            );
             createTables();
+            readConnections = new ArrayBlockingQueue<>(readPoolSize);
+            for (int i = 0; i < readPoolSize; ++i) {
+                allReadConnections.add(new CachingConnection(
+                        openConnectionTo(dbFile, true)
+                ));
+            }
+            readConnections.addAll(allReadConnections);
+            readConnectionsTotal.inc(readPoolSize);
         } catch (Throwable t) {
             throw new DBInitException(t);
         }
+        accessTimeFlusher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("sqlite-access-time-flush-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+        accessTimeFlusher.scheduleWithFixedDelay(
+                this::flushAccessTimesQuietly,
+                ACCESS_TIME_FLUSH_INTERVAL_SECONDS,
+                ACCESS_TIME_FLUSH_INTERVAL_SECONDS,
+                TimeUnit.SECONDS
+        );
     }
 
     @Override
@@ -87,11 +220,23 @@ public class SqliteDBStore implements DBStore {
         return query(new GetPathForURLInProjectSQLQuery(projectName, url));
     }
 
+    @Override
+    public Map<String, String> getURLIndexForProject(String projectName) {
+        return query(new GetURLIndexForProjectSQLQuery(projectName));
+    }
+
     @Override
     public String getOldestUnswappedProject() {
+        flushAccessTimes();
         return query(new GetOldestProjectName());
     }
 
+    @Override
+    public List<String> getSwapCandidates(EvictionPolicy policy, int limit) {
+        flushAccessTimes();
+        return query(new GetSwapCandidates(policy, limit));
+    }
+
     @Override
     public int getNumUnswappedProjects() {
         return query(new GetNumUnswappedProjects());
@@ -102,21 +247,42 @@ public class SqliteDBStore implements DBStore {
         return query(new GetProjectState(projectName));
     }
 
+    @Override
+    public Map<String, ProjectState> getProjectStates() {
+        return query(new GetProjectStates());
+    }
+
     @Override
     public void setLastAccessedTime(
             String projectName,
             Timestamp lastAccessed
     ) {
-        update(new SetProjectLastAccessedTime(projectName, lastAccessed));
+        if (lastAccessed == null) {
+            pendingAccessTimes.remove(projectName);
+            update(new SetProjectLastAccessedTime(projectName, null));
+            return;
+        }
+        pendingAccessTimes.merge(
+                projectName,
+                lastAccessed,
+                (a, b) -> a.after(b) ? a : b
+        );
+    }
+
+    @Override
+    public void setDiskSize(String projectName, long bytes) {
+        update(new SetProjectDiskSize(projectName, bytes));
     }
 
     @Override
     public void swap(String projectName, String compressionMethod) {
+      pendingAccessTimes.remove(projectName);
       update(new UpdateSwap(projectName, compressionMethod));
     }
 
     @Override
     public void restore(String projectName) {
+      pendingAccessTimes.remove(projectName);
       update(new UpdateRestore(projectName));
     }
 
@@ -125,7 +291,125 @@ public class SqliteDBStore implements DBStore {
         return query(new GetSwapCompression(projectName));
     }
 
-    private Connection openConnectionTo(File dbFile) {
+    @Override
+    public void setSwappedRefs(String projectName, Map<String, String> refs) {
+        update(new SetProjectSwappedRefs(projectName, refs));
+    }
+
+    @Override
+    public Map<String, String> getSwappedRefs(String projectName) {
+        return query(new GetSwappedRefs(projectName));
+    }
+
+    @Override
+    public void flush() {
+        flushAccessTimes();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        accessTimeFlusher.shutdownNow();
+        try {
+            accessTimeFlusher.awaitTermination(
+                    ACCESS_TIME_FLUSH_INTERVAL_SECONDS,
+                    TimeUnit.SECONDS
+            );
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            flushAccessTimes();
+        } finally {
+            for (CachingConnection connection : allReadConnections) {
+                closeQuietly(connection);
+            }
+            readConnectionsTotal.dec(allReadConnections.size());
+            synchronized (writeConnection) {
+                closeQuietly(writeConnection);
+            }
+        }
+    }
+
+    private static void closeQuietly(CachingConnection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            Log.warn("Failed to close SQLite connection", e);
+        }
+    }
+
+    @Override
+    public Batch beginBatch() {
+        if (batches.get() != null) {
+            /* Joins the outer batch, which writes the updates */
+            return () -> {};
+        }
+        List<SQLUpdate> updates = new ArrayList<>();
+        batches.set(updates);
+        return () -> {
+            if (batches.get() != updates) {
+                /* Already closed */
+                return;
+            }
+            batches.remove();
+            if (updates.isEmpty()) {
+                return;
+            }
+            try {
+                write("batch", connection -> {
+                    connection.updateAll(updates);
+                    return null;
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    /* Writes the pending access times in one transaction, once any flush
+       already under way has finished */
+    private void flushAccessTimes() {
+        synchronized (flushLock) {
+            if (pendingAccessTimes.isEmpty()) {
+                return;
+            }
+            Map<String, Timestamp> flushed = new HashMap<>();
+            List<SQLUpdate> updates = new ArrayList<>();
+            for (String projectName : pendingAccessTimes.keySet()) {
+                Timestamp lastAccessed = pendingAccessTimes.remove(projectName);
+                if (lastAccessed != null) {
+                    flushed.put(projectName, lastAccessed);
+                    updates.add(new SetUnswappedProjectLastAccessedTime(
+                            projectName,
+                            lastAccessed
+                    ));
+                }
+            }
+            try {
+                write("access_times", connection -> {
+                    connection.updateAll(updates);
+                    return null;
+                });
+            } catch (SQLException e) {
+                /* Keep them for next time, unless they have been replaced */
+                flushed.forEach(pendingAccessTimes::putIfAbsent);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void flushAccessTimesQuietly() {
+        try {
+            flushAccessTimes();
+        } catch (RuntimeException e) {
+            Log.warn("Failed to write access times, will retry", e);
+        }
+    }
+
+    private Connection openConnectionTo(File dbFile, boolean readOnly) {
         File parentDir = dbFile.getParentFile();
         if (!parentDir.exists() && !parentDir.mkdirs()) {
             throw new DBInitException(
@@ -138,23 +422,35 @@ public class SqliteDBStore implements DBStore {
         } catch (ClassNotFoundException e) {
             throw new DBInitException(e);
         }
+        SQLiteConfig config = new SQLiteConfig();
+        config.setBusyTimeout(BUSY_TIMEOUT_MILLIS);
+        if (readOnly) {
+            config.setReadOnly(true);
+        } else {
+            config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+            config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        }
         try {
             return DriverManager.getConnection(
-                    "jdbc:sqlite:" + dbFile.getAbsolutePath()
+                    "jdbc:sqlite:" + dbFile.getAbsolutePath(),
+                    config.toProperties()
             );
         } catch (SQLException e) {
             throw new DBInitException("Unable to connect to DB", e);
         }
     }
 
+    /* Runs before the read pool exists, so queries use the writer too */
     private void createTables() {
         /* Migrations */
         /* We need to eat exceptions from here */
-        try { doUpdate(new SetSoftHeapLimitPragma(this.heapLimitBytes)); } catch (SQLException ignore) {}
-        try { doUpdate(new ProjectsAddLastAccessed()); } catch (SQLException ignore) {}
-        try { doUpdate(new ProjectsAddSwapTime()); } catch (SQLException ignore) {}
-        try { doUpdate(new ProjectsAddRestoreTime()); } catch (SQLException ignore) {}
-        try { doUpdate(new ProjectsAddSwapCompression()); } catch (SQLException ignore) {}
+        try { writeConnection.update(new SetSoftHeapLimitPragma(this.heapLimitBytes)); } catch (SQLException ignore) {}
+        try { writeConnection.update(new ProjectsAddLastAccessed()); } catch (SQLException ignore) {}
+        try { writeConnection.update(new ProjectsAddSwapTime()); } catch (SQLException ignore) {}
+        try { writeConnection.update(new ProjectsAddRestoreTime()); } catch (SQLException ignore) {}
+        try { writeConnection.update(new ProjectsAddSwapCompression()); } catch (SQLException ignore) {}
+        try { writeConnection.update(new ProjectsAddDiskSize()); } catch (SQLException ignore) {}
+        try { writeConnection.update(new ProjectsAddSwappedRefs()); } catch (SQLException ignore) {}
 
         /* Create tables (if they don't exist) */
         Stream.of(
@@ -166,63 +462,123 @@ public class SqliteDBStore implements DBStore {
 
         /* In the case of needing to change the schema, we need to check that
            migrations didn't just fail */
-        Preconditions.checkState(query(new LastAccessedColumnExists()));
-        Preconditions.checkState(query(new SwapTimeColumnExists()));
-        Preconditions.checkState(query(new RestoreTimeColumnExists()));
-        Preconditions.checkState(query(new SwapCompressionColumnExists()));
+        Stream.of(
+                new LastAccessedColumnExists(),
+                new SwapTimeColumnExists(),
+                new RestoreTimeColumnExists(),
+                new SwapCompressionColumnExists(),
+                new DiskSizeColumnExists(),
+                new SwappedRefsColumnExists()
+        ).forEach(columnExists -> {
+            try {
+                Preconditions.checkState(writeConnection.query(columnExists));
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
     }
 
     private void update(SQLUpdate update) {
+        List<SQLUpdate> batch = batches.get();
+        if (batch != null) {
+            batch.add(update);
+            return;
+        }
         try {
-            doUpdate(update);
+            write(CachingConnection.operationOf(update), connection -> {
+                connection.update(update);
+                return null;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private <T> T write(
+            String operation,
+            Operation<T> write
+    ) throws SQLException {
+        return retryIfBusy(operation, () -> {
+            long start = System.nanoTime();
+            synchronized (writeConnection) {
+                observeWait("write", start);
+                return write.run(writeConnection);
+            }
+        });
+    }
+
     private <T> T query(SQLQuery<T> query) {
         try {
-            return doQuery(query);
+            return retryIfBusy(CachingConnection.operationOf(query), () -> {
+                CachingConnection connection = borrowReadConnection();
+                try {
+                    return connection.query(query);
+                } finally {
+                    readConnections.add(connection);
+                    readConnectionsInUse.dec();
+                }
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private void doUpdate(SQLUpdate update) throws SQLException {
-        PreparedStatement statement = null;
-        try {
-            statement = connection.prepareStatement(update.getSQL());
-            update.addParametersToStatement(statement);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw e;
-        } finally {
+    private CachingConnection borrowReadConnection() {
+        long start = System.nanoTime();
+        CachingConnection connection = readConnections.poll();
+        if (connection == null) {
+            readConnectionWaits.inc();
             try {
-                statement.close();
-            } catch (Throwable t) {
-                throw new SQLException(t);
+                connection = readConnections.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
             }
         }
+        observeWait("read", start);
+        readConnectionsInUse.inc();
+        return connection;
     }
 
-    private <T> T doQuery(SQLQuery<T> query) throws SQLException {
-        PreparedStatement statement = null;
-        ResultSet results = null;
-        try {
-            statement = connection.prepareStatement(query.getSQL());
-            query.addParametersToStatement(statement);
-            results = statement.executeQuery();
-            return query.processResultSet(results);
-        } catch (SQLException e) {
-            throw e;
-        } finally {
-            if (statement != null) {
-                statement.close();
-            }
-            if (results != null) {
-                results.close();
+    /**
+     * Runs the attempt, and runs it again if it fails because the DB is
+     * busy, after waiting a little longer each time. Updates in a failed
+     * transaction are rolled back, so it is safe to run them again.
+     *
+     * The attempt gives its connection back before the wait, so that a
+     * retrying writer doesn't hold up the others while it sleeps.
+     */
+    private static <T> T retryIfBusy(
+            String operation,
+            Attempt<T> op
+    ) throws SQLException {
+        for (int attempt = 1; ; ++attempt) {
+            try {
+                return op.run();
+            } catch (SQLException e) {
+                if (attempt >= MAX_BUSY_ATTEMPTS || !isBusy(e)) {
+                    throw e;
+                }
+                busyRetries.labels(operation).inc();
+                try {
+                    Thread.sleep(BUSY_RETRY_DELAY_MILLIS * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
             }
         }
     }
 
+    private static boolean isBusy(SQLException e) {
+        int code = e.getErrorCode() & 0xff;
+        return code == SQLITE_BUSY || code == SQLITE_LOCKED;
+    }
+
+    private static void observeWait(String connection, long startNanos) {
+        connectionWait.labels(connection).observe(
+                (System.nanoTime() - startNanos) / 1e9
+        );
+    }
+
 }
@@ -0,0 +1,43 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.query;
+
+import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLQuery;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gets the state of every project, in one query. Like {@link GetProjectState},
+ * a project with no last accessed time is swapped.
+ */
+public class GetProjectStates
+        implements SQLQuery<Map<String, ProjectState>> {
+
+    private static final String GET_PROJECT_STATES =
+            "SELECT `name`, `last_accessed` IS NULL AS `swapped`\n" +
+            "    FROM `projects`";
+
+    @Override
+    public String getSQL() {
+        return GET_PROJECT_STATES;
+    }
+
+    @Override
+    public Map<String, ProjectState> processResultSet(
+            ResultSet resultSet
+    ) throws SQLException {
+        Map<String, ProjectState> states = new HashMap<>();
+        while (resultSet.next()) {
+            states.put(
+                    resultSet.getString("name"),
+                    resultSet.getBoolean("swapped")
+                            ? ProjectState.SWAPPED
+                            : ProjectState.PRESENT
+            );
+        }
+        return states;
+    }
+
+}
@@ -0,0 +1,84 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.query;
+
+import uk.ac.ic.wlgitbridge.bridge.db.EvictionPolicy;
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLQuery;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class GetSwapCandidates implements SQLQuery<List<String>> {
+
+    /* last_accessed is either DATETIME('now') text or epoch milliseconds,
+       depending on which update wrote it */
+    private static final String LAST_ACCESSED_SECONDS =
+            "CASE WHEN TYPEOF(`last_accessed`) = 'text'\n" +
+            "    THEN STRFTIME('%s', `last_accessed`)\n" +
+            "    ELSE `last_accessed` / 1000\n" +
+            "END";
+
+    private static final String LRU_ORDER =
+            "`last_accessed` ASC";
+
+    private static final String SIZE_IDLE_ORDER =
+            "COALESCE(\n" +
+            "    `disk_size`,\n" +
+            "    (SELECT AVG(`disk_size`) FROM `projects`\n" +
+            "        WHERE `disk_size` IS NOT NULL),\n" +
+            "    1\n" +
+            ") * MAX(\n" +
+            "    STRFTIME('%s', 'now') - (" + LAST_ACCESSED_SECONDS + "),\n" +
+            "    1\n" +
+            ") DESC";
+
+    private static final String GET_SWAP_CANDIDATES =
+            "SELECT `name`\n" +
+            "    FROM `projects`\n" +
+            "    WHERE `last_accessed` IS NOT NULL\n" +
+            "    ORDER BY %s\n" +
+            "    LIMIT ?";
+
+    private final EvictionPolicy policy;
+    private final int limit;
+
+    public GetSwapCandidates(EvictionPolicy policy, int limit) {
+        this.policy = policy;
+        this.limit = limit;
+    }
+
+    @Override
+    public String getSQL() {
+        String order;
+        switch (policy) {
+            case SIZE_IDLE:
+                order = SIZE_IDLE_ORDER;
+                break;
+            case LRU:
+            default:
+                order = LRU_ORDER;
+                break;
+        }
+        return String.format(GET_SWAP_CANDIDATES, order);
+    }
+
+    @Override
+    public void addParametersToStatement(
+            PreparedStatement statement
+    ) throws SQLException {
+        statement.setInt(1, limit);
+    }
+
+    @Override
+    public List<String> processResultSet(
+            ResultSet resultSet
+    ) throws SQLException {
+        List<String> candidates = new ArrayList<>();
+        while (resultSet.next()) {
+            candidates.add(resultSet.getString("name"));
+        }
+        return candidates;
+    }
+
+}
@@ -0,0 +1,45 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.query;
+
+import uk.ac.ic.wlgitbridge.bridge.db.SwappedRefs;
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLQuery;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+public class GetSwappedRefs implements SQLQuery<Map<String, String>> {
+
+    private static final String GET_SWAPPED_REFS =
+            "SELECT `swapped_refs` FROM `projects` WHERE `name` = ?";
+
+    private final String projectName;
+
+    public GetSwappedRefs(String projectName) {
+        this.projectName = projectName;
+    }
+
+    @Override
+    public Map<String, String> processResultSet(
+            ResultSet resultSet
+    ) throws SQLException {
+        String encoded = null;
+        while (resultSet.next()) {
+            encoded = resultSet.getString("swapped_refs");
+        }
+        return SwappedRefs.decode(encoded);
+    }
+
+    @Override
+    public String getSQL() {
+        return GET_SWAPPED_REFS;
+    }
+
+    @Override
+    public void addParametersToStatement(
+            PreparedStatement statement
+    ) throws SQLException {
+        statement.setString(1, projectName);
+    }
+
+}
@@ -0,0 +1,51 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.query;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLQuery;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gets the whole URL index of a project, URL to path.
+ */
+public class GetURLIndexForProjectSQLQuery
+        implements SQLQuery<Map<String, String>> {
+
+    private static final String GET_URL_INDEX_FOR_PROJECT_NAME =
+            "SELECT `url`, `path` "
+                    + "FROM `url_index_store` "
+                    + "WHERE `project_name` = ?";
+
+    private final String projectName;
+
+    public GetURLIndexForProjectSQLQuery(String projectName) {
+        this.projectName = projectName;
+    }
+
+    @Override
+    public Map<String, String> processResultSet(
+            ResultSet resultSet
+    ) throws SQLException {
+        Map<String, String> index = new HashMap<>();
+        while (resultSet.next()) {
+            index.put(resultSet.getString("url"), resultSet.getString("path"));
+        }
+        return index;
+    }
+
+    @Override
+    public String getSQL() {
+        return GET_URL_INDEX_FOR_PROJECT_NAME;
+    }
+
+    @Override
+    public void addParametersToStatement(
+            PreparedStatement statement
+    ) throws SQLException {
+        statement.setString(1, projectName);
+    }
+
+}
@@ -0,0 +1,15 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.alter;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+public class ProjectsAddDiskSize implements SQLUpdate {
+  private static final String PROJECTS_ADD_DISK_SIZE =
+    "ALTER TABLE `projects`\n" +
+      "ADD COLUMN `disk_size` INTEGER NULL;\n";
+
+  @Override
+  public String getSQL() {
+    return PROJECTS_ADD_DISK_SIZE;
+  }
+
+}
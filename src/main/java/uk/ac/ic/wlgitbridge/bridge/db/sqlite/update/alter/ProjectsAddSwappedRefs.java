@@ -0,0 +1,15 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.alter;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+public class ProjectsAddSwappedRefs implements SQLUpdate {
+  private static final String PROJECTS_ADD_SWAPPED_REFS =
+    "ALTER TABLE `projects`\n" +
+      "ADD COLUMN `swapped_refs` TEXT NULL;\n";
+
+  @Override
+  public String getSQL() {
+    return PROJECTS_ADD_SWAPPED_REFS;
+  }
+
+}
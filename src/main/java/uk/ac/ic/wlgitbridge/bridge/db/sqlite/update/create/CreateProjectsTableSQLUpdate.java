@@ -15,6 +15,8 @@ public class CreateProjectsTableSQLUpdate implements SQLUpdate {
             "    `swap_time` DATETIME NULL,\n" +
             "    `restore_time` DATETIME NULL,\n" +
             "    `swap_compression` VARCHAR NULL,\n" +
+            "    `disk_size` INTEGER NULL,\n" +
+            "    `swapped_refs` TEXT NULL,\n" +
             "    PRIMARY KEY (`name`)\n" +
             ")";
 
@@ -0,0 +1,36 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.insert;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+public class SetProjectDiskSize implements SQLUpdate {
+
+    private static final String SET_PROJECT_DISK_SIZE =
+            "UPDATE `projects`\n" +
+            "SET `disk_size` = ?\n" +
+            "WHERE `name` = ?";
+
+    private final String projectName;
+    private final long diskSize;
+
+    public SetProjectDiskSize(String projectName, long diskSize) {
+        this.projectName = projectName;
+        this.diskSize = diskSize;
+    }
+
+    @Override
+    public String getSQL() {
+        return SET_PROJECT_DISK_SIZE;
+    }
+
+    @Override
+    public void addParametersToStatement(
+            PreparedStatement statement
+    ) throws SQLException {
+        statement.setLong(1, diskSize);
+        statement.setString(2, projectName);
+    }
+
+}
@@ -0,0 +1,41 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.insert;
+
+import uk.ac.ic.wlgitbridge.bridge.db.SwappedRefs;
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+
+public class SetProjectSwappedRefs implements SQLUpdate {
+
+    private static final String SET_PROJECT_SWAPPED_REFS =
+            "UPDATE `projects`\n" +
+            "SET `swapped_refs` = ?\n" +
+            "WHERE `name` = ?";
+
+    private final String projectName;
+    private final Map<String, String> refs;
+
+    public SetProjectSwappedRefs(
+            String projectName,
+            Map<String, String> refs
+    ) {
+        this.projectName = projectName;
+        this.refs = refs;
+    }
+
+    @Override
+    public String getSQL() {
+        return SET_PROJECT_SWAPPED_REFS;
+    }
+
+    @Override
+    public void addParametersToStatement(
+            PreparedStatement statement
+    ) throws SQLException {
+        statement.setString(1, SwappedRefs.encode(refs));
+        statement.setString(2, projectName);
+    }
+
+}
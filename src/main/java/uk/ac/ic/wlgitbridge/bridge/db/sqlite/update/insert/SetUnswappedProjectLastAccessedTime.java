@@ -0,0 +1,45 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.insert;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Sets the last accessed time of a project unless it has been swapped, so
+ * that a late write of an access time can't mark a swapped project present.
+ */
+public class SetUnswappedProjectLastAccessedTime implements SQLUpdate {
+
+    private static final String SET_UNSWAPPED_PROJECT_LAST_ACCESSED_TIME =
+            "UPDATE `projects`\n" +
+            "SET `last_accessed` = ?\n" +
+            "WHERE `name` = ?\n" +
+            "    AND `last_accessed` IS NOT NULL";
+
+    private final String projectName;
+    private final Timestamp lastAccessed;
+
+    public SetUnswappedProjectLastAccessedTime(
+            String projectName,
+            Timestamp lastAccessed
+    ) {
+        this.projectName = projectName;
+        this.lastAccessed = lastAccessed;
+    }
+
+    @Override
+    public String getSQL() {
+        return SET_UNSWAPPED_PROJECT_LAST_ACCESSED_TIME;
+    }
+
+    @Override
+    public void addParametersToStatement(
+            PreparedStatement statement
+    ) throws SQLException {
+        statement.setTimestamp(1, lastAccessed);
+        statement.setString(2, projectName);
+    }
+
+}
@@ -13,7 +13,8 @@ public class UpdateRestore implements SQLUpdate {
       "SET `last_accessed` = ?,\n" +
       "    `swap_time` = NULL,\n" +
       "    `restore_time` = ?,\n" +
-      "    `swap_compression` = NULL\n" +
+      "    `swap_compression` = NULL,\n" +
+      "    `swapped_refs` = NULL\n" +
       "WHERE `name` = ?;\n";
 
   private final String projectName;
@@ -0,0 +1,144 @@
+package uk.ac.ic.wlgitbridge.bridge.reconcile;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+import uk.ac.ic.wlgitbridge.bridge.lock.LockGuard;
+import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
+import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
+import uk.ac.ic.wlgitbridge.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reconciles the repo store with the DB at startup.
+ *
+ * Directories in the repo store's root that aren't projects in the DB are
+ * left over from crashes, and are deleted. Projects with no .git are
+ * logged.
+ *
+ * The state of every project is loaded in one query, and the directories
+ * are checked in batches on a pool of threads. This runs while the server
+ * is serving requests, so a directory that looks stale is checked again
+ * under its project's lock before it is deleted, in case a request has
+ * just created the project.
+ */
+public class Reconciler {
+
+    public static final int DEFAULT_PARALLELISM = Math.max(
+            4,
+            Runtime.getRuntime().availableProcessors()
+    );
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final ProjectLock lock;
+    private final RepoStore repoStore;
+    private final DBStore dbStore;
+    private final int parallelism;
+
+    public Reconciler(
+            ProjectLock lock,
+            RepoStore repoStore,
+            DBStore dbStore,
+            int parallelism
+    ) {
+        this.lock = lock;
+        this.repoStore = repoStore;
+        this.dbStore = dbStore;
+        this.parallelism = parallelism;
+    }
+
+    public Reconciler(ProjectLock lock, RepoStore repoStore, DBStore dbStore) {
+        this(lock, repoStore, dbStore, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Reconciles every directory in the repo store's root, and returns once
+     * they have all been checked.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void run() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        Map<String, ProjectState> states = dbStore.getProjectStates();
+        File[] files = repoStore.getRootDirectory().listFiles();
+        List<File> dirs = files == null
+                ? new ArrayList<>()
+                : Arrays.asList(files);
+        Log.info(
+                "Reconciling {} directories with {} projects",
+                dirs.size(),
+                states.size()
+        );
+        AtomicInteger purged = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                parallelism,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("reconcile-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+        try {
+            List<Future<?>> batches = new ArrayList<>();
+            for (List<File> batch : Lists.partition(dirs, BATCH_SIZE)) {
+                batches.add(pool.submit(() -> {
+                    for (File dir : batch) {
+                        if (reconcile(dir, states)) {
+                            purged.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> batch : batches) {
+                batch.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        Log.info(
+                "Reconciled {} directories in {} ms, purged {}",
+                dirs.size(),
+                System.currentTimeMillis() - start,
+                purged.get()
+        );
+    }
+
+    /* Returns true if the directory was purged */
+    private boolean reconcile(File dir, Map<String, ProjectState> states) {
+        String name = dir.getName();
+        if (name.equals(".wlgb")) {
+            return false;
+        }
+        if (states.containsKey(name)) {
+            if (!new File(dir, ".git").exists()) {
+                Log.warn("Project: {} has no .git", name);
+            }
+            return false;
+        }
+        try (LockGuard __ = lock.lockGuard(name)) {
+            if (dbStore.getProjectState(name) != ProjectState.NOT_PRESENT) {
+                return false;
+            }
+            Log.warn("Project: {} not in DB, purging", name);
+            repoStore.purgeNonexistentProject(name);
+            return true;
+        } catch (IOException e) {
+            Log.warn("Failed to purge " + name, e);
+            return false;
+        }
+    }
+
+}
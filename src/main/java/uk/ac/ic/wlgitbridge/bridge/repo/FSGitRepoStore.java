@@ -9,17 +9,19 @@ import uk.ac.ic.wlgitbridge.util.Project;
 import uk.ac.ic.wlgitbridge.util.Tar;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Function;
 
-import static uk.ac.ic.wlgitbridge.util.Util.deleteInDirectoryApartFrom;
-
 /**
  * Created by winston on 20/08/2016.
  */
@@ -111,18 +113,20 @@ public class FSGitRepoStore implements RepoStore {
                 ret, Optional.of(maxFileSize), Optional.of(commitId));
     }
 
-    /* TODO: Perhaps we should just delete bad directories on the fly. */
     @Override
-    public void purgeNonexistentProjects(
-            Collection<String> existingProjectNames
-    ) {
-        List<String> excludedFromDeletion =
-                new ArrayList<>(existingProjectNames);
-        excludedFromDeletion.add(".wlgb");
-        deleteInDirectoryApartFrom(
-                rootDirectory,
-                excludedFromDeletion.toArray(new String[] {})
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    @Override
+    public void purgeNonexistentProject(String name) throws IOException {
+        Preconditions.checkArgument(
+                !name.equals(".wlgb"),
+                "cannot purge .wlgb"
         );
+        File file = new File(rootDirectory, name);
+        FileUtils.forceDelete(file);
+        Log.info("Deleted file: {}", file.getAbsolutePath());
     }
 
     @Override
@@ -130,6 +134,11 @@ public class FSGitRepoStore implements RepoStore {
         return fsSizer.apply(rootDirectory);
     }
 
+    @Override
+    public long projectSize(String projectName) {
+        return FileUtils.sizeOfDirectory(getDirForProject(projectName));
+    }
+
     @Override
     public InputStream bzip2Project(
             String projectName,
@@ -150,6 +159,85 @@ public class FSGitRepoStore implements RepoStore {
         return Tar.gzip.zip(getDotGitForProject(projectName), sizePtr);
     }
 
+    @Override
+    public InputStream gzipProjectWithoutPacks(
+            String projectName,
+            long[] sizePtr
+    ) throws IOException {
+        Project.checkValidProjectName(projectName);
+        Log.info("[{}] gzip project without packs", projectName);
+        File packDir = getPackDirForProject(projectName);
+        return Tar.gzip.zip(
+                getDotGitForProject(projectName),
+                sizePtr,
+                f -> !(isPackFileName(f.getName())
+                        && packDir.equals(f.getParentFile()))
+        );
+    }
+
+    @Override
+    public List<String> listPackFiles(
+            String projectName
+    ) throws IOException {
+        File dotGit = getDotGitForProject(projectName);
+        if (!dotGit.isDirectory()) {
+            throw new IOException(
+                    "[" + projectName + "] project does not exist"
+            );
+        }
+        String[] names = getPackDirForProject(projectName).list(
+                (dir, name) -> isPackFileName(name)
+        );
+        List<String> ret = new ArrayList<>();
+        if (names != null) {
+            ret.addAll(Arrays.asList(names));
+        }
+        Collections.sort(ret);
+        return ret;
+    }
+
+    @Override
+    public InputStream openPackFile(
+            String projectName,
+            String fileName,
+            long[] sizePtr
+    ) throws IOException {
+        File file = getPackFile(projectName, fileName);
+        if (sizePtr != null) {
+            sizePtr[0] = file.length();
+        }
+        return new FileInputStream(file);
+    }
+
+    @Override
+    public void addPackFile(
+            String projectName,
+            String fileName,
+            InputStream dataStream
+    ) throws IOException {
+        File file = getPackFile(projectName, fileName);
+        File packDir = file.getParentFile();
+        Preconditions.checkState(
+                packDir.isDirectory() || packDir.mkdirs(),
+                "[%s] could not create pack directory",
+                projectName
+        );
+        /* Write under a name git ignores, then move into place, so git never
+           sees a partial pack */
+        File tmp = new File(packDir, "tmp_" + fileName);
+        Files.copy(
+                dataStream,
+                tmp.toPath(),
+                StandardCopyOption.REPLACE_EXISTING
+        );
+        Files.move(
+                tmp.toPath(),
+                file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+        );
+    }
+
     @Override
     public void gcProject(String projectName) throws IOException {
         Project.checkValidProjectName(projectName);
@@ -223,6 +311,32 @@ public class FSGitRepoStore implements RepoStore {
         ).toFile();
     }
 
+    private File getPackDirForProject(String projectName) {
+        return Paths.get(
+                getDotGitForProject(projectName).getAbsolutePath()
+        ).resolve(
+                "objects"
+        ).resolve(
+                "pack"
+        ).toFile();
+    }
+
+    private File getPackFile(String projectName, String fileName) {
+        Preconditions.checkArgument(
+                isPackFileName(fileName)
+                        && fileName.indexOf('/') < 0
+                        && fileName.indexOf(File.separatorChar) < 0,
+                "[%s] invalid pack file name: %s",
+                projectName,
+                fileName
+        );
+        return new File(getPackDirForProject(projectName), fileName);
+    }
+
+    private static boolean isPackFileName(String name) {
+        return name.startsWith("pack-");
+    }
+
     private File initRootGitDirectory(String rootGitDirectoryPath) {
         File rootGitDirectory = new File(rootGitDirectoryPath);
         rootGitDirectory.mkdirs();
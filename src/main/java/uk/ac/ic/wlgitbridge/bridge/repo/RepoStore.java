@@ -6,7 +6,7 @@ import org.eclipse.jgit.lib.Repository;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collection;
+import java.util.List;
 
 /**
  * Created by winston on 20/08/2016.
@@ -28,12 +28,29 @@ public interface RepoStore {
 
     ProjectRepo useJGitRepo(Repository repo, ObjectId commitId);
 
-    void purgeNonexistentProjects(
-            Collection<String> existingProjectNames
-    );
+    /**
+     * @return the largest a file in a project may be
+     */
+    long getMaxFileSize();
+
+    /**
+     * Deletes a file or directory in the root directory that isn't a project
+     * in the DB, e.g. one left over from a crash.
+     * @param name the name of the file or directory
+     * @throws IOException
+     */
+    void purgeNonexistentProject(String name) throws IOException;
 
     long totalSize();
 
+    /**
+     * Returns the number of bytes the given project's git directory takes
+     * up on disk, i.e. roughly what evicting it would free.
+     * @param projectName the name of the project, e.g. abc123
+     * @return the size of the project in bytes
+     */
+    long projectSize(String projectName);
+
     /**
      * Tars and bzip2s the .git directory of the given project. Throws an
      * IOException if the project doesn't exist. The returned stream is a copy
@@ -66,6 +83,55 @@ public interface RepoStore {
         return gzipProject(projectName, null);
     }
 
+    /**
+     * Tars and gzips the .git directory of the given project, leaving out
+     * the files in objects/pack that belong to a pack (pack-*). Together with
+     * those files, which can be listed with {@link #listPackFiles(String)},
+     * this is the whole .git directory.
+     */
+    InputStream gzipProjectWithoutPacks(
+            String projectName,
+            long[] sizePtr
+    ) throws IOException;
+
+    /**
+     * Lists the names of the files in the objects/pack directory of the given
+     * project that belong to a pack, e.g. pack-1234.pack, pack-1234.idx and
+     * pack-1234.keep. A pack is named after the objects in it, not its
+     * bytes, so a repack can write different bytes under the same name; only
+     * a pack with a .keep file is left untouched by gc.
+     * @param projectName the name of the project, e.g. abc123
+     * @return the names of the pack files, empty if there are none
+     */
+    List<String> listPackFiles(String projectName) throws IOException;
+
+    /**
+     * Opens one of the files listed by {@link #listPackFiles(String)}.
+     * @param projectName the name of the project, e.g. abc123
+     * @param fileName the name of the pack file, e.g. pack-1234.pack
+     * @param sizePtr if not null, set to the size of the file
+     */
+    InputStream openPackFile(
+            String projectName,
+            String fileName,
+            long[] sizePtr
+    ) throws IOException;
+
+    /**
+     * Writes a pack file into the objects/pack directory of the given
+     * project, replacing any existing file with the same name. The project's
+     * git directory must already exist, e.g. from
+     * {@link #ungzipProject(String, InputStream)}.
+     * @param projectName the name of the project, e.g. abc123
+     * @param fileName the name of the pack file, e.g. pack-1234.pack
+     * @param dataStream the contents of the file
+     */
+    void addPackFile(
+            String projectName,
+            String fileName,
+            InputStream dataStream
+    ) throws IOException;
+
     void gcProject(String projectName) throws IOException;
 
     /**
@@ -14,9 +14,21 @@ public class RepoStoreConfig {
     @Nullable
     private final Long maxFileNum;
 
+    @Nullable
+    private final Long maxTotalSize;
+
     public RepoStoreConfig(Long maxFileSize, Long maxFileNum) {
+        this(maxFileSize, maxFileNum, null);
+    }
+
+    public RepoStoreConfig(
+            Long maxFileSize,
+            Long maxFileNum,
+            Long maxTotalSize
+    ) {
         this.maxFileSize = maxFileSize;
         this.maxFileNum = maxFileNum;
+        this.maxTotalSize = maxTotalSize;
     }
 
     public Optional<Long> getMaxFileSize() {
@@ -26,4 +38,8 @@ public class RepoStoreConfig {
     public Optional<Long> getMaxFileNum() {
         return Optional.ofNullable(maxFileNum);
     }
+
+    public Optional<Long> getMaxTotalSize() {
+        return Optional.ofNullable(maxTotalSize);
+    }
 }
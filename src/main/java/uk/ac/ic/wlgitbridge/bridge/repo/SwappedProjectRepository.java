@@ -0,0 +1,82 @@
+package uk.ac.ic.wlgitbridge.bridge.repo;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.SymbolicRef;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A JGit repository with no objects, standing in for a swapped project when
+ * all the client needs is the project's refs, e.g. for ls-remote or a fetch
+ * that turns out to be up to date.
+ *
+ * The refs are not stored in the repository (they point at objects it
+ * doesn't have), so they must be handed to the upload pack with
+ * {@link org.eclipse.jgit.transport.UploadPack#setAdvertisedRefs(Map)}.
+ *
+ * Protocol v2 would list the refs in a second request that we can't tell
+ * apart from a fetch, so the repository only offers protocol v0. If the
+ * client then wants objects, its next request restores the project.
+ */
+public class SwappedProjectRepository extends InMemoryRepository {
+
+    private static final String SYMREF_PREFIX = "ref: ";
+
+    private final String projectName;
+    private final Map<String, Ref> advertisedRefs;
+
+    /**
+     * @param projectName the name of the project, e.g. abc123
+     * @param refs ref name to object id, or to "ref: target" for symbolic
+     *             refs, as recorded when the project was swapped
+     */
+    public SwappedProjectRepository(
+            String projectName,
+            Map<String, String> refs
+    ) {
+        super(new DfsRepositoryDescription(projectName));
+        this.projectName = projectName;
+        getConfig().setString("protocol", null, "version", "0");
+        Map<String, Ref> peeled = new LinkedHashMap<>();
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            if (!ref.getValue().startsWith(SYMREF_PREFIX)) {
+                peeled.put(ref.getKey(), new ObjectIdRef.PeeledNonTag(
+                        Ref.Storage.PACKED,
+                        ref.getKey(),
+                        ObjectId.fromString(ref.getValue())
+                ));
+            }
+        }
+        Map<String, Ref> advertised = new LinkedHashMap<>();
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            if (ref.getValue().startsWith(SYMREF_PREFIX)) {
+                Ref target = peeled.get(
+                        ref.getValue().substring(SYMREF_PREFIX.length())
+                );
+                if (target != null) {
+                    advertised.put(
+                            ref.getKey(),
+                            new SymbolicRef(ref.getKey(), target)
+                    );
+                }
+            }
+        }
+        advertised.putAll(peeled);
+        advertisedRefs = Collections.unmodifiableMap(advertised);
+    }
+
+    public String getProjectName() {
+        return projectName;
+    }
+
+    public Map<String, Ref> getAdvertisedRefs() {
+        return advertisedRefs;
+    }
+
+}
@@ -12,8 +12,13 @@ import java.util.Optional;
  */
 public interface ResourceCache {
 
+    /**
+     * Gets the contents of an attachment, from the repository if the URL
+     * was fetched before, or from the URL otherwise.
+     * @param urlIndex the project's URL index, which new URLs are added to
+     */
     RawFile get(
-            String projectName,
+            UrlIndex urlIndex,
             String url,
             String newPath,
             Map<String, RawFile> fileTable,
@@ -0,0 +1,92 @@
+package uk.ac.ic.wlgitbridge.bridge.resource;
+
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A project's URL index, held in memory for the length of an import.
+ *
+ * The index is read from the {@link DBStore} in one query the first time it
+ * is looked at, so looking up an attachment, whether or not it has been seen
+ * before, doesn't query the DB. Changes are kept in order and written back
+ * together by {@link #save()}.
+ *
+ * Not thread safe: an import runs under the project lock.
+ */
+public class UrlIndex {
+
+    private final DBStore dbStore;
+    private final String projectName;
+
+    private Map<String, String> pathsByUrl;
+    private final List<Consumer<DBStore>> unsaved;
+
+    public UrlIndex(DBStore dbStore, String projectName) {
+        this.dbStore = dbStore;
+        this.projectName = projectName;
+        unsaved = new ArrayList<>();
+    }
+
+    public String getProjectName() {
+        return projectName;
+    }
+
+    /**
+     * @param url the URL, as a cache key
+     * @return the path of the file last fetched from the URL, or null
+     */
+    public String getPath(String url) {
+        return index().get(url);
+    }
+
+    public void add(String url, String path) {
+        index().put(url, path);
+        unsaved.add(db -> db.addURLIndexForProject(projectName, url, path));
+    }
+
+    /**
+     * Forgets the URLs of files that are no longer in the project.
+     * @param paths the paths of the files
+     */
+    public void deleteFiles(Collection<String> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+        Set<String> deleted = new HashSet<>(paths);
+        index().values().removeIf(deleted::contains);
+        String[] files = paths.toArray(new String[paths.size()]);
+        unsaved.add(db -> db.deleteFilesForProject(projectName, files));
+    }
+
+    /**
+     * Writes the changes made since the last save, in one batch. If a batch
+     * is already open on this thread, they join it.
+     */
+    public void save() {
+        if (unsaved.isEmpty()) {
+            return;
+        }
+        try (DBStore.Batch batch = dbStore.beginBatch()) {
+            unsaved.forEach(change -> change.accept(dbStore));
+        }
+        unsaved.clear();
+    }
+
+    private Map<String, String> index() {
+        if (pathsByUrl == null) {
+            pathsByUrl = new HashMap<>(
+                    dbStore.getURLIndexForProject(projectName)
+            );
+        }
+        return pathsByUrl;
+    }
+
+}
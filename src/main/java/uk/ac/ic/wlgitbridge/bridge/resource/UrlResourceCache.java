@@ -1,12 +1,11 @@
 package uk.ac.ic.wlgitbridge.bridge.resource;
 
-import static org.asynchttpclient.Dsl.*;
-import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
 import uk.ac.ic.wlgitbridge.data.filestore.RepositoryFile;
 import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
 import uk.ac.ic.wlgitbridge.io.http.ning.NingHttpClient;
 import uk.ac.ic.wlgitbridge.io.http.ning.NingHttpClientFacade;
+import uk.ac.ic.wlgitbridge.io.http.ning.PooledHttpClient;
 import uk.ac.ic.wlgitbridge.snapshot.exception.FailedConnectionException;
 import uk.ac.ic.wlgitbridge.util.Log;
 
@@ -21,33 +20,41 @@ import java.util.concurrent.ExecutionException;
  */
 public class UrlResourceCache implements ResourceCache {
 
-    private final DBStore dbStore;
+    private static final String ENDPOINT =
+            UrlResourceCache.class.getSimpleName();
 
     private final NingHttpClientFacade http;
 
-    UrlResourceCache(DBStore dbStore, NingHttpClientFacade http) {
-        this.dbStore = dbStore;
+    UrlResourceCache(NingHttpClientFacade http) {
         this.http = http;
     }
 
-    public UrlResourceCache(DBStore dbStore) {
-        this(dbStore, new NingHttpClient(asyncHttpClient()));
+    /**
+     * Files are fetched uncompressed, whatever the snapshot API's responses
+     * are, so that their Content-Length can be checked against the size
+     * limit before they are downloaded. Most are compressed already.
+     * @param http the client to fetch through, shared with the snapshot API
+     */
+    public UrlResourceCache(PooledHttpClient http) {
+        this(new NingHttpClient(http, ENDPOINT));
+        http.setCompression(ENDPOINT, false, false);
     }
 
     @Override
     public RawFile get(
-            String projectName,
+            UrlIndex urlIndex,
             String url,
             String newPath,
             Map<String, RawFile> fileTable,
             Map<String, byte[]> fetchedUrls,
             Optional<Long> maxFileSize
     ) throws IOException, SizeLimitExceededException {
-        String path = dbStore.getPathForURLInProject(projectName, getCacheKeyFromUrl(url));
+        String projectName = urlIndex.getProjectName();
+        String path = urlIndex.getPath(getCacheKeyFromUrl(url));
         byte[] contents;
         if (path == null) {
             path = newPath;
-            contents = fetch(projectName, url, path, maxFileSize);
+            contents = fetch(urlIndex, url, path, maxFileSize);
             fetchedUrls.put(url, contents);
         } else {
             Log.info("Found (" + projectName + "): " + url);
@@ -63,7 +70,7 @@ public class UrlResourceCache implements ResourceCache {
                                     + "File url is: "
                                     + url
                     );
-                    contents = fetch(projectName, url, path, maxFileSize);
+                    contents = fetch(urlIndex, url, path, maxFileSize);
                 } else {
                     contents = rawFile.getContents();
                 }
@@ -73,11 +80,12 @@ public class UrlResourceCache implements ResourceCache {
     }
 
     private byte[] fetch(
-            String projectName,
+            UrlIndex urlIndex,
             final String url,
             String path,
             Optional<Long> maxFileSize
     ) throws FailedConnectionException, SizeLimitExceededException {
+        String projectName = urlIndex.getProjectName();
         byte[] contents;
         Log.info("GET -> " + url);
         try {
@@ -118,7 +126,7 @@ public class UrlResourceCache implements ResourceCache {
             throw new SizeLimitExceededException(
                     Optional.of(path), contents.length, maxFileSize.get());
         }
-        dbStore.addURLIndexForProject(projectName, getCacheKeyFromUrl(url), path);
+        urlIndex.add(getCacheKeyFromUrl(url), path);
         return contents;
     }
 
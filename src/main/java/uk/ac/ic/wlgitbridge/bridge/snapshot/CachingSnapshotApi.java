@@ -0,0 +1,157 @@
+package uk.ac.ic.wlgitbridge.bridge.snapshot;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.prometheus.client.Counter;
+import uk.ac.ic.wlgitbridge.data.CandidateSnapshot;
+import uk.ac.ic.wlgitbridge.snapshot.base.ForbiddenException;
+import uk.ac.ic.wlgitbridge.snapshot.base.MissingRepositoryException;
+import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocResult;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.GetForVersionResult;
+import uk.ac.ic.wlgitbridge.snapshot.getsavedvers.GetSavedVersResult;
+import uk.ac.ic.wlgitbridge.snapshot.push.PushResult;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link SnapshotApi} that reuses each project's doc for a short time.
+ *
+ * One git fetch is two HTTP requests, and each of them asks for the doc
+ * from the auth filter and again from the bridge. Within the cache's
+ * lifetime, they all share the first request's result. Docs are cached per
+ * credential, since what a user may see depends on who they are.
+ *
+ * The cache is off by default, since a doc from before another client's
+ * push would hide that push for the cache's lifetime.
+ *
+ * A push drops the project's docs, since it makes a new version. Failures
+ * to reach the API are not cached.
+ */
+public class CachingSnapshotApi implements SnapshotApi {
+
+    private static final long MAX_DOCS = 10000;
+
+    private static final Counter lookups = Counter.build()
+            .name("wlgb_snapshot_doc_cache_lookups_total")
+            .help("Snapshot API doc cache lookups, by result.")
+            .labelNames("result")
+            .register();
+
+    private final SnapshotApi delegate;
+    private final Cache<DocKey, CompletableFuture<GetDocResult>> docs;
+
+    public CachingSnapshotApi(SnapshotApi delegate, long docCacheMillis) {
+        this.delegate = delegate;
+        docs = CacheBuilder.newBuilder()
+                .expireAfterWrite(docCacheMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(MAX_DOCS)
+                .build();
+    }
+
+    @Override
+    public CompletableFuture<GetDocResult> getDoc(
+            Optional<Credential> oauth2,
+            String projectName
+    ) {
+        DocKey key = new DocKey(projectName, oauth2);
+        boolean[] loaded = { false };
+        CompletableFuture<GetDocResult> doc;
+        try {
+            doc = docs.get(key, () -> {
+                loaded[0] = true;
+                return delegate.getDoc(oauth2, projectName);
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            /* The delegate failed before returning a future */
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        if (!loaded[0]) {
+            lookups.labels("hit").inc();
+            return doc;
+        }
+        lookups.labels("miss").inc();
+        doc.whenComplete((result, t) -> {
+            if (t != null && !isAnswer(t)) {
+                docs.asMap().remove(key, doc);
+            }
+        });
+        return doc;
+    }
+
+    @Override
+    public CompletableFuture<GetForVersionResult> getForVersion(
+            Optional<Credential> oauth2,
+            String projectName,
+            int versionId
+    ) {
+        return delegate.getForVersion(oauth2, projectName, versionId);
+    }
+
+    @Override
+    public CompletableFuture<GetSavedVersResult> getSavedVers(
+            Optional<Credential> oauth2,
+            String projectName
+    ) {
+        return delegate.getSavedVers(oauth2, projectName);
+    }
+
+    @Override
+    public CompletableFuture<PushResult> push(
+            Optional<Credential> oauth2,
+            CandidateSnapshot candidateSnapshot,
+            String postbackKey
+    ) {
+        String projectName = candidateSnapshot.getProjectName();
+        docs.asMap().keySet().removeIf(
+                key -> key.projectName.equals(projectName)
+        );
+        return delegate.push(oauth2, candidateSnapshot, postbackKey);
+    }
+
+    /* Whether the API gave an answer, rather than being unreachable */
+    private static boolean isAnswer(Throwable t) {
+        Throwable cause = t instanceof CompletionException
+                ? t.getCause()
+                : t;
+        return cause instanceof MissingRepositoryException
+                || cause instanceof ForbiddenException;
+    }
+
+    private static class DocKey {
+
+        private final String projectName;
+        private final String accessToken;
+
+        DocKey(String projectName, Optional<Credential> oauth2) {
+            this.projectName = projectName;
+            accessToken = oauth2.map(Credential::getAccessToken).orElse(null);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof DocKey)) {
+                return false;
+            }
+            DocKey that = (DocKey) o;
+            return projectName.equals(that.projectName)
+                    && Objects.equals(accessToken, that.accessToken);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(projectName, accessToken);
+        }
+
+    }
+
+}
@@ -0,0 +1,231 @@
+package uk.ac.ic.wlgitbridge.bridge.snapshot;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.prometheus.client.Counter;
+import uk.ac.ic.wlgitbridge.data.CandidateSnapshot;
+import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocResult;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.GetForVersionResult;
+import uk.ac.ic.wlgitbridge.snapshot.getsavedvers.GetSavedVersResult;
+import uk.ac.ic.wlgitbridge.snapshot.push.PushResult;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A {@link SnapshotApi} that hedges getForVersion calls.
+ *
+ * A sync waits for all of its getForVersion calls, so one that stalls
+ * holds up the sync. If a call hasn't answered after a given percentile of
+ * recent latencies, a second copy is sent, and whichever answers first is
+ * used, and the other is cancelled. getForVersion only reads, so this is
+ * safe.
+ *
+ * While getForVersion calls are queued for a slot, latencies are mostly
+ * time in the queue, and a hedge would only join it. Calls sent then don't
+ * count towards the latencies, and aren't hedged.
+ *
+ * Each call earns a fraction of a hedge, and each hedge spends a whole
+ * one, so the extra load stays within that fraction. Until enough
+ * latencies have been seen, nothing is hedged.
+ */
+public class HedgingSnapshotApi implements SnapshotApi {
+
+    private static final int WINDOW = 100;
+
+    private static final int MIN_SAMPLES = 20;
+
+    /* Credits are kept in thousandths of a hedge, so they add up
+       exactly */
+    private static final long HEDGE_COST = 1000;
+
+    private static final long MAX_CREDITS = 10 * HEDGE_COST;
+
+    private static final ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("snapshot-api-hedge")
+                            .setDaemon(true)
+                            .build()
+            );
+
+    private static final Counter hedges = Counter.build()
+            .name("wlgb_snapshot_hedges_total")
+            .help("Hedged getForVersion calls, by outcome: sent, won (the "
+                    + "hedge answered first), over_budget or queued (not "
+                    + "sent).")
+            .labelNames("result")
+            .register();
+
+    private final SnapshotApi delegate;
+    private final BooleanSupplier isQueued;
+    private final double percentile;
+    private final long creditsPerCall;
+
+    /* Guarded by this */
+    private final long[] latencies = new long[WINDOW];
+    private int samples = 0;
+    private int next = 0;
+    private long credits = 0;
+
+    /**
+     * @param delegate the API to call
+     * @param percentile hedge calls slower than this percentile of recent
+     *                   latencies, e.g. 95
+     * @param budgetPercent the most extra calls to make, as a percentage of
+     *                      calls, e.g. 10
+     */
+    public HedgingSnapshotApi(
+            SnapshotApi delegate,
+            double percentile,
+            double budgetPercent
+    ) {
+        this(delegate, () -> false, percentile, budgetPercent);
+    }
+
+    /**
+     * @param delegate the API to call
+     * @param isQueued whether getForVersion calls are waiting for a slot
+     * @param percentile hedge calls slower than this percentile of recent
+     *                   latencies, e.g. 95
+     * @param budgetPercent the most extra calls to make, as a percentage of
+     *                      calls, e.g. 10
+     */
+    public HedgingSnapshotApi(
+            SnapshotApi delegate,
+            BooleanSupplier isQueued,
+            double percentile,
+            double budgetPercent
+    ) {
+        this.delegate = delegate;
+        this.isQueued = isQueued;
+        this.percentile = percentile;
+        creditsPerCall = Math.round(budgetPercent / 100 * HEDGE_COST);
+    }
+
+    @Override
+    public CompletableFuture<GetDocResult> getDoc(
+            Optional<Credential> oauth2,
+            String projectName
+    ) {
+        return delegate.getDoc(oauth2, projectName);
+    }
+
+    @Override
+    public CompletableFuture<GetForVersionResult> getForVersion(
+            Optional<Credential> oauth2,
+            String projectName,
+            int versionId
+    ) {
+        CompletableFuture<GetForVersionResult> result =
+                new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        long delay = earnCreditAndGetDelay();
+        send(oauth2, projectName, versionId, result, pending, false);
+        if (delay < 0) {
+            return result;
+        }
+        ScheduledFuture<?> hedge = timer.schedule(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            if (isQueued.getAsBoolean()) {
+                hedges.labels("queued").inc();
+                return;
+            }
+            if (!spendCredit()) {
+                hedges.labels("over_budget").inc();
+                return;
+            }
+            hedges.labels("sent").inc();
+            pending.incrementAndGet();
+            send(oauth2, projectName, versionId, result, pending, true);
+        }, delay, TimeUnit.NANOSECONDS);
+        result.whenComplete((r, t) -> hedge.cancel(false));
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<GetSavedVersResult> getSavedVers(
+            Optional<Credential> oauth2,
+            String projectName
+    ) {
+        return delegate.getSavedVers(oauth2, projectName);
+    }
+
+    @Override
+    public CompletableFuture<PushResult> push(
+            Optional<Credential> oauth2,
+            CandidateSnapshot candidateSnapshot,
+            String postbackKey
+    ) {
+        return delegate.push(oauth2, candidateSnapshot, postbackKey);
+    }
+
+    /* Completes the result with the first answer, or with the last
+       failure if every copy fails. The copy is cancelled once the result
+       is complete, in case another copy won */
+    private void send(
+            Optional<Credential> oauth2,
+            String projectName,
+            int versionId,
+            CompletableFuture<GetForVersionResult> result,
+            AtomicInteger pending,
+            boolean isHedge
+    ) {
+        boolean queued = isQueued.getAsBoolean();
+        long start = System.nanoTime();
+        CompletableFuture<GetForVersionResult> copy = delegate.getForVersion(
+                oauth2,
+                projectName,
+                versionId
+        );
+        copy.whenComplete((r, t) -> {
+            if (t == null) {
+                if (!queued) {
+                    recordLatency(System.nanoTime() - start);
+                }
+                if (result.complete(r) && isHedge) {
+                    hedges.labels("won").inc();
+                }
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((r, t) -> copy.cancel(false));
+    }
+
+    /* Returns how long to wait before hedging, or -1 to not hedge */
+    private synchronized long earnCreditAndGetDelay() {
+        credits = Math.min(MAX_CREDITS, credits + creditsPerCall);
+        if (samples < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        int i = (int) Math.ceil(percentile / 100 * samples) - 1;
+        return sorted[Math.max(0, Math.min(samples - 1, i))];
+    }
+
+    private synchronized boolean spendCredit() {
+        if (credits < HEDGE_COST) {
+            return false;
+        }
+        credits -= HEDGE_COST;
+        return true;
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        latencies[next] = nanos;
+        next = (next + 1) % WINDOW;
+        samples = Math.min(WINDOW, samples + 1);
+    }
+
+}
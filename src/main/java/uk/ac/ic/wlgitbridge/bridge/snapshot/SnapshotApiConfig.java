@@ -0,0 +1,174 @@
+package uk.ac.ic.wlgitbridge.bridge.snapshot;
+
+import uk.ac.ic.wlgitbridge.io.http.ning.PooledHttpClient;
+import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocRequest;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.GetForVersionRequest;
+import uk.ac.ic.wlgitbridge.snapshot.getsavedvers.GetSavedVersRequest;
+import uk.ac.ic.wlgitbridge.snapshot.push.PushRequest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Configures how the bridge talks to the snapshot API.
+ */
+public class SnapshotApiConfig {
+
+    public static final long DEFAULT_DOC_CACHE_MILLIS = 0;
+
+    public static final double DEFAULT_HEDGE_BUDGET_PERCENT = 10;
+
+    private static final List<String> ENDPOINTS = Arrays.asList(
+            GetDocRequest.class.getSimpleName(),
+            GetForVersionRequest.class.getSimpleName(),
+            GetSavedVersRequest.class.getSimpleName(),
+            PushRequest.class.getSimpleName()
+    );
+
+    private Long docCacheMillis;
+    private Integer maxConcurrency;
+    private Long slowCallMillis;
+    private Long circuitOpenMillis;
+    private Double hedgePercentile;
+    private Double hedgeBudgetPercent;
+    private Boolean acceptCompressedResponses;
+    private List<String> compressRequestsTo;
+    private Long inlineFileBytes;
+    private Long pushWaitMillis;
+
+    public SnapshotApiConfig() {}
+
+    public SnapshotApiConfig(
+            Long docCacheMillis,
+            Integer maxConcurrency,
+            Long slowCallMillis,
+            Long circuitOpenMillis,
+            Double hedgePercentile,
+            Double hedgeBudgetPercent,
+            Boolean acceptCompressedResponses,
+            List<String> compressRequestsTo,
+            Long inlineFileBytes,
+            Long pushWaitMillis
+    ) {
+        this.docCacheMillis = docCacheMillis;
+        this.maxConcurrency = maxConcurrency;
+        this.slowCallMillis = slowCallMillis;
+        this.circuitOpenMillis = circuitOpenMillis;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeBudgetPercent = hedgeBudgetPercent;
+        this.acceptCompressedResponses = acceptCompressedResponses;
+        this.compressRequestsTo = compressRequestsTo;
+        this.inlineFileBytes = inlineFileBytes;
+        this.pushWaitMillis = pushWaitMillis;
+    }
+
+    /**
+     * How long a project's doc is reused for, so that the requests of one
+     * git operation share it. 0, the default, turns the cache off.
+     */
+    public long getDocCacheMillis() {
+        return docCacheMillis == null
+                ? DEFAULT_DOC_CACHE_MILLIS
+                : docCacheMillis;
+    }
+
+    /**
+     * The most requests in flight to each API endpoint. The limit drops
+     * below this while the endpoint is failing or slow.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency == null
+                ? PooledHttpClient.DEFAULT_MAX_REQUESTS_PER_ENDPOINT
+                : maxConcurrency;
+    }
+
+    /**
+     * Responses that take longer than this to start count as failures.
+     */
+    public long getSlowCallMillis() {
+        return slowCallMillis == null
+                ? PooledHttpClient.DEFAULT_SLOW_CALL_MILLIS
+                : slowCallMillis;
+    }
+
+    /**
+     * How long to stop calling an endpoint once most calls to it fail.
+     */
+    public long getCircuitOpenMillis() {
+        return circuitOpenMillis == null
+                ? PooledHttpClient.DEFAULT_CIRCUIT_OPEN_MILLIS
+                : circuitOpenMillis;
+    }
+
+    /**
+     * If set, getForVersion calls slower than this percentile of recent
+     * calls are sent again. See {@link HedgingSnapshotApi}.
+     */
+    public Optional<Double> getHedgePercentile() {
+        return Optional.ofNullable(hedgePercentile);
+    }
+
+    /**
+     * The most hedged calls to make, as a percentage of all calls.
+     */
+    public double getHedgeBudgetPercent() {
+        return hedgeBudgetPercent == null
+                ? DEFAULT_HEDGE_BUDGET_PERCENT
+                : hedgeBudgetPercent;
+    }
+
+    /**
+     * Whether to ask the API to gzip or deflate its responses.
+     */
+    public boolean getAcceptCompressedResponses() {
+        return acceptCompressedResponses == null || acceptCompressedResponses;
+    }
+
+    /**
+     * The endpoints whose request bodies are gzipped, e.g. PushRequest.
+     * None are by default, since the API has to accept them.
+     */
+    public List<String> getCompressRequestsTo() {
+        return compressRequestsTo == null
+                ? Collections.emptyList()
+                : compressRequestsTo;
+    }
+
+    /**
+     * Changed files up to this size are sent in the body of a push, rather
+     * than fetched by the API from the bridge. 0, the default, sends none,
+     * since the API has to accept them.
+     */
+    public long getInlineFileBytes() {
+        return inlineFileBytes == null ? 0 : inlineFileBytes;
+    }
+
+    /**
+     * How long the API may take to finish a push before it responds, so
+     * that the outcome comes in the response rather than in a postback.
+     * Slower pushes still get a postback. 0, the default, doesn't ask.
+     */
+    public long getPushWaitMillis() {
+        return pushWaitMillis == null ? 0 : pushWaitMillis;
+    }
+
+    public PooledHttpClient makeHttpClient() {
+        PooledHttpClient http = new PooledHttpClient(
+                PooledHttpClient.DEFAULT_MAX_CONNECTIONS,
+                getMaxConcurrency(),
+                getSlowCallMillis(),
+                getCircuitOpenMillis()
+        );
+        for (String endpoint : ENDPOINTS) {
+            http.setCompression(
+                    endpoint,
+                    getAcceptCompressedResponses(),
+                    getCompressRequestsTo().contains(endpoint)
+            );
+        }
+        return http;
+    }
+
+}
@@ -58,14 +58,24 @@ public class SnapshotApiFacade {
         }
     }
 
+    /**
+     * Gets the snapshots of a project after the given version.
+     * @param oauth2 the credential to use
+     * @param projectName the project
+     * @param latestDoc the project's latest doc, from {@link #getDoc}
+     * @param afterVersionId the latest version we already have
+     * @return the snapshots, oldest first
+     */
     public Deque<Snapshot> getSnapshots(
             Optional<Credential> oauth2,
             String projectName,
+            GetDocResult latestDoc,
             int afterVersionId
     ) throws GitUserException, FailedConnectionException {
         List<SnapshotInfo> snapshotInfos = getSnapshotInfosAfterVersion(
                 oauth2,
                 projectName,
+                latestDoc,
                 afterVersionId
         );
         List<SnapshotData> snapshotDatas = getMatchingSnapshotData(
@@ -88,19 +98,18 @@ public class SnapshotApiFacade {
     private List<SnapshotInfo> getSnapshotInfosAfterVersion(
             Optional<Credential> oauth2,
             String projectName,
+            GetDocResult latestDoc,
             int version
     ) throws FailedConnectionException, GitUserException {
         SortedSet<SnapshotInfo> versions = new TreeSet<>();
-        CompletableFuture<GetDocResult> getDoc
-                = api.getDoc(oauth2, projectName);
-        CompletableFuture<GetSavedVersResult> savedVers
-                = api.getSavedVers(oauth2, projectName);
-        GetDocResult latestDoc = SnapshotApi.getResult(getDoc);
         int latest = latestDoc.getVersionID();
         // Handle edge-case for projects with no changes, that were imported
         // to v2. In which case both `latest` and `version` will be zero.
         // See: https://github.com/overleaf/writelatex-git-bridge/pull/50
         if (latest > version || (latest == 0 && version == 0)) {
+            /* Only ask for the saved versions when there are new ones */
+            CompletableFuture<GetSavedVersResult> savedVers
+                    = api.getSavedVers(oauth2, projectName);
             for (
                     SnapshotInfo snapshotInfo :
                     SnapshotApi.getResult(savedVers).getSavedVers()
@@ -17,4 +17,7 @@ public class NoopSwapJob implements SwapJob {
     @Override
     public void restore(String projName) {}
 
+    @Override
+    public void recordDiskSize(String projName) {}
+
 }
@@ -0,0 +1,73 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.job;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes a project that has been swapped out pack by pack.
+ *
+ * The swap store holds, for a project named proj:
+ * - proj: this manifest, as JSON
+ * - proj.meta: a gzipped tar of the .git directory without its pack files
+ * - proj.pack-1234.pack etc.: one object per pack file in the manifest
+ *
+ * While a restored project is present, the packs it was restored from stay
+ * in the swap store, listed in a manifest at proj.kept, and are marked as
+ * kept in the repo so that gc leaves their bytes alone. The next eviction
+ * doesn't upload them again, and removes the ones it no longer lists.
+ */
+public class PackManifest {
+
+    private static final Gson gson = new Gson();
+
+    private static final String METADATA_SUFFIX = ".meta";
+    private static final String KEPT_SUFFIX = ".kept";
+
+    private final List<String> packFiles;
+
+    public PackManifest(List<String> packFiles) {
+        this.packFiles = new ArrayList<>(packFiles);
+    }
+
+    public static PackManifest fromJson(InputStream in) throws IOException {
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            PackManifest ret = gson.fromJson(reader, PackManifest.class);
+            if (ret == null || ret.packFiles == null) {
+                throw new IOException("invalid pack manifest");
+            }
+            return ret;
+        }
+    }
+
+    public byte[] toJson() {
+        return gson.toJson(this).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public List<String> getPackFiles() {
+        return packFiles;
+    }
+
+    public static String manifestKey(String projectName) {
+        return projectName;
+    }
+
+    public static String metadataKey(String projectName) {
+        return projectName + METADATA_SUFFIX;
+    }
+
+    public static String keptKey(String projectName) {
+        return projectName + KEPT_SUFFIX;
+    }
+
+    public static String packFileKey(String projectName, String packFile) {
+        return projectName + "." + packFile;
+    }
+
+}
@@ -121,4 +121,13 @@ public interface SwapJob {
      */
     void restore(String projName) throws IOException;
 
+    /**
+     * Measures how much space projName takes up on disk and records it in
+     * the dbStore, for ranking eviction candidates. Walking the project's
+     * directory is slow for big projects, so this is done in the
+     * background, and returns straight away.
+     * @param projName
+     */
+    void recordDiskSize(String projName);
+
 }
@@ -1,18 +1,29 @@
 package uk.ac.ic.wlgitbridge.bridge.swap.job;
 
+import uk.ac.ic.wlgitbridge.bridge.db.EvictionPolicy;
 import uk.ac.ic.wlgitbridge.util.Log;
 import uk.ac.ic.wlgitbridge.bridge.swap.job.SwapJob.CompressionMethod;
 
+import javax.annotation.Nullable;
+
 /**
  * Created by winston on 23/08/2016.
  */
 public class SwapJobConfig {
 
+    public static final int DEFAULT_EVICTION_BATCH_SIZE = 10;
+
     private final int minProjects;
     private final int lowGiB;
     private final int highGiB;
     private final long intervalMillis;
     private final String compressionMethod;
+    @Nullable
+    private final String evictionPolicy;
+    @Nullable
+    private final Integer evictionBatchSize;
+    @Nullable
+    private final Boolean incremental;
 
     public SwapJobConfig(
             int minProjects,
@@ -20,12 +31,37 @@ public class SwapJobConfig {
             int highGiB,
             long intervalMillis,
             String compressionMethod
+    ) {
+        this(
+                minProjects,
+                lowGiB,
+                highGiB,
+                intervalMillis,
+                compressionMethod,
+                null,
+                null,
+                null
+        );
+    }
+
+    public SwapJobConfig(
+            int minProjects,
+            int lowGiB,
+            int highGiB,
+            long intervalMillis,
+            String compressionMethod,
+            String evictionPolicy,
+            Integer evictionBatchSize,
+            Boolean incremental
     ) {
         this.minProjects = minProjects;
         this.lowGiB = lowGiB;
         this.highGiB = highGiB;
         this.intervalMillis = intervalMillis;
         this.compressionMethod = compressionMethod;
+        this.evictionPolicy = evictionPolicy;
+        this.evictionBatchSize = evictionBatchSize;
+        this.incremental = incremental;
     }
 
     public int getMinProjects() {
@@ -52,4 +88,19 @@ public class SwapJobConfig {
       }
       return result;
     }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return EvictionPolicy.fromString(evictionPolicy);
+    }
+
+    public int getEvictionBatchSize() {
+        if (evictionBatchSize == null || evictionBatchSize < 1) {
+            return DEFAULT_EVICTION_BATCH_SIZE;
+        }
+        return evictionBatchSize;
+    }
+
+    public boolean isIncremental() {
+        return incremental != null && incremental;
+    }
 }
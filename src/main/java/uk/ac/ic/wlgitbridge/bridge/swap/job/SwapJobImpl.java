@@ -1,7 +1,14 @@
 package uk.ac.ic.wlgitbridge.bridge.swap.job;
 
 import com.google.api.client.repackaged.com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.EvictionPolicy;
+import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
 import uk.ac.ic.wlgitbridge.bridge.lock.LockGuard;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
@@ -9,13 +16,28 @@ import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStore;
 import uk.ac.ic.wlgitbridge.util.Log;
 import uk.ac.ic.wlgitbridge.util.TimerUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -25,6 +47,18 @@ public class SwapJobImpl implements SwapJob {
 
     private static final long GiB = (1l << 30);
 
+    /* Recorded as the swap compression of projects swapped pack by pack */
+    static final String PACKS_COMPRESSION = "packs";
+
+    private static final int PACK_RESTORE_PARALLELISM = 4;
+
+    /* Restoring more packs than this doesn't mark them as kept, so the next
+       gc consolidates them and the next eviction uploads one new pack */
+    static final int MAX_KEPT_PACKS = 16;
+
+    private static final String PACK_SUFFIX = ".pack";
+    private static final String KEEP_SUFFIX = ".keep";
+
     int minProjects;
     long lowWatermarkBytes;
     long highWatermarkBytes;
@@ -35,8 +69,16 @@ public class SwapJobImpl implements SwapJob {
     private final DBStore dbStore;
     private final SwapStore swapStore;
     private final CompressionMethod compressionMethod;
+    private final EvictionPolicy evictionPolicy;
+    private final int evictionBatchSize;
+    private final boolean incremental;
 
     private final Timer timer;
+    private final ExecutorService packExecutor;
+    private final ExecutorService diskSizeExecutor;
+    /* Projects waiting for diskSizeExecutor, so each is only measured once */
+    private final Set<String> pendingDiskSizes =
+            ConcurrentHashMap.newKeySet();
 
     final AtomicInteger swaps;
 
@@ -53,6 +95,9 @@ public class SwapJobImpl implements SwapJob {
                 GiB * cfg.getHighGiB(),
                 Duration.ofMillis(cfg.getIntervalMillis()),
                 cfg.getCompressionMethod(),
+                cfg.getEvictionPolicy(),
+                cfg.getEvictionBatchSize(),
+                cfg.isIncremental(),
                 lock,
                 repoStore,
                 dbStore,
@@ -70,17 +115,63 @@ public class SwapJobImpl implements SwapJob {
             RepoStore repoStore,
             DBStore dbStore,
             SwapStore swapStore
+    ) {
+        this(
+                minProjects,
+                lowWatermarkBytes,
+                highWatermarkBytes,
+                interval,
+                method,
+                EvictionPolicy.LRU,
+                1,
+                false,
+                lock,
+                repoStore,
+                dbStore,
+                swapStore
+        );
+    }
+
+    SwapJobImpl(
+            int minProjects,
+            long lowWatermarkBytes,
+            long highWatermarkBytes,
+            Duration interval,
+            CompressionMethod method,
+            EvictionPolicy evictionPolicy,
+            int evictionBatchSize,
+            boolean incremental,
+            ProjectLock lock,
+            RepoStore repoStore,
+            DBStore dbStore,
+            SwapStore swapStore
     ) {
         this.minProjects = minProjects;
         this.lowWatermarkBytes = lowWatermarkBytes;
         this.highWatermarkBytes = highWatermarkBytes;
         this.interval = interval;
         this.compressionMethod = method;
+        this.evictionPolicy = evictionPolicy;
+        this.evictionBatchSize = evictionBatchSize;
+        this.incremental = incremental;
         this.lock = lock;
         this.repoStore = repoStore;
         this.dbStore = dbStore;
         this.swapStore = swapStore;
         timer = new Timer();
+        packExecutor = Executors.newFixedThreadPool(
+                PACK_RESTORE_PARALLELISM,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("swap-pack-restore-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+        diskSizeExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("swap-disk-size-%d")
+                        .setDaemon(true)
+                        .build()
+        );
         swaps = new AtomicInteger(0);
     }
 
@@ -95,6 +186,8 @@ public class SwapJobImpl implements SwapJob {
     @Override
     public void stop() {
         timer.cancel();
+        packExecutor.shutdownNow();
+        diskSizeExecutor.shutdownNow();
     }
 
     private void doSwap() {
@@ -121,6 +214,7 @@ public class SwapJobImpl implements SwapJob {
             return;
         }
         int numProjects = dbStore.getNumProjects();
+        Deque<String> candidates = new ArrayDeque<>();
         // while we have too many projects on disk
         while (
                 (totalSize = repoStore.totalSize()) > lowWatermarkBytes &&
@@ -139,14 +233,25 @@ public class SwapJobImpl implements SwapJob {
                 );
                 break;
             }
-            // get the oldest project and try to swap it
-            String projectName = dbStore.getOldestUnswappedProject();
+            // get the best candidate and try to swap it, fetching the next
+            // batch of candidates in one query when we run out
+            if (candidates.isEmpty()) {
+                candidates.addAll(dbStore.getSwapCandidates(
+                        evictionPolicy,
+                        evictionBatchSize
+                ));
+                if (candidates.isEmpty()) {
+                    Log.warn("No candidates left to swap");
+                    break;
+                }
+            }
+            String projectName = candidates.poll();
             try {
-                evict(projectName);
+                evictCandidate(projectName);
             } catch (Exception e) {
                 Log.warn("[{}] Exception while swapping, mark project and move on", projectName, e);
                 // NOTE: this is something of a hack. If a project fails to swap we get stuck in a
-                // loop where `dbStore.getOldestUnswappedProject()` gives the same failing project over and over again,
+                // loop where `dbStore.getSwapCandidates()` gives the same failing project over and over again,
                 // which fills up the disk with errors. By touching the access time we can mark the project as a
                 // non-candidate for swapping. Ideally we should be checking the logs for these log events and fixing
                 // whatever is wrong with the project
@@ -182,7 +287,11 @@ public class SwapJobImpl implements SwapJob {
      *
      * 1. Acquires the project lock.
      * 2. Gets a bz2 stream and size of a project from the repo store, or throws
-     * 3. Uploads the bz2 stream and size to the projName in the swapStore.
+     * 3. Records the refs of the project in the dbStore, then uploads the bz2
+     *    stream and size to the projName in the swapStore.
+     *    If incremental, uploads the packs that the swap store doesn't have
+     *    yet, the rest of the .git directory and a manifest instead, see
+     *    {@link PackManifest}.
      * 4. Sets the last accessed time in the dbStore to null, which makes our
      *    state SWAPPED
      * 5. Removes the project from the repo store.
@@ -192,13 +301,48 @@ public class SwapJobImpl implements SwapJob {
     @Override
     public void evict(String projName) throws IOException {
         Preconditions.checkNotNull(projName, "projName was null");
-        Log.info("Evicting project: {}", projName);
         try (LockGuard __ = lock.lockGuard(projName)) {
-            try {
-                repoStore.gcProject(projName);
-            } catch (Exception e) {
-                Log.error("[{}] Exception while running gc on project: {}", projName, e);
+            evictLocked(projName);
+        }
+    }
+
+    /**
+     * Evicts a project from a batch of candidates. The batch was fetched
+     * before any of them were locked, so the project may have been swapped
+     * or deleted since, by a request or by another node. Its state is checked
+     * again under its lock, and it is left alone if it is no longer present.
+     */
+    private void evictCandidate(String projName) throws IOException {
+        try (LockGuard __ = lock.lockGuard(projName)) {
+            ProjectState state = dbStore.getProjectState(projName);
+            if (state != ProjectState.PRESENT) {
+                Log.info(
+                        "[{}] Not evicting, project is now {}",
+                        projName,
+                        state
+                );
+                return;
             }
+            evictLocked(projName);
+        }
+    }
+
+    /* Must hold the project's lock */
+    private void evictLocked(String projName) throws IOException {
+        Log.info("Evicting project: {}", projName);
+        try {
+            repoStore.gcProject(projName);
+        } catch (Exception e) {
+            Log.error("[{}] Exception while running gc on project: {}", projName, e);
+        }
+        recordRefs(projName);
+        List<String> keptFiles = getKeptPackFiles(projName);
+        if (incremental) {
+            List<String> packFiles = uploadPacks(projName);
+            dbStore.swap(projName, PACKS_COMPRESSION);
+            repoStore.remove(projName);
+            removeSupersededPacks(projName, keptFiles, packFiles);
+        } else {
             long[] sizePtr = new long[1];
             try (InputStream blob = getBlobStream(projName, sizePtr)) {
                 swapStore.upload(projName, blob, sizePtr[0]);
@@ -209,10 +353,166 @@ public class SwapJobImpl implements SwapJob {
                 dbStore.swap(projName, compression);
                 repoStore.remove(projName);
             }
+            removeSupersededPacks(
+                    projName,
+                    keptFiles,
+                    Collections.emptyList()
+            );
         }
         Log.info("Evicted project: {}", projName);
     }
 
+    /**
+     * Lists the pack files that the last restore left in the swap store, see
+     * {@link #downloadPacks(String)}. They are only there if the project
+     * still has packs marked as kept.
+     */
+    private List<String> getKeptPackFiles(String projName) throws IOException {
+        boolean hasKept = repoStore.listPackFiles(projName).stream().anyMatch(
+                file -> file.endsWith(KEEP_SUFFIX)
+        );
+        if (!hasKept) {
+            return Collections.emptyList();
+        }
+        try (InputStream in = swapStore.openDownloadStream(
+                PackManifest.keptKey(projName)
+        )) {
+            return PackManifest.fromJson(in).getPackFiles();
+        } catch (RuntimeException e) {
+            /* e.g. restored before kept packs were listed */
+            Log.warn("[{}] No list of kept packs in swap store", projName, e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Removes the kept pack files that the project was just swapped without
+     * from the swap store, and the list of kept packs. The project is already
+     * swapped, so failures are logged and leave the files behind.
+     */
+    private void removeSupersededPacks(
+            String projName,
+            List<String> keptFiles,
+            List<String> packFiles
+    ) {
+        try {
+            Set<String> current = new HashSet<>(packFiles);
+            int removed = 0;
+            for (String file : keptFiles) {
+                if (!current.contains(file)) {
+                    swapStore.remove(PackManifest.packFileKey(projName, file));
+                    ++removed;
+                }
+            }
+            swapStore.remove(PackManifest.keptKey(projName));
+            if (removed > 0) {
+                Log.info(
+                        "[{}] Removed {} superseded pack files from swap store",
+                        projName,
+                        removed
+                );
+            }
+        } catch (RuntimeException e) {
+            Log.warn(
+                    "[{}] Failed to remove superseded packs from swap store",
+                    projName,
+                    e
+            );
+        }
+    }
+
+    /**
+     * Records the project's refs in the dbStore, so that a fetch that is
+     * already up to date can be answered without restoring the project. This
+     * is only an optimisation, so failures are logged, and clear any refs
+     * recorded by an earlier eviction that failed, which may be out of date.
+     */
+    private void recordRefs(String projName) {
+        Map<String, String> refs = new LinkedHashMap<>();
+        try (Repository repo = repoStore.getExistingRepo(
+                projName
+        ).getJGitRepository()) {
+            RefDatabase refDb = repo.getRefDatabase();
+            Ref head = refDb.exactRef(Constants.HEAD);
+            if (head != null && head.isSymbolic()) {
+                refs.put(
+                        Constants.HEAD,
+                        "ref: " + head.getTarget().getName()
+                );
+            }
+            for (Ref ref : refDb.getRefsByPrefix(Constants.R_REFS)) {
+                if (!ref.isSymbolic() && ref.getObjectId() != null) {
+                    refs.put(ref.getName(), ref.getObjectId().name());
+                }
+            }
+        } catch (Exception e) {
+            Log.warn("[{}] Failed to record refs before swapping", projName, e);
+            dbStore.setSwappedRefs(projName, null);
+            return;
+        }
+        dbStore.setSwappedRefs(projName, refs);
+    }
+
+    /**
+     * Uploads the project as a {@link PackManifest}. Packs with a .keep file
+     * were downloaded from the swap store by the last restore and are still
+     * there, so only the other packs are uploaded. A pack without one may
+     * have been rewritten by a repack under the same name, so it is always
+     * uploaded, even if a pack of that name is in the swap store.
+     * @return the pack files in the new manifest
+     */
+    private List<String> uploadPacks(String projName) throws IOException {
+        List<String> packFiles = repoStore.listPackFiles(projName);
+        Set<String> kept = new HashSet<>();
+        for (String file : packFiles) {
+            if (file.endsWith(KEEP_SUFFIX)) {
+                kept.add(packName(file));
+            }
+        }
+        List<String> manifestFiles = new ArrayList<>();
+        long uploadedBytes = 0;
+        for (String file : packFiles) {
+            if (file.endsWith(KEEP_SUFFIX)) {
+                continue;
+            }
+            manifestFiles.add(file);
+            if (kept.contains(packName(file))) {
+                continue;
+            }
+            long[] sizePtr = new long[1];
+            try (InputStream in = repoStore.openPackFile(projName, file, sizePtr)) {
+                swapStore.upload(
+                        PackManifest.packFileKey(projName, file),
+                        in,
+                        sizePtr[0]
+                );
+            }
+            uploadedBytes += sizePtr[0];
+        }
+        long[] sizePtr = new long[1];
+        try (InputStream meta = repoStore.gzipProjectWithoutPacks(projName, sizePtr)) {
+            swapStore.upload(
+                    PackManifest.metadataKey(projName),
+                    meta,
+                    sizePtr[0]
+            );
+        }
+        uploadedBytes += sizePtr[0];
+        byte[] manifest = new PackManifest(manifestFiles).toJson();
+        swapStore.upload(
+                PackManifest.manifestKey(projName),
+                new ByteArrayInputStream(manifest),
+                manifest.length
+        );
+        Log.info(
+                "[{}] Uploaded {} B, reused {} packs already in swap store",
+                projName,
+                uploadedBytes,
+                kept.size()
+        );
+        return manifestFiles;
+    }
+
     private InputStream getBlobStream(String projName, long[] sizePtr) throws IOException {
         if (compressionMethod == CompressionMethod.Gzip) {
           return repoStore.gzipProject(projName, sizePtr);
@@ -229,6 +529,8 @@ public class SwapJobImpl implements SwapJob {
      * 1. Acquires the project lock.
      * 2. Gets a bz2 stream for the project from the swapStore.
      * 3. Fully downloads and places the bz2 stream back in the repo store.
+     *    If the project was swapped pack by pack, downloads the manifest, the
+     *    rest of the .git directory and then the packs in parallel instead.
      * 4. Sets the last accessed time in the dbStore to now, which makes our
      *    state PRESENT and the last project to be evicted.
      * @param projName
@@ -237,26 +539,157 @@ public class SwapJobImpl implements SwapJob {
     @Override
     public void restore(String projName) throws IOException {
         try (LockGuard __ = lock.lockGuard(projName)) {
-            try (InputStream zipped = swapStore.openDownloadStream(projName)) {
-                String compression = dbStore.getSwapCompression(projName);
-                if (compression == null) {
-                    throw new RuntimeException("Missing compression method during restore, should not happen");
-                }
-                if ("gzip".equals(compression)) {
-                  repoStore.ungzipProject(
-                    projName,
-                    zipped
-                  );
-                } else if ("bzip2".equals(compression)) {
-                  repoStore.unbzip2Project(
-                    projName,
-                    zipped
-                  );
+            String compression = dbStore.getSwapCompression(projName);
+            if (compression == null) {
+                throw new RuntimeException("Missing compression method during restore, should not happen");
+            }
+            if (PACKS_COMPRESSION.equals(compression)) {
+                downloadPacks(projName);
+            } else {
+                try (InputStream zipped = swapStore.openDownloadStream(projName)) {
+                    if ("gzip".equals(compression)) {
+                      repoStore.ungzipProject(
+                        projName,
+                        zipped
+                      );
+                    } else if ("bzip2".equals(compression)) {
+                      repoStore.unbzip2Project(
+                        projName,
+                        zipped
+                      );
+                    }
                 }
                 swapStore.remove(projName);
-                dbStore.restore(projName);
+            }
+            dbStore.restore(projName);
+        }
+        recordDiskSize(projName);
+    }
+
+    @Override
+    public void recordDiskSize(String projName) {
+        if (!pendingDiskSizes.add(projName)) {
+            return;
+        }
+        try {
+            diskSizeExecutor.execute(() -> {
+                pendingDiskSizes.remove(projName);
+                try {
+                    dbStore.setDiskSize(
+                            projName,
+                            repoStore.projectSize(projName)
+                    );
+                } catch (RuntimeException e) {
+                    /* e.g. swapped in the meantime; measured next time */
+                    Log.warn("[{}] Failed to record disk size", projName, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            /* Stopped */
+            pendingDiskSizes.remove(projName);
+        }
+    }
+
+    /**
+     * Restores a project swapped by {@link #uploadPacks(String)}. The packs
+     * stay in the swap store, listed at {@link PackManifest#keptKey(String)},
+     * and get a .keep file, so that gc leaves them alone and the next
+     * eviction doesn't upload them again. If there are
+     * too many of them, they are removed from the swap store instead, and
+     * the next gc consolidates them.
+     */
+    private void downloadPacks(String projName) throws IOException {
+        PackManifest manifest;
+        try (InputStream in = swapStore.openDownloadStream(
+                PackManifest.manifestKey(projName)
+        )) {
+            manifest = PackManifest.fromJson(in);
+        }
+        try (InputStream meta = swapStore.openDownloadStream(
+                PackManifest.metadataKey(projName)
+        )) {
+            repoStore.ungzipProject(projName, meta);
+        }
+        List<Future<?>> downloads = new ArrayList<>();
+        for (String file : manifest.getPackFiles()) {
+            downloads.add(packExecutor.submit(() -> {
+                try (InputStream in = swapStore.openDownloadStream(
+                        PackManifest.packFileKey(projName, file)
+                )) {
+                    repoStore.addPackFile(projName, file, in);
+                }
+                return null;
+            }));
+        }
+        awaitAll(projName, downloads);
+        List<String> packs = new ArrayList<>();
+        for (String file : manifest.getPackFiles()) {
+            if (file.endsWith(PACK_SUFFIX)) {
+                packs.add(packName(file));
+            }
+        }
+        boolean keep = packs.size() <= MAX_KEPT_PACKS;
+        if (keep) {
+            byte[] kept = manifest.toJson();
+            swapStore.upload(
+                    PackManifest.keptKey(projName),
+                    new ByteArrayInputStream(kept),
+                    kept.length
+            );
+            for (String pack : packs) {
+                repoStore.addPackFile(
+                        projName,
+                        pack + KEEP_SUFFIX,
+                        new ByteArrayInputStream(new byte[0])
+                );
             }
         }
+        swapStore.remove(PackManifest.manifestKey(projName));
+        swapStore.remove(PackManifest.metadataKey(projName));
+        if (!keep) {
+            Log.info(
+                    "[{}] Restored {} packs, dropping them from swap store " +
+                            "so they get consolidated",
+                    projName,
+                    packs.size()
+            );
+            for (String file : manifest.getPackFiles()) {
+                swapStore.remove(PackManifest.packFileKey(projName, file));
+            }
+        }
+    }
+
+    private static void awaitAll(
+            String projName,
+            List<Future<?>> futures
+    ) throws IOException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(
+                    "[" + projName + "] interrupted while restoring packs",
+                    e
+            );
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /* pack-1234.idx -> pack-1234 */
+    private static String packName(String packFile) {
+        int dot = packFile.lastIndexOf('.');
+        return dot < 0 ? packFile : packFile.substring(0, dot);
     }
 
 }
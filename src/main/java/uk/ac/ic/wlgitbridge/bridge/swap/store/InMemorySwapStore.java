@@ -5,8 +5,8 @@ import org.apache.commons.io.IOUtils;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by winston on 23/08/2016.
@@ -16,7 +16,7 @@ public class InMemorySwapStore implements SwapStore {
     private final Map<String, byte[]> store;
 
     public InMemorySwapStore() {
-        store = new HashMap<>();
+        store = new ConcurrentHashMap<>();
     }
 
     public InMemorySwapStore(SwapStoreConfig __) {
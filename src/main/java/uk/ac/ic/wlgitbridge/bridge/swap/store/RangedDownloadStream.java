@@ -0,0 +1,195 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.store;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * An {@link InputStream} over an object of known length that is fetched as
+ * several byte ranges in parallel.
+ *
+ * Ranges are handed back to the reader strictly in order, so the stream can
+ * be fed straight into a decompressor. Each range is buffered in memory until
+ * it has been read. At most parallelism ranges are held at any time, counting
+ * the one being read and those in flight, which bounds memory use to
+ * partSize * parallelism bytes per stream.
+ */
+public class RangedDownloadStream extends InputStream {
+
+    /**
+     * Fetches one byte range of the underlying object.
+     */
+    @FunctionalInterface
+    public interface RangeReader {
+
+        /**
+         * @param start the offset of the first byte to fetch
+         * @param length the number of bytes to fetch
+         * @return exactly length bytes starting at start
+         * @throws IOException if the range could not be fetched
+         */
+        byte[] read(long start, long length) throws IOException;
+
+    }
+
+    private final long contentLength;
+    private final long partSize;
+    private final int parallelism;
+    private final ExecutorService executor;
+    private final RangeReader reader;
+
+    private final Deque<Future<byte[]>> inFlight;
+    private long nextPartStart;
+
+    private byte[] current;
+    private int currentPos;
+
+    private boolean closed;
+
+    public RangedDownloadStream(
+            long contentLength,
+            long partSize,
+            int parallelism,
+            ExecutorService executor,
+            RangeReader reader
+    ) {
+        Preconditions.checkArgument(
+                contentLength >= 0,
+                "negative content length: %s",
+                contentLength
+        );
+        Preconditions.checkArgument(
+                partSize > 0 && partSize <= Integer.MAX_VALUE,
+                "invalid part size: %s",
+                partSize
+        );
+        Preconditions.checkArgument(
+                parallelism > 0,
+                "invalid parallelism: %s",
+                parallelism
+        );
+        this.contentLength = contentLength;
+        this.partSize = partSize;
+        this.parallelism = parallelism;
+        this.executor = executor;
+        this.reader = reader;
+        inFlight = new ArrayDeque<>();
+        nextPartStart = 0;
+        current = new byte[0];
+        currentPos = 0;
+        closed = false;
+        fillPipeline();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureCurrent()) {
+            return -1;
+        }
+        return current[currentPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Preconditions.checkPositionIndexes(off, off + len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureCurrent()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - currentPos);
+        System.arraycopy(current, currentPos, b, off, n);
+        currentPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - currentPos;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Future<byte[]> part : inFlight) {
+            part.cancel(true);
+        }
+        inFlight.clear();
+        current = new byte[0];
+        currentPos = 0;
+    }
+
+    /**
+     * Makes sure there are unread bytes in the current part, waiting for the
+     * next part if necessary.
+     * @return false if the end of the object has been reached
+     * @throws IOException if fetching a part failed
+     */
+    private boolean ensureCurrent() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        while (currentPos >= current.length) {
+            Future<byte[]> next = inFlight.poll();
+            if (next == null) {
+                return false;
+            }
+            current = waitFor(next);
+            currentPos = 0;
+            fillPipeline();
+        }
+        return true;
+    }
+
+    private byte[] waitFor(Future<byte[]> part) throws IOException {
+        try {
+            return part.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IOException("interrupted while downloading", e);
+        } catch (CancellationException e) {
+            close();
+            throw new IOException("part download was cancelled", e);
+        } catch (ExecutionException e) {
+            close();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /* The part being read takes one of the parallelism slots */
+    private void fillPipeline() {
+        int slots = currentPos < current.length ? parallelism - 1 : parallelism;
+        while (inFlight.size() < slots && nextPartStart < contentLength) {
+            long start = nextPartStart;
+            long length = Math.min(partSize, contentLength - start);
+            inFlight.add(executor.submit(() -> {
+                byte[] part = reader.read(start, length);
+                if (part.length != length) {
+                    throw new IOException(
+                            "expected " + length + " bytes at offset " +
+                                    start + ", got " + part.length
+                    );
+                }
+                return part;
+            }));
+            nextPartStart += length;
+        }
+    }
+
+}
@@ -5,8 +5,13 @@ import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.*;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.IOUtils;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by winston on 21/08/2016.
@@ -17,12 +22,24 @@ public class S3SwapStore implements SwapStore {
 
     private final String bucketName;
 
+    private final long downloadPartSizeBytes;
+
+    private final int downloadParallelism;
+
+    /* Restores downloading at full speed at once; more of them share */
+    private static final int MAX_PARALLEL_DOWNLOADS = 4;
+
+    /* Shared by all restores; each download limits its own parts in flight */
+    private final ExecutorService downloadExecutor;
+
     public S3SwapStore(SwapStoreConfig cfg) {
         this(
                 cfg.getAwsAccessKey(),
                 cfg.getAwsSecret(),
                 cfg.getS3BucketName(),
-                cfg.getAwsRegion()
+                cfg.getAwsRegion(),
+                cfg.getDownloadPartSizeBytes(),
+                cfg.getDownloadParallelism()
         );
     }
 
@@ -31,6 +48,24 @@ public class S3SwapStore implements SwapStore {
             String secret,
             String bucketName,
             String region
+    ) {
+        this(
+                accessKey,
+                secret,
+                bucketName,
+                region,
+                SwapStoreConfig.DEFAULT_DOWNLOAD_PART_SIZE_BYTES,
+                SwapStoreConfig.DEFAULT_DOWNLOAD_PARALLELISM
+        );
+    }
+
+    S3SwapStore(
+            String accessKey,
+            String secret,
+            String bucketName,
+            String region,
+            long downloadPartSizeBytes,
+            int downloadParallelism
     ) {
         String regionToUse = null;
         if (region == null) {
@@ -45,6 +80,15 @@ public class S3SwapStore implements SwapStore {
                         new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKey, secret))
                 ).build();
         this.bucketName = bucketName;
+        this.downloadPartSizeBytes = downloadPartSizeBytes;
+        this.downloadParallelism = downloadParallelism;
+        downloadExecutor = Executors.newFixedThreadPool(
+                Math.max(1, downloadParallelism) * MAX_PARALLEL_DOWNLOADS,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("s3-swap-download-%d")
+                        .setDaemon(true)
+                        .build()
+        );
     }
 
     @Override
@@ -64,14 +108,46 @@ public class S3SwapStore implements SwapStore {
         PutObjectResult res = s3.putObject(put);
     }
 
+    /**
+     * Objects larger than one part are downloaded as parallel ranged GETs,
+     * which are reassembled in order by a {@link RangedDownloadStream}.
+     * Smaller objects use a single GET.
+     */
     @Override
     public InputStream openDownloadStream(String projectName) {
-        GetObjectRequest get = new GetObjectRequest(
+        long contentLength = s3.getObjectMetadata(
                 bucketName,
                 projectName
+        ).getContentLength();
+        if (downloadParallelism <= 1 || contentLength <= downloadPartSizeBytes) {
+            GetObjectRequest get = new GetObjectRequest(
+                    bucketName,
+                    projectName
+            );
+            S3Object res = s3.getObject(get);
+            return res.getObjectContent();
+        }
+        return new RangedDownloadStream(
+                contentLength,
+                downloadPartSizeBytes,
+                downloadParallelism,
+                downloadExecutor,
+                (start, length) -> readRange(projectName, start, length)
         );
-        S3Object res = s3.getObject(get);
-        return res.getObjectContent();
+    }
+
+    private byte[] readRange(
+            String projectName,
+            long start,
+            long length
+    ) throws IOException {
+        GetObjectRequest get = new GetObjectRequest(
+                bucketName,
+                projectName
+        ).withRange(start, start + length - 1);
+        try (S3Object res = s3.getObject(get)) {
+            return IOUtils.toByteArray(res.getObjectContent(), length);
+        }
     }
 
     @Override
@@ -19,6 +19,7 @@ public interface SwapStore {
                     put("noop", NoopSwapStore::new);
                     put("memory", InMemorySwapStore::new);
                     put("s3", S3SwapStore::new);
+                    put("tiered", TieredSwapStore::new);
                 }
 
             };
@@ -5,6 +5,14 @@ package uk.ac.ic.wlgitbridge.bridge.swap.store;
  */
 public class SwapStoreConfig {
 
+    public static final long DEFAULT_DOWNLOAD_PART_SIZE_BYTES = 8L << 20;
+
+    public static final int DEFAULT_DOWNLOAD_PARALLELISM = 4;
+
+    public static final long DEFAULT_LOCAL_MAX_BYTES = 16L << 30;
+
+    public static final String DEFAULT_REMOTE_TYPE = "s3";
+
     public static final SwapStoreConfig NOOP = new SwapStoreConfig(
             "noop",
             null,
@@ -18,6 +26,11 @@ public class SwapStoreConfig {
     private String awsSecret;
     private String s3BucketName;
     private String awsRegion;
+    private Long downloadPartSizeBytes;
+    private Integer downloadParallelism;
+    private String localDirectory;
+    private Long localMaxBytes;
+    private String remoteType;
 
     public SwapStoreConfig() {}
 
@@ -42,12 +55,43 @@ public class SwapStoreConfig {
             String awsSecret,
             String s3BucketName,
             String awsRegion
+    ) {
+        this(
+                type,
+                awsAccessKey,
+                awsSecret,
+                s3BucketName,
+                awsRegion,
+                null,
+                null,
+                null,
+                null,
+                null
+        );
+    }
+
+    SwapStoreConfig(
+            String type,
+            String awsAccessKey,
+            String awsSecret,
+            String s3BucketName,
+            String awsRegion,
+            Long downloadPartSizeBytes,
+            Integer downloadParallelism,
+            String localDirectory,
+            Long localMaxBytes,
+            String remoteType
     ) {
         this.type = type;
         this.awsAccessKey = awsAccessKey;
         this.awsSecret = awsSecret;
         this.s3BucketName = s3BucketName;
         this.awsRegion = awsRegion;
+        this.downloadPartSizeBytes = downloadPartSizeBytes;
+        this.downloadParallelism = downloadParallelism;
+        this.localDirectory = localDirectory;
+        this.localMaxBytes = localMaxBytes;
+        this.remoteType = remoteType;
     }
 
     public String getType() {
@@ -68,13 +112,44 @@ public class SwapStoreConfig {
 
     public String getAwsRegion() { return awsRegion; }
 
+    public long getDownloadPartSizeBytes() {
+        return downloadPartSizeBytes == null
+                ? DEFAULT_DOWNLOAD_PART_SIZE_BYTES
+                : downloadPartSizeBytes;
+    }
+
+    public int getDownloadParallelism() {
+        return downloadParallelism == null
+                ? DEFAULT_DOWNLOAD_PARALLELISM
+                : downloadParallelism;
+    }
+
+    public String getLocalDirectory() {
+        return localDirectory;
+    }
+
+    public long getLocalMaxBytes() {
+        return localMaxBytes == null
+                ? DEFAULT_LOCAL_MAX_BYTES
+                : localMaxBytes;
+    }
+
+    public String getRemoteType() {
+        return remoteType == null ? DEFAULT_REMOTE_TYPE : remoteType;
+    }
+
     public SwapStoreConfig sanitisedCopy() {
         return new SwapStoreConfig(
                 type,
                 awsAccessKey == null ? null : "<awsAccessKey>",
                 awsSecret == null ? null : "<awsSecret>",
                 s3BucketName,
-                awsRegion
+                awsRegion,
+                downloadPartSizeBytes,
+                downloadParallelism,
+                localDirectory,
+                localMaxBytes,
+                remoteType
         );
     }
 
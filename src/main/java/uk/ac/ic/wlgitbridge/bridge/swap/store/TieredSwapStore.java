@@ -0,0 +1,334 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.store;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.Project;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link SwapStore} that keeps recently evicted archives on a local (or
+ * otherwise cheaper) volume in front of a remote swap store.
+ *
+ * Uploads are written to the local tier and then spilled to the remote store
+ * in the background. Restores are served from the local tier when the
+ * archive is still there, and from the remote store otherwise.
+ *
+ * The local tier has a byte budget. When it is exceeded, the least recently
+ * used archives that have already been spilled are deleted locally. Archives
+ * that have not been spilled yet are never dropped, so the budget can be
+ * exceeded briefly while spills are pending. Archives bigger than the whole
+ * budget bypass the local tier.
+ *
+ * Archives left in the local directory by a previous run are picked up on
+ * construction and spilled again, as we can't know whether their spill
+ * finished.
+ */
+public class TieredSwapStore implements SwapStore {
+
+    private static final String TMP_SUFFIX = ".uploading";
+
+    private static final long SPILL_RETRY_DELAY_MILLIS = 30 * 1000;
+
+    private static class Entry {
+
+        final File file;
+        final long size;
+        boolean spilled;
+
+        Entry(File file, long size) {
+            this.file = file;
+            this.size = size;
+            spilled = false;
+        }
+
+    }
+
+    private final File localDirectory;
+    private final long localMaxBytes;
+    private final SwapStore remote;
+    /* Single threaded, so spills of the same project can't overtake */
+    private final ScheduledExecutorService spillExecutor;
+
+    /* Iteration starts at the least recently used, see touch() */
+    private final LinkedHashMap<String, Entry> entries;
+    private long localBytes;
+
+    public TieredSwapStore(SwapStoreConfig cfg) {
+        this(
+                new File(Preconditions.checkNotNull(
+                        cfg.getLocalDirectory(),
+                        "localDirectory is required for a tiered swap store"
+                )),
+                cfg.getLocalMaxBytes(),
+                makeRemote(cfg)
+        );
+    }
+
+    TieredSwapStore(
+            File localDirectory,
+            long localMaxBytes,
+            SwapStore remote
+    ) {
+        Preconditions.checkArgument(
+                localMaxBytes >= 0,
+                "negative local tier budget: %s",
+                localMaxBytes
+        );
+        this.localDirectory = localDirectory;
+        this.localMaxBytes = localMaxBytes;
+        this.remote = remote;
+        spillExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("swap-tier-spill-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+        entries = new LinkedHashMap<>();
+        localBytes = 0;
+        loadExisting();
+    }
+
+    private static SwapStore makeRemote(SwapStoreConfig cfg) {
+        String remoteType = cfg.getRemoteType();
+        Preconditions.checkArgument(
+                !"tiered".equals(remoteType),
+                "the remote of a tiered swap store can't be tiered"
+        );
+        Preconditions.checkArgument(
+                swapStores.containsKey(remoteType),
+                "unknown remote swap store type: %s",
+                remoteType
+        );
+        return swapStores.get(remoteType).apply(cfg);
+    }
+
+    @Override
+    public void upload(
+            String projectName,
+            InputStream uploadStream,
+            long contentLength
+    ) throws IOException {
+        Project.checkValidProjectName(projectName);
+        if (contentLength > localMaxBytes) {
+            Log.info(
+                    "[{}] Archive too big for local swap tier ({} B), " +
+                            "uploading directly",
+                    projectName,
+                    contentLength
+            );
+            synchronized (this) {
+                dropLocal(projectName);
+            }
+            remote.upload(projectName, uploadStream, contentLength);
+            return;
+        }
+        File tmp = new File(localDirectory, projectName + TMP_SUFFIX);
+        long size;
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            size = IOUtils.copyLarge(uploadStream, out);
+        }
+        File file = new File(localDirectory, projectName);
+        Files.move(
+                tmp.toPath(),
+                file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+        );
+        Entry entry = new Entry(file, size);
+        synchronized (this) {
+            Entry old = entries.put(projectName, entry);
+            if (old != null) {
+                localBytes -= old.size;
+            }
+            localBytes += size;
+            evictToBudget();
+        }
+        scheduleSpill(projectName, entry, 0);
+    }
+
+    @Override
+    public InputStream openDownloadStream(String projectName) {
+        synchronized (this) {
+            Entry entry = entries.get(projectName);
+            if (entry != null) {
+                try {
+                    /* An open stream survives the file being evicted */
+                    InputStream in = new FileInputStream(entry.file);
+                    touch(projectName, entry);
+                    return in;
+                } catch (FileNotFoundException e) {
+                    Log.warn(
+                            "[{}] Local swap tier lost its archive, " +
+                                    "falling back to remote",
+                            projectName
+                    );
+                    dropLocal(projectName);
+                }
+            }
+        }
+        return remote.openDownloadStream(projectName);
+    }
+
+    @Override
+    public void remove(String projectName) {
+        synchronized (this) {
+            dropLocal(projectName);
+        }
+        remote.remove(projectName);
+    }
+
+    /**
+     * Waits for the spills that are already due to finish. Spills waiting to
+     * be retried are not waited for.
+     */
+    void awaitPendingSpills() {
+        try {
+            spillExecutor.schedule(
+                    () -> {},
+                    0,
+                    TimeUnit.MILLISECONDS
+            ).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    synchronized long getLocalBytes() {
+        return localBytes;
+    }
+
+    synchronized boolean isLocal(String projectName) {
+        return entries.containsKey(projectName);
+    }
+
+    private void scheduleSpill(
+            String projectName,
+            Entry entry,
+            long delayMillis
+    ) {
+        spillExecutor.schedule(() -> {
+            try {
+                spill(projectName, entry);
+            } catch (Throwable t) {
+                Log.warn(
+                        "[{}] Failed to spill archive to remote swap store, " +
+                                "will retry",
+                        projectName,
+                        t
+                );
+                scheduleSpill(projectName, entry, SPILL_RETRY_DELAY_MILLIS);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void spill(String projectName, Entry entry) throws IOException {
+        synchronized (this) {
+            if (entries.get(projectName) != entry) {
+                /* Removed or replaced before we got to it */
+                return;
+            }
+        }
+        try (InputStream in = new FileInputStream(entry.file)) {
+            remote.upload(projectName, in, entry.size);
+        } catch (FileNotFoundException e) {
+            /* Removed while we were waiting */
+            return;
+        }
+        boolean removedMeanwhile;
+        synchronized (this) {
+            Entry current = entries.get(projectName);
+            removedMeanwhile = current == null;
+            if (current == entry) {
+                entry.spilled = true;
+                evictToBudget();
+            }
+        }
+        if (removedMeanwhile) {
+            /* remove() ran while we were uploading, so undo the upload */
+            remote.remove(projectName);
+            return;
+        }
+        Log.info("[{}] Spilled archive to remote swap store", projectName);
+    }
+
+    /* Must hold the lock */
+    private void touch(String projectName, Entry entry) {
+        entries.remove(projectName);
+        entries.put(projectName, entry);
+    }
+
+    /* Must hold the lock */
+    private void evictToBudget() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (localBytes > localMaxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> lru = it.next();
+            Entry entry = lru.getValue();
+            if (!entry.spilled) {
+                continue;
+            }
+            it.remove();
+            localBytes -= entry.size;
+            deleteFile(entry.file);
+        }
+    }
+
+    /* Must hold the lock */
+    private void dropLocal(String projectName) {
+        Entry entry = entries.remove(projectName);
+        if (entry != null) {
+            localBytes -= entry.size;
+            deleteFile(entry.file);
+        }
+    }
+
+    private void deleteFile(File file) {
+        if (!file.delete() && file.exists()) {
+            Log.warn("Failed to delete local swap archive: {}", file);
+        }
+    }
+
+    private void loadExisting() {
+        try {
+            FileUtils.forceMkdir(localDirectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        File[] files = localDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TMP_SUFFIX)) {
+                deleteFile(file);
+                continue;
+            }
+            if (!file.isFile() || !Project.isValidProjectName(name)) {
+                continue;
+            }
+            Entry entry = new Entry(file, file.length());
+            synchronized (this) {
+                entries.put(name, entry);
+                localBytes += entry.size;
+            }
+            Log.info("[{}] Found unconfirmed archive in local swap tier", name);
+            scheduleSpill(name, entry, 0);
+        }
+    }
+
+}
@@ -1,18 +1,27 @@
 package uk.ac.ic.wlgitbridge.data;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
 import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
+import uk.ac.ic.wlgitbridge.io.http.ning.StreamingBodyGenerator;
 import uk.ac.ic.wlgitbridge.util.Util;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 /**
  * Created by Winston on 16/11/14.
@@ -23,6 +32,8 @@ public class CandidateSnapshot implements AutoCloseable {
     private final int currentVersion;
     private final List<ServletFile> files;
     private final List<String> deleted;
+    private final long inlineFileBytes;
+    private final long waitMillis;
     private File attsDirectory;
 
     public CandidateSnapshot(
@@ -30,9 +41,37 @@ public class CandidateSnapshot implements AutoCloseable {
             int currentVersion,
             RawDirectory directoryContents,
             RawDirectory oldDirectoryContents
+    ) {
+        this(
+                projectName,
+                currentVersion,
+                directoryContents,
+                oldDirectoryContents,
+                0,
+                0
+        );
+    }
+
+    /**
+     * @param inlineFileBytes changed files up to this size are sent in the
+     *                        push itself, rather than fetched by the API
+     *                        from a URL. 0 sends none.
+     * @param waitMillis how long the API may take to finish the push
+     *                   before it responds, so that no postback is
+     *                   needed. 0 doesn't ask it to wait.
+     */
+    public CandidateSnapshot(
+            String projectName,
+            int currentVersion,
+            RawDirectory directoryContents,
+            RawDirectory oldDirectoryContents,
+            long inlineFileBytes,
+            long waitMillis
     ) {
         this.projectName = projectName;
         this.currentVersion = currentVersion;
+        this.inlineFileBytes = inlineFileBytes;
+        this.waitMillis = waitMillis;
         files = diff(directoryContents, oldDirectoryContents);
         deleted = deleted(directoryContents, oldDirectoryContents);
     }
@@ -76,7 +115,7 @@ public class CandidateSnapshot implements AutoCloseable {
                 ".wlgb/atts/" + projectName
         );
         for (ServletFile file : files) {
-            if (file.isChanged()) {
+            if (file.isChanged() && !isInline(file)) {
                 file.writeToDiskWithName(attsDirectory, file.getUniqueIdentifier());
             }
         }
@@ -88,38 +127,126 @@ public class CandidateSnapshot implements AutoCloseable {
         }
     }
 
-    public JsonElement getJsonRepresentation(String postbackKey) {
+    /**
+     * Writes the JSON body of the push for this snapshot, a file at a time,
+     * so that the body is never held in memory all at once.
+     *
+     * Each changed file has its git blob hash and size, and either a url,
+     * from which the API fetches it, or if it is small, its content, as
+     * UTF-8 text or base64.
+     * @param out where to write the body
+     * @param postbackKey the key the API uses to fetch files and post back
+     * @return the parts of the body, each written as it is needed
+     * @throws IOException if the start of the body could not be written
+     */
+    public StreamingBodyGenerator.Parts writeJsonRepresentation(
+            OutputStream out,
+            String postbackKey
+    ) throws IOException {
         String projectURL = Util.getPostbackURL() + "api/" + projectName;
-        JsonObject jsonObject = new JsonObject();
-        jsonObject.addProperty("latestVerId", currentVersion);
-        jsonObject.add("files", getFilesAsJson(projectURL, postbackKey));
-        jsonObject.addProperty(
-                "postbackUrl", projectURL + "/" + postbackKey + "/postback"
+        JsonWriter writer = new JsonWriter(
+                new OutputStreamWriter(out, StandardCharsets.UTF_8)
         );
-        return jsonObject;
-    }
-
-    private JsonArray getFilesAsJson(String projectURL, String postbackKey) {
-        JsonArray filesArray = new JsonArray();
-        for (ServletFile file : files) {
-            filesArray.add(getFileAsJson(file, projectURL, postbackKey));
+        writer.beginObject();
+        writer.name("latestVerId").value(currentVersion);
+        if (waitMillis > 0) {
+            writer.name("waitMillis").value(waitMillis);
         }
-        return filesArray;
+        writer.name("files").beginArray();
+        Iterator<ServletFile> it = files.iterator();
+        return () -> {
+            if (it.hasNext()) {
+                writeFileAsJson(writer, it.next(), projectURL, postbackKey);
+                writer.flush();
+                return true;
+            }
+            writer.endArray();
+            writer.name("postbackUrl").value(
+                    projectURL + "/" + postbackKey + "/postback"
+            );
+            writer.endObject();
+            writer.flush();
+            return false;
+        };
     }
 
-    private JsonObject getFileAsJson(
+    private void writeFileAsJson(
+            JsonWriter writer,
             ServletFile file,
             String projectURL,
             String postbackKey
-    ) {
-        JsonObject jsonFile = new JsonObject();
-        jsonFile.addProperty("name", file.getPath());
+    ) throws IOException {
+        writer.beginObject();
+        writer.name("name").value(file.getPath());
         if (file.isChanged()) {
+            writer.name("hash").value(file.getBlobHash());
+            writer.name("size").value(file.size());
+        }
+        if (file.isChanged() && isInline(file)) {
+            byte[] contents = file.getContents();
+            String text = decodeUtf8(contents);
+            if (text == null) {
+                writer.name("encoding").value("base64");
+                writer.name("content").value(
+                        Base64.getEncoder().encodeToString(contents)
+                );
+            } else {
+                writer.name("encoding").value("utf-8");
+                writer.name("content").value(text);
+            }
+        } else if (file.isChanged()) {
             String identifier = file.getUniqueIdentifier();
             String url = projectURL + "/" + identifier + "?key=" + postbackKey;
-            jsonFile.addProperty("url", url);
+            writer.name("url").value(url);
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Stops serving the changed files that the API says it already has, so
+     * that only the files it still needs are fetched.
+     * @param neededHashes the blob hashes of the files the API needs
+     * @return the number of files no longer served
+     * @throws IOException if a file could not be deleted
+     */
+    public int releaseUnneededFiles(
+            Set<String> neededHashes
+    ) throws IOException {
+        if (attsDirectory == null) {
+            return 0;
+        }
+        int released = 0;
+        for (ServletFile file : files) {
+            if (file.isChanged()
+                    && !isInline(file)
+                    && !neededHashes.contains(file.getBlobHash())) {
+                Files.deleteIfExists(
+                        new File(
+                                attsDirectory,
+                                file.getUniqueIdentifier()
+                        ).toPath()
+                );
+                ++released;
+            }
+        }
+        return released;
+    }
+
+    private boolean isInline(ServletFile file) {
+        return inlineFileBytes > 0 && file.size() <= inlineFileBytes;
+    }
+
+    /* Returns null if the bytes aren't valid UTF-8 */
+    private static String decodeUtf8(byte[] bytes) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes))
+                    .toString();
+        } catch (CharacterCodingException e) {
+            return null;
         }
-        return jsonFile;
     }
 
     public String getProjectName() {
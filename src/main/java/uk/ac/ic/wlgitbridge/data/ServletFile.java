@@ -11,15 +11,22 @@ public class ServletFile extends RawFile {
     private final RawFile file;
     private final boolean changed;
     private String uuid;
+    private final String blobHash;
 
     public ServletFile(RawFile file, RawFile oldFile) {
         this.file = file;
         this.uuid = UUID.randomUUID().toString();
         changed = !equals(oldFile);
+        blobHash = file.getBlobHash();
     }
 
     public String getUniqueIdentifier() { return uuid; }
 
+    @Override
+    public String getBlobHash() {
+        return blobHash;
+    }
+
     @Override
     public String getPath() {
         return file.getPath();
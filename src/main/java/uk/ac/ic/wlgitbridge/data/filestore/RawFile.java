@@ -1,5 +1,7 @@
 package uk.ac.ic.wlgitbridge.data.filestore;
 
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectInserter;
 import uk.ac.ic.wlgitbridge.util.Log;
 
 import java.io.File;
@@ -19,6 +21,16 @@ public abstract class RawFile {
 
     public abstract long size();
 
+    /**
+     * @return the hash git gives this file's contents, as hex
+     */
+    public String getBlobHash() {
+        return new ObjectInserter.Formatter().idFor(
+                Constants.OBJ_BLOB,
+                getContents()
+        ).getName();
+    }
+
     public final void writeToDisk(File directory) throws IOException {
         writeToDiskWithName(directory, getPath());
     }
@@ -1,5 +1,7 @@
 package uk.ac.ic.wlgitbridge.data.filestore;
 
+import org.eclipse.jgit.lib.ObjectId;
+
 /**
  * Created by Winston on 16/11/14.
  */
@@ -7,10 +9,17 @@ public class RepositoryFile extends RawFile {
 
     private final String path;
     private final byte[] contents;
+    /* The blob git already has the contents in, if known */
+    private final ObjectId blobId;
 
     public RepositoryFile(String path, byte[] contents) {
+        this(path, contents, null);
+    }
+
+    public RepositoryFile(String path, byte[] contents, ObjectId blobId) {
         this.path = path;
         this.contents = contents;
+        this.blobId = blobId;
     }
 
     @Override
@@ -28,4 +37,9 @@ public class RepositoryFile extends RawFile {
         return contents.length;
     }
 
+    @Override
+    public String getBlobHash() {
+        return blobId == null ? super.getBlobHash() : blobId.getName();
+    }
+
 }
@@ -14,20 +14,47 @@ public class SizeLimitExceededException extends GitUserException {
 
     private final long maxSize;
 
+    /* Whether the limit is on all of the files, rather than on one */
+    private final boolean total;
+
     public SizeLimitExceededException(
             Optional<String> path, long actualSize, long maxSize) {
+        this(path, actualSize, maxSize, false);
+    }
+
+    private SizeLimitExceededException(
+            Optional<String> path,
+            long actualSize,
+            long maxSize,
+            boolean total
+    ) {
         this.path = path;
         this.actualSize = actualSize;
         this.maxSize = maxSize;
+        this.total = total;
+    }
+
+    public static SizeLimitExceededException forProject(
+            long actualSize, long maxSize) {
+        return new SizeLimitExceededException(
+                Optional.empty(), actualSize, maxSize, true);
     }
 
     @Override
     public String getMessage() {
-        return "file too big";
+        return total ? "project too big" : "file too big";
     }
 
     @Override
     public List<String> getDescriptionLines() {
+        if (total) {
+            return Arrays.asList(
+                    "The files in this push total " + actualSize
+                            + " bytes, which is too large to push to "
+                            + Util.getServiceName() + " via git",
+                    "the maximum is " + maxSize + " bytes"
+            );
+        }
         String filename =
                 path.isPresent() ? "File '" + path.get() + "' is" : "There's a file";
         return Arrays.asList(
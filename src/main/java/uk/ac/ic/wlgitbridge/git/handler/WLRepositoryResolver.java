@@ -57,6 +57,11 @@ public class WLRepositoryResolver
      *
      * The project lock is acquired for this process so it can't be swapped out.
      *
+     * Upload-pack ref advertisements (the first request of a clone or fetch,
+     * and the only one of an ls-remote or up-to-date fetch) only need the
+     * refs, so swapped projects that are up to date are not restored for
+     * them, see {@link Bridge#getRepoForRefAdvertisement(Optional, String)}.
+     *
      * However, it can still be swapped out between this and a Git push. The
      * push would fail due to the project changed on Overleaf between the sync
      * and the actual push to Overleaf (performed by the
@@ -88,6 +93,9 @@ public class WLRepositoryResolver
                         Oauth2Filter.ATTRIBUTE_KEY));
         String projName = Util.removeAllSuffixes(name, "/", ".git");
         try {
+            if (isUploadPackAdvertisement(httpServletRequest)) {
+                return bridge.getRepoForRefAdvertisement(oauth2, projName);
+            }
             return bridge.getUpdatedRepo(oauth2, projName).getJGitRepository();
         } catch (RepositoryNotFoundException e) {
             Log.info("Repository not found: " + name);
@@ -123,4 +131,14 @@ public class WLRepositoryResolver
         }
     }
 
+    private static boolean isUploadPackAdvertisement(
+            HttpServletRequest request
+    ) {
+        String uri = request.getRequestURI();
+        return "GET".equals(request.getMethod())
+                && uri != null
+                && uri.endsWith("/info/refs")
+                && "git-upload-pack".equals(request.getParameter("service"));
+    }
+
 }
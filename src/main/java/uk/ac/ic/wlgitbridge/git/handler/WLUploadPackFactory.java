@@ -3,6 +3,7 @@ package uk.ac.ic.wlgitbridge.git.handler;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.transport.UploadPack;
 import org.eclipse.jgit.transport.resolver.UploadPackFactory;
+import uk.ac.ic.wlgitbridge.bridge.repo.SwappedProjectRepository;
 import uk.ac.ic.wlgitbridge.git.servlet.WLGitServlet;
 import uk.ac.ic.wlgitbridge.util.Log;
 
@@ -24,6 +25,9 @@ public class WLUploadPackFactory
     /**
      * This does nothing special. Synchronising the project with Overleaf will
      * have been performed by {@link WLRepositoryResolver}.
+     *
+     * If the resolver gave us a {@link SwappedProjectRepository}, it has no
+     * refs of its own, so we advertise the ones it was created with.
      * @param __ Not used, required by the {@link UploadPackFactory} interface
      * @param repository The JGit repository provided by the
      * {@link WLRepositoryResolver}
@@ -34,6 +38,17 @@ public class WLUploadPackFactory
             HttpServletRequest __,
             Repository repository
     ) {
+        if (repository instanceof SwappedProjectRepository) {
+            SwappedProjectRepository swapped =
+                    (SwappedProjectRepository) repository;
+            Log.info(
+                    "[{}] Creating upload-pack for swapped project",
+                    swapped.getProjectName()
+            );
+            UploadPack uploadPack = new UploadPack(repository);
+            uploadPack.setAdvertisedRefs(swapped.getAdvertisedRefs());
+            return uploadPack;
+        }
         Log.info(
                 "[{}] Creating upload-pack",
                 repository.getWorkTree().getName()
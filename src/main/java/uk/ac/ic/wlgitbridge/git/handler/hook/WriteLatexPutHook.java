@@ -129,6 +129,7 @@ public class WriteLatexPutHook implements PreReceiveHook {
     ) throws IOException, GitUserException {
         checkBranch(receiveCommand);
         checkForcedPush(receiveCommand);
+        bridge.checkPushLimits(repository, receiveCommand.getNewId());
         bridge.push(
                 oauth2,
                 repository.getWorkTree().getName(),
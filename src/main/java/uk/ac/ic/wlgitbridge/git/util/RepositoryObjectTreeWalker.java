@@ -1,7 +1,9 @@
 package uk.ac.ic.wlgitbridge.git.util;
 
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
@@ -9,6 +11,8 @@ import uk.ac.ic.wlgitbridge.bridge.util.CastUtil;
 import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
 import uk.ac.ic.wlgitbridge.data.filestore.RepositoryFile;
+import uk.ac.ic.wlgitbridge.git.exception.FileLimitExceededException;
+import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
 import uk.ac.ic.wlgitbridge.git.exception.InvalidGitRepository;
 import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
 
@@ -54,6 +58,63 @@ public class RepositoryObjectTreeWalker {
         return new RawDirectory(walkGitObjectTree(maxFileSize));
     }
 
+    /**
+     * Checks the files in the tree against the limits, without reading
+     * them. Sizes come from the headers of the objects, so a push of huge
+     * files is rejected before any of them is loaded.
+     * @param maxFileSize the largest a file may be
+     * @param maxFileNum the most files there may be
+     * @param maxTotalSize the largest the files may be in total
+     * @throws FileLimitExceededException if there are too many files
+     * @throws SizeLimitExceededException if a file, or all of them, are too
+     * big
+     */
+    public void checkLimits(
+            Optional<Long> maxFileSize,
+            Optional<Long> maxFileNum,
+            Optional<Long> maxTotalSize
+    ) throws IOException, GitUserException {
+        if (treeWalk == null) {
+            return;
+        }
+        long numFiles = 0;
+        long totalSize = 0;
+        try (ObjectReader reader = repository.newObjectReader()) {
+            while (treeWalk.next()) {
+                ++numFiles;
+                if (maxFileNum.isPresent() && numFiles > maxFileNum.get()) {
+                    /* Just count the rest */
+                    continue;
+                }
+                ObjectId objectId = treeWalk.getObjectId(0);
+                if (!reader.has(objectId)) {
+                    throw new InvalidGitRepository();
+                }
+                long size = reader.getObjectSize(
+                        objectId,
+                        Constants.OBJ_BLOB
+                );
+                if (maxFileSize.isPresent() && size > maxFileSize.get()) {
+                    throw new SizeLimitExceededException(
+                            Optional.of(treeWalk.getPathString()),
+                            size,
+                            maxFileSize.get()
+                    );
+                }
+                totalSize += size;
+            }
+        }
+        if (maxFileNum.isPresent() && numFiles > maxFileNum.get()) {
+            throw new FileLimitExceededException(numFiles, maxFileNum.get());
+        }
+        if (maxTotalSize.isPresent() && totalSize > maxTotalSize.get()) {
+            throw SizeLimitExceededException.forProject(
+                    totalSize,
+                    maxTotalSize.get()
+            );
+        }
+    }
+
     private TreeWalk initTreeWalk(
             Repository repository,
             ObjectId objectId
@@ -93,7 +154,9 @@ public class RepositoryObjectTreeWalker {
                     CastUtil.assumeInt(size))) {
                 obj.copyTo(o);
                 fileContentsTable.put(
-                        path, new RepositoryFile(path, o.toByteArray()));
+                        path,
+                        new RepositoryFile(path, o.toByteArray(), objectId)
+                );
             };
         }
         return fileContentsTable;
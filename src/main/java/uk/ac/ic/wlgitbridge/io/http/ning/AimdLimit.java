@@ -0,0 +1,51 @@
+package uk.ac.ic.wlgitbridge.io.http.ning;
+
+/**
+ * A concurrency limit that adapts to how the server is coping, by additive
+ * increase and multiplicative decrease.
+ *
+ * Each call that succeeds quickly raises the limit by 1 / limit, so it
+ * grows by about one per round of calls. A call that fails or is slow cuts
+ * it by a tenth. Only calls that started after the last cut can cut it
+ * again, so one burst of failures counts once.
+ *
+ * Times are given by the caller, in nanoseconds, for testing.
+ */
+class AimdLimit {
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int max;
+    private final long slowCallNanos;
+
+    /* Guarded by this */
+    private double limit;
+    private long lastDecrease = Long.MIN_VALUE;
+
+    AimdLimit(int max, long slowCallNanos) {
+        this.max = max;
+        this.slowCallNanos = slowCallNanos;
+        limit = max;
+    }
+
+    synchronized int get() {
+        return (int) limit;
+    }
+
+    /**
+     * @param start when the call started
+     * @param latency how long the server took to respond, if it did
+     * @param failed whether the call failed
+     */
+    synchronized void record(long start, long latency, boolean failed) {
+        if (failed || latency > slowCallNanos) {
+            if (start > lastDecrease) {
+                limit = Math.max(1, limit * BACKOFF_RATIO);
+                lastDecrease = start + latency;
+            }
+        } else {
+            limit = Math.min(max, limit + 1 / limit);
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package uk.ac.ic.wlgitbridge.io.http.ning;
+
+/**
+ * Stops calls to a server that is failing, so that they fail at once
+ * instead of waiting to time out.
+ *
+ * The breaker is closed while at most half of the last {@link #WINDOW}
+ * calls have failed or been slow. Past that, it opens, and refuses calls
+ * for a while. Then it lets one trial call through: if that succeeds, it
+ * closes again, and otherwise it opens for another while.
+ *
+ * Each call is let through with a permit, and its outcome is recorded with
+ * that permit. Outcomes of calls let through before the state last changed
+ * are ignored, so that only the trial call decides whether to close.
+ *
+ * Times are given by the caller, in nanoseconds, for testing.
+ */
+class CircuitBreaker {
+
+    enum State {
+        CLOSED(0), HALF_OPEN(1), OPEN(2);
+
+        /* For metrics */
+        final int value;
+
+        State(int value) {
+            this.value = value;
+        }
+    }
+
+    static final int WINDOW = 20;
+
+    /* Returned by tryAcquire when a call may not be made */
+    static final long REFUSED = -1;
+
+    private static final int MIN_CALLS = 10;
+
+    private final long openNanos;
+
+    /* Guarded by this */
+    private State state = State.CLOSED;
+    private long generation = 0;
+    private long openUntil;
+    private boolean trialInFlight;
+    private final boolean[] outcomes = new boolean[WINDOW];
+    private int calls;
+    private int failures;
+    private int next;
+
+    CircuitBreaker(long openNanos) {
+        this.openNanos = openNanos;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @param now the current time
+     * @return a permit for a call made now, or {@link #REFUSED} if no call
+     * may be made
+     */
+    synchronized long tryAcquire(long now) {
+        switch (state) {
+            case CLOSED:
+                return generation;
+            case OPEN:
+                if (now < openUntil) {
+                    return REFUSED;
+                }
+                transition(State.HALF_OPEN);
+                trialInFlight = true;
+                return generation;
+            default:
+                if (trialInFlight) {
+                    return REFUSED;
+                }
+                trialInFlight = true;
+                return generation;
+        }
+    }
+
+    /**
+     * Gives back a permit for a call that was never made, so that another
+     * trial can be let through.
+     * @param permit the permit from {@link #tryAcquire(long)}
+     */
+    synchronized void release(long permit) {
+        if (permit == generation && state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    /**
+     * @param permit the permit the call was made with
+     * @param now the current time
+     * @param failed whether the call failed or was slow
+     */
+    synchronized void record(long permit, long now, boolean failed) {
+        if (permit != generation) {
+            /* Started before the state last changed */
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+            if (failed) {
+                open(now);
+            } else {
+                transition(State.CLOSED);
+            }
+            return;
+        }
+        if (calls == WINDOW) {
+            if (outcomes[next]) {
+                --failures;
+            }
+        } else {
+            ++calls;
+        }
+        outcomes[next] = failed;
+        if (failed) {
+            ++failures;
+        }
+        next = (next + 1) % WINDOW;
+        if (calls >= MIN_CALLS && failures * 2 > calls) {
+            open(now);
+        }
+    }
+
+    private void open(long now) {
+        transition(State.OPEN);
+        openUntil = now + openNanos;
+        calls = 0;
+        failures = 0;
+        next = 0;
+    }
+
+    private void transition(State state) {
+        this.state = state;
+        ++generation;
+    }
+
+}
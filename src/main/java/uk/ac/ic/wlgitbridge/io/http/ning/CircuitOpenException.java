@@ -0,0 +1,20 @@
+package uk.ac.ic.wlgitbridge.io.http.ning;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending a request to an endpoint whose circuit breaker
+ * is open, or when a request has waited too long for a slot or a response.
+ */
+public class CircuitOpenException extends IOException {
+
+    public CircuitOpenException(String endpoint) {
+        super("too many recent failures from " + endpoint + ", not trying");
+    }
+
+    CircuitOpenException(String endpoint, String waitedFor, long millis) {
+        super("waited " + millis + "ms for " + waitedFor + " " + endpoint
+                + ", giving up");
+    }
+
+}
@@ -1,24 +1,32 @@
 package uk.ac.ic.wlgitbridge.io.http.ning;
 
+import com.google.common.io.ByteStreams;
 import io.netty.handler.codec.http.HttpHeaders;
-import org.asynchttpclient.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.ac.ic.wlgitbridge.util.FunctionT;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.concurrent.ExecutionException;
 
+import static org.asynchttpclient.Dsl.get;
+
+/**
+ * Makes GET requests through a shared {@link PooledHttpClient}, as one of
+ * its endpoints.
+ */
 public class NingHttpClient implements NingHttpClientFacade {
 
     private static final Logger log
             = LoggerFactory.getLogger(NingHttpClient.class);
 
-    private final AsyncHttpClient http;
+    private final PooledHttpClient http;
+    private final String endpoint;
 
-    public NingHttpClient(AsyncHttpClient http) {
+    public NingHttpClient(PooledHttpClient http, String endpoint) {
         this.http = http;
+        this.endpoint = endpoint;
     }
 
     @Override
@@ -26,56 +34,37 @@ public class NingHttpClient implements NingHttpClientFacade {
             String url,
             FunctionT<HttpHeaders, Boolean, E> handler
     ) throws ExecutionException {
+        StreamedResponse response;
         try {
-            return http
-                    .prepareGet(url)
-                    .execute(new AsyncCompletionHandler<byte[]>() {
-
-                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-
-                @Override
-                public State onHeadersReceived(
-                        HttpHeaders headers
-                ) throws E {
-                    return handler.apply(headers)
-                            ? State.CONTINUE : State.ABORT;
-                }
-
-                @Override
-                public State onBodyPartReceived(
-                        HttpResponseBodyPart content
-                ) throws IOException {
-                    bytes.write(content.getBodyPartBytes());
-                    return State.CONTINUE;
-                }
-
-                @Override
-                public byte[] onCompleted(
-                        Response response
-                ) throws Exception {
-                    int statusCode = response.getStatusCode();
-                    if (statusCode >= 400) {
-                        throw new Exception("got status " + statusCode +
-                                            " fetching " + url);
-                    }
-                    byte[] ret = bytes.toByteArray();
-                    bytes.close();
-                    log.info(
-                            statusCode
-                                    + " "
-                                    + response.getStatusText()
-                                    + " ("
-                                    + ret.length
-                                    + "B) -> "
-                                    + url
-                    );
-                    return ret;
-                }
-
-            }).get();
+            response = http.execute(endpoint, get(url).build()).get();
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
+        try (InputStream body = response.getBody()) {
+            if (!handler.apply(response.getHeaders())) {
+                throw new IOException("aborted fetching " + url);
+            }
+            int statusCode = response.getStatusCode();
+            if (statusCode >= 400) {
+                throw new IOException("got status " + statusCode +
+                                      " fetching " + url);
+            }
+            byte[] ret = ByteStreams.toByteArray(body);
+            log.info(
+                    statusCode
+                            + " "
+                            + response.getStatusText()
+                            + " ("
+                            + ret.length
+                            + "B) -> "
+                            + url
+            );
+            return ret;
+        } catch (Exception e) {
+            /* Don't download the rest of a body we don't want */
+            response.abort();
+            throw new ExecutionException(e);
+        }
     }
 
 }
@@ -0,0 +1,674 @@
+package uk.ac.ic.wlgitbridge.io.http.ning;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.channel.Channel;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import org.asynchttpclient.AsyncHandler;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.HttpResponseBodyPart;
+import org.asynchttpclient.HttpResponseStatus;
+import org.asynchttpclient.ListenableFuture;
+import org.asynchttpclient.Request;
+import org.asynchttpclient.RequestBuilder;
+import org.asynchttpclient.request.body.generator.BodyGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.asynchttpclient.Dsl.asyncHttpClient;
+import static org.asynchttpclient.Dsl.config;
+
+/**
+ * A non-blocking HTTP client with a bounded pool of keep-alive connections,
+ * shared by all of the requests made through it.
+ *
+ * Requests are grouped by endpoint, and each endpoint has a limit on the
+ * requests in flight. Further requests wait in a queue, without holding a
+ * thread, until one finishes. With the defaults, four endpoints (those of
+ * the snapshot API) can all be at their limits without running out of
+ * connections.
+ *
+ * The limit of an endpoint falls when its requests fail or are slow, and
+ * rises again as they succeed (see {@link AimdLimit}). If most of them
+ * fail, its {@link CircuitBreaker} opens, and requests to it fail at once
+ * until it has had time to recover. Callers then give up quickly instead
+ * of holding locks and threads for the length of a timeout. Requests also
+ * fail with a {@link CircuitOpenException} if they wait in the queue for
+ * longer than a slow call takes, or have had no response after
+ * {@link #DEADLINE_SLOW_CALLS} times that.
+ *
+ * Responses are compressed if the server will, and are decompressed as
+ * they arrive. Request bodies can be compressed too, per endpoint.
+ *
+ * Close the client at shutdown, to close its connections and threads.
+ */
+public class PooledHttpClient implements Closeable {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 256;
+
+    public static final int DEFAULT_MAX_REQUESTS_PER_ENDPOINT = 64;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 20 * 1000;
+
+    private static final int READ_TIMEOUT_MILLIS = 3 * 60 * 1000;
+
+    private static final int REQUEST_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+    private static final int IDLE_TIMEOUT_MILLIS = 60 * 1000;
+
+    public static final long DEFAULT_SLOW_CALL_MILLIS = 30 * 1000;
+
+    public static final long DEFAULT_CIRCUIT_OPEN_MILLIS = 10 * 1000;
+
+    public static final int DEADLINE_SLOW_CALLS = 4;
+
+    private static final Gauge inFlight = Gauge.build()
+            .name("wlgb_http_requests_in_flight")
+            .help("HTTP requests in flight, by endpoint.")
+            .labelNames("endpoint")
+            .register();
+    private static final Gauge queued = Gauge.build()
+            .name("wlgb_http_requests_queued")
+            .help("HTTP requests waiting for a slot, by endpoint.")
+            .labelNames("endpoint")
+            .register();
+    private static final Gauge concurrencyLimit = Gauge.build()
+            .name("wlgb_http_concurrency_limit")
+            .help("Current limit on HTTP requests in flight, by endpoint.")
+            .labelNames("endpoint")
+            .register();
+    private static final Gauge circuitState = Gauge.build()
+            .name("wlgb_http_circuit_state")
+            .help("Circuit breaker state by endpoint: 0 closed, "
+                    + "1 half open, 2 open.")
+            .labelNames("endpoint")
+            .register();
+    private static final Counter rejections = Counter.build()
+            .name("wlgb_http_circuit_rejections_total")
+            .help("HTTP requests failed without being sent because the "
+                    + "endpoint's circuit breaker was open, by endpoint.")
+            .labelNames("endpoint")
+            .register();
+    private static final Counter requestBytes = Counter.build()
+            .name("wlgb_http_request_body_bytes_total")
+            .help("Bytes of HTTP request bodies sent, by endpoint and "
+                    + "encoding.")
+            .labelNames("endpoint", "encoding")
+            .register();
+    private static final Histogram requestDuration = Histogram.build()
+            .name("wlgb_http_request_duration_seconds")
+            .help("Time from sending an HTTP request to its response, "
+                    + "by endpoint.")
+            .labelNames("endpoint")
+            .buckets(0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60)
+            .register();
+    private static final Histogram connectDuration = Histogram.build()
+            .name("wlgb_http_connect_duration_seconds")
+            .help("Time taken to open new HTTP connections.")
+            .buckets(0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 20)
+            .register();
+    private static final Counter connections = Counter.build()
+            .name("wlgb_http_connections_total")
+            .help("Connections used by HTTP requests, by whether they were "
+                    + "new or reused from the pool.")
+            .labelNames("source")
+            .register();
+
+    private final AsyncHttpClient http;
+    private final int maxConnections;
+    private final int maxRequestsPerEndpoint;
+    private final long slowCallNanos;
+    private final long circuitOpenNanos;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ConcurrentMap<String, Endpoint> endpoints;
+    private final ConcurrentMap<String, Compression> compression;
+
+    public PooledHttpClient() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_REQUESTS_PER_ENDPOINT);
+    }
+
+    public PooledHttpClient(
+            int maxConnections,
+            int maxRequestsPerEndpoint
+    ) {
+        this(
+                maxConnections,
+                maxRequestsPerEndpoint,
+                DEFAULT_SLOW_CALL_MILLIS,
+                DEFAULT_CIRCUIT_OPEN_MILLIS
+        );
+    }
+
+    /**
+     * @param maxConnections the size of the connection pool
+     * @param maxRequestsPerEndpoint the most requests in flight to one
+     *                               endpoint, when it is healthy
+     * @param slowCallMillis responses that take longer than this to start
+     *                       count against the endpoint, like failures
+     * @param circuitOpenMillis how long to stop calling a failing endpoint
+     */
+    public PooledHttpClient(
+            int maxConnections,
+            int maxRequestsPerEndpoint,
+            long slowCallMillis,
+            long circuitOpenMillis
+    ) {
+        http = asyncHttpClient(config()
+                .setMaxConnections(maxConnections)
+                .setMaxConnectionsPerHost(maxConnections)
+                .setKeepAlive(true)
+                .setFollowRedirect(true)
+                .setPooledConnectionIdleTimeout(IDLE_TIMEOUT_MILLIS)
+                .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+                .setReadTimeout(READ_TIMEOUT_MILLIS)
+                .setRequestTimeout(REQUEST_TIMEOUT_MILLIS)
+                .setThreadPoolName("wlgb-http"));
+        this.maxConnections = maxConnections;
+        this.maxRequestsPerEndpoint = maxRequestsPerEndpoint;
+        slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        circuitOpenNanos = TimeUnit.MILLISECONDS.toNanos(circuitOpenMillis);
+        scheduler = new ScheduledThreadPoolExecutor(
+                1,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("wlgb-http-scheduler")
+                        .setDaemon(true)
+                        .build()
+        );
+        scheduler.setRemoveOnCancelPolicy(true);
+        endpoints = new ConcurrentHashMap<>();
+        compression = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return the size of the connection pool, which is also the most
+     * responses that can be arriving at once
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Sets whether requests to an endpoint ask for compressed responses,
+     * and whether their bodies are compressed. By default, responses are
+     * compressed and request bodies are not, since not every server
+     * accepts them.
+     * @param endpoint the name of the endpoint
+     * @param acceptCompressedResponses whether to accept gzip and deflate
+     * @param compressRequests whether to gzip request bodies
+     */
+    public void setCompression(
+            String endpoint,
+            boolean acceptCompressedResponses,
+            boolean compressRequests
+    ) {
+        compression.put(
+                endpoint,
+                new Compression(acceptCompressedResponses, compressRequests)
+        );
+    }
+
+    /**
+     * Sends the request when the endpoint has a free slot.
+     *
+     * The response completes once its headers have arrived, and its body
+     * can be read as it arrives. The endpoint's slot is released once the
+     * whole body has been received. If the body arrives faster than it is
+     * read, the connection stops reading until it catches up, so the body
+     * must be read to the end or closed.
+     *
+     * If the endpoint has been failing, the response fails at once with a
+     * {@link CircuitOpenException}. It also fails with one if it waits too
+     * long for a slot, or for a response.
+     *
+     * Cancelling the response before its headers arrive takes the request
+     * out of the queue, or aborts it if it has been sent.
+     * @param endpoint the name of the endpoint, for limits and metrics
+     * @param request the request
+     * @return the response, whatever its status code
+     */
+    public CompletableFuture<StreamedResponse> execute(
+            String endpoint,
+            Request request
+    ) {
+        Call call;
+        try {
+            call = new Call(compress(endpoint, request));
+        } catch (IOException e) {
+            CompletableFuture<StreamedResponse> ret = new CompletableFuture<>();
+            ret.completeExceptionally(e);
+            return ret;
+        }
+        Endpoint e = endpoints.computeIfAbsent(endpoint, Endpoint::new);
+        e.submit(call);
+        call.handler.response.whenComplete((r, t) -> {
+            if (t instanceof CancellationException) {
+                e.cancel(call);
+            }
+        });
+        return call.handler.response;
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        http.close();
+    }
+
+    /**
+     * @param endpoint the name of the endpoint
+     * @return whether requests to the endpoint are waiting for a slot, so
+     * that a further request would wait too
+     */
+    public boolean hasQueuedRequests(String endpoint) {
+        Endpoint e = endpoints.get(endpoint);
+        return e != null && e.hasWaiting();
+    }
+
+    private Request compress(
+            String endpoint,
+            Request request
+    ) throws IOException {
+        Compression c = compression.getOrDefault(endpoint, Compression.DEFAULT);
+        RequestBuilder builder = new RequestBuilder(request);
+        if (c.acceptCompressedResponses) {
+            builder.setHeader(
+                    HttpHeaderNames.ACCEPT_ENCODING,
+                    "gzip, deflate"
+            );
+        }
+        Counter.Child sent = requestBytes.labels(
+                endpoint,
+                c.compressRequests ? "gzip" : "identity"
+        );
+        byte[] body = request.getByteData();
+        BodyGenerator generator = request.getBodyGenerator();
+        if (body != null) {
+            if (c.compressRequests) {
+                body = gzip(body);
+                builder.setBody(body);
+            }
+            sent.inc(body.length);
+        } else if (generator instanceof StreamingBodyGenerator) {
+            builder.setBody(((StreamingBodyGenerator) generator).encoded(
+                    c.compressRequests,
+                    sent::inc
+            ));
+        } else {
+            return builder.build();
+        }
+        if (c.compressRequests) {
+            builder.setHeader(HttpHeaderNames.CONTENT_ENCODING, "gzip");
+        }
+        return builder.build();
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                body.length / 4
+        );
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    private void send(Endpoint endpoint, Call call) {
+        Histogram.Timer timer = requestDuration
+                .labels(endpoint.name)
+                .startTimer();
+        long start = System.nanoTime();
+        CompletableFuture<Void> done;
+        ScheduledFuture<?> deadline = null;
+        try {
+            ListenableFuture<Void> future = http.executeRequest(
+                    call.request,
+                    call.handler
+            );
+            call.future = future;
+            if (call.handler.response.isCancelled()) {
+                /* Cancelled while it was being sent */
+                future.abort(new CancellationException());
+            }
+            long deadlineNanos = DEADLINE_SLOW_CALLS * slowCallNanos;
+            deadline = scheduler.schedule(() -> {
+                if (call.handler.headersAt == 0) {
+                    future.abort(new CircuitOpenException(
+                            endpoint.name,
+                            "a response from",
+                            TimeUnit.NANOSECONDS.toMillis(deadlineNanos)
+                    ));
+                }
+            }, deadlineNanos, TimeUnit.NANOSECONDS);
+            done = future.toCompletableFuture();
+        } catch (RuntimeException e) {
+            done = new CompletableFuture<>();
+            done.completeExceptionally(e);
+        }
+        ScheduledFuture<?> toCancel = deadline;
+        done.whenComplete((r, t) -> {
+            if (toCancel != null) {
+                toCancel.cancel(false);
+            }
+            timer.observeDuration();
+            long end = System.nanoTime();
+            long headersAt = call.handler.headersAt;
+            boolean failed = t != null || call.handler.isServerError();
+            if (call.handler.response.isCancelled() || call.aborted) {
+                /* Says nothing about the endpoint */
+                endpoint.abandon(call.permit);
+            } else {
+                endpoint.complete(
+                        call.permit,
+                        start,
+                        (headersAt == 0 ? end : headersAt) - start,
+                        failed,
+                        end
+                );
+            }
+            if (t != null) {
+                call.handler.onThrowable(t);
+            }
+        });
+    }
+
+    private static class Compression {
+
+        static final Compression DEFAULT = new Compression(true, false);
+
+        private final boolean acceptCompressedResponses;
+        private final boolean compressRequests;
+
+        Compression(
+                boolean acceptCompressedResponses,
+                boolean compressRequests
+        ) {
+            this.acceptCompressedResponses = acceptCompressedResponses;
+            this.compressRequests = compressRequests;
+        }
+
+    }
+
+    private static class Call {
+
+        private final Request request;
+        private final StreamingHandler handler = new StreamingHandler(this);
+        private long permit;
+        /* Fails the call if it is still waiting; guarded by its Endpoint */
+        private ScheduledFuture<?> queueTimeout;
+        /* Set once the call has been sent */
+        private volatile ListenableFuture<Void> future;
+        /* Whether the caller stopped the response after its headers */
+        private volatile boolean aborted;
+
+        Call(Request request) {
+            this.request = request;
+        }
+
+        void abort() {
+            aborted = true;
+            ListenableFuture<Void> future = this.future;
+            if (future != null) {
+                future.abort(new CancellationException());
+            }
+        }
+
+    }
+
+    /* Limits the requests in flight to one endpoint, and stops them while
+       it is failing */
+    private class Endpoint {
+
+        private final String name;
+        private final AimdLimit limit;
+        private final CircuitBreaker breaker;
+        /* Guarded by this */
+        private final Queue<Call> waiting = new ArrayDeque<>();
+        private int running = 0;
+
+        Endpoint(String name) {
+            this.name = name;
+            limit = new AimdLimit(maxRequestsPerEndpoint, slowCallNanos);
+            breaker = new CircuitBreaker(circuitOpenNanos);
+            concurrencyLimit.labels(name).set(limit.get());
+            circuitState.labels(name).set(breaker.getState().value);
+        }
+
+        void submit(Call call) {
+            boolean allowed;
+            boolean sendNow = false;
+            synchronized (this) {
+                call.permit = breaker.tryAcquire(System.nanoTime());
+                allowed = call.permit != CircuitBreaker.REFUSED;
+                if (allowed && running >= limit.get()) {
+                    waiting.add(call);
+                    queued.labels(name).inc();
+                    call.queueTimeout = scheduler.schedule(
+                            () -> expire(call),
+                            slowCallNanos,
+                            TimeUnit.NANOSECONDS
+                    );
+                } else if (allowed) {
+                    ++running;
+                    sendNow = true;
+                }
+            }
+            circuitState.labels(name).set(breaker.getState().value);
+            if (!allowed) {
+                reject(call);
+            } else if (sendNow) {
+                inFlight.labels(name).inc();
+                send(this, call);
+            }
+        }
+
+        synchronized boolean hasWaiting() {
+            return !waiting.isEmpty();
+        }
+
+        /* Takes a cancelled call out of the queue, or aborts it if it has
+           been sent */
+        void cancel(Call call) {
+            synchronized (this) {
+                if (waiting.remove(call)) {
+                    call.queueTimeout.cancel(false);
+                    breaker.release(call.permit);
+                    queued.labels(name).dec();
+                    return;
+                }
+            }
+            ListenableFuture<Void> future = call.future;
+            if (future != null) {
+                future.abort(new CancellationException());
+            }
+        }
+
+        /* Fails a call that has waited too long for a slot */
+        private void expire(Call call) {
+            synchronized (this) {
+                if (!waiting.remove(call)) {
+                    return;
+                }
+                breaker.release(call.permit);
+            }
+            queued.labels(name).dec();
+            rejections.labels(name).inc();
+            call.handler.onThrowable(new CircuitOpenException(
+                    name,
+                    "a slot at",
+                    TimeUnit.NANOSECONDS.toMillis(slowCallNanos)
+            ));
+        }
+
+        /* Records how a call went, and frees its slot. A slow call counts
+           as a failure for the breaker, as it does for the limit */
+        void complete(
+                long permit,
+                long start,
+                long latency,
+                boolean failed,
+                long now
+        ) {
+            limit.record(start, latency, failed);
+            breaker.record(permit, now, failed || latency > slowCallNanos);
+            release();
+        }
+
+        /* Frees the slot of a call that was cancelled, without recording
+           an outcome */
+        void abandon(long permit) {
+            breaker.release(permit);
+            release();
+        }
+
+        /* Starts as many waiting calls as the limit now allows. If the
+           breaker has opened, the waiting calls fail instead. The calls
+           are started on the scheduler, so that calls that fail at once
+           don't complete each other recursively */
+        private void release() {
+            List<Call> toSend = new ArrayList<>();
+            List<Call> toReject = new ArrayList<>();
+            synchronized (this) {
+                --running;
+                if (breaker.getState() == CircuitBreaker.State.OPEN) {
+                    toReject.addAll(waiting);
+                    waiting.clear();
+                }
+                while (running < limit.get() && !waiting.isEmpty()) {
+                    toSend.add(waiting.poll());
+                    ++running;
+                }
+                for (Call call : toReject) {
+                    call.queueTimeout.cancel(false);
+                }
+                for (Call call : toSend) {
+                    call.queueTimeout.cancel(false);
+                }
+            }
+            concurrencyLimit.labels(name).set(limit.get());
+            circuitState.labels(name).set(breaker.getState().value);
+            queued.labels(name).dec(toSend.size() + toReject.size());
+            inFlight.labels(name).inc(toSend.size());
+            inFlight.labels(name).dec();
+            for (Call call : toReject) {
+                reject(call);
+            }
+            for (Call call : toSend) {
+                scheduler.execute(() -> send(this, call));
+            }
+        }
+
+        private void reject(Call call) {
+            rejections.labels(name).inc();
+            call.handler.onThrowable(new CircuitOpenException(name));
+        }
+
+    }
+
+    /* Streams the response body, and times new connections */
+    private static class StreamingHandler implements AsyncHandler<Void> {
+
+        private final Call call;
+        private final CompletableFuture<StreamedResponse> response =
+                new CompletableFuture<>();
+        private final ResponseBodyStream body = new ResponseBodyStream();
+        private volatile HttpResponseStatus status;
+        private volatile long headersAt;
+        private volatile long connectStart;
+
+        StreamingHandler(Call call) {
+            this.call = call;
+        }
+
+        /* Whether the server said it failed, or is overloaded */
+        boolean isServerError() {
+            HttpResponseStatus status = this.status;
+            return status != null && (
+                    status.getStatusCode() >= 500 ||
+                    status.getStatusCode() == 429
+            );
+        }
+
+        @Override
+        public State onStatusReceived(HttpResponseStatus status) {
+            this.status = status;
+            return State.CONTINUE;
+        }
+
+        @Override
+        public State onHeadersReceived(HttpHeaders headers) {
+            headersAt = System.nanoTime();
+            response.complete(new StreamedResponse(
+                    status.getStatusCode(),
+                    status.getStatusText(),
+                    headers,
+                    body,
+                    call::abort
+            ));
+            return State.CONTINUE;
+        }
+
+        @Override
+        public State onBodyPartReceived(HttpResponseBodyPart part) {
+            body.add(part.getBodyPartBytes());
+            return State.CONTINUE;
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            body.fail(t);
+            response.completeExceptionally(t);
+        }
+
+        @Override
+        public Void onCompleted() {
+            body.end();
+            response.completeExceptionally(
+                    new IOException("response had no headers")
+            );
+            return null;
+        }
+
+        @Override
+        public void onTcpConnectAttempt(InetSocketAddress remoteAddress) {
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public void onTcpConnectSuccess(
+                InetSocketAddress remoteAddress,
+                Channel connection
+        ) {
+            body.setChannel(connection);
+            connections.labels("new").inc();
+            connectDuration.observe(
+                    (System.nanoTime() - connectStart) / 1e9
+            );
+        }
+
+        @Override
+        public void onConnectionPooled(Channel connection) {
+            body.setChannel(connection);
+            connections.labels("pool").inc();
+        }
+
+    }
+
+}
@@ -0,0 +1,155 @@
+package uk.ac.ic.wlgitbridge.io.http.ning;
+
+import io.netty.channel.Channel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An InputStream of the parts of a response body, added by the HTTP
+ * client's event loop and read by another thread.
+ *
+ * Parts are only held until they are read, and are dropped once the stream
+ * is closed. If more than {@link #HIGH_WATER_BYTES} are waiting to be read,
+ * the connection stops reading until the reader is down to
+ * {@link #LOW_WATER_BYTES}, so a slow reader holds back the server rather
+ * than filling the heap.
+ */
+class ResponseBodyStream extends InputStream {
+
+    static final long HIGH_WATER_BYTES = 256 * 1024;
+
+    static final long LOW_WATER_BYTES = 64 * 1024;
+
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> parts = new LinkedBlockingQueue<>();
+    private final AtomicLong buffered = new AtomicLong();
+    private volatile Throwable failure;
+    private volatile boolean closed;
+
+    /* Guarded by this */
+    private Channel channel;
+    private boolean paused;
+
+    /* Only used by the reading thread */
+    private byte[] current;
+    private int pos;
+
+    /* The connection the body is arriving on, to pause */
+    synchronized void setChannel(Channel channel) {
+        this.channel = channel;
+    }
+
+    void add(byte[] part) {
+        if (part.length > 0 && !closed) {
+            parts.add(part);
+            buffered.addAndGet(part.length);
+            pauseIfFull();
+        }
+    }
+
+    void end() {
+        releaseChannel();
+        parts.add(END);
+    }
+
+    void fail(Throwable t) {
+        releaseChannel();
+        failure = t;
+        parts.add(END);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!next()) {
+            return -1;
+        }
+        return current[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!next()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.length - pos;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        parts.clear();
+        buffered.set(0);
+        /* Lets the rest of the body arrive, to be dropped */
+        resumeIfDrained();
+    }
+
+    /* Both decide under the lock, so that the reader can't drain the parts
+       between the check and the pause, and leave the connection paused */
+    private synchronized void pauseIfFull() {
+        if (!paused && channel != null
+                && buffered.get() > HIGH_WATER_BYTES) {
+            paused = true;
+            channel.config().setAutoRead(false);
+        }
+    }
+
+    private synchronized void resumeIfDrained() {
+        if (paused && buffered.get() <= LOW_WATER_BYTES) {
+            paused = false;
+            channel.config().setAutoRead(true);
+        }
+    }
+
+    /* Once the body has all arrived, the connection goes back to the pool
+       for another response, so it is resumed and never touched again */
+    private synchronized void releaseChannel() {
+        if (paused) {
+            paused = false;
+            channel.config().setAutoRead(true);
+        }
+        channel = null;
+    }
+
+    /* Returns false at the end of the body */
+    private boolean next() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        while (current != END && (current == null || pos == current.length)) {
+            try {
+                current = parts.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            pos = 0;
+            buffered.addAndGet(-current.length);
+            resumeIfDrained();
+        }
+        if (current != END) {
+            return true;
+        }
+        if (failure != null) {
+            throw new IOException(failure);
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,61 @@
+package uk.ac.ic.wlgitbridge.io.http.ning;
+
+import io.netty.handler.codec.http.HttpHeaders;
+
+import java.io.InputStream;
+
+/**
+ * The status of an HTTP response, and a stream of its body.
+ *
+ * The body is read as it arrives, rather than once the whole response has
+ * been received. Reads block until the next part of the body arrives, and
+ * throw an IOException if the connection fails before the end.
+ */
+public class StreamedResponse {
+
+    private final int statusCode;
+    private final String statusText;
+    private final HttpHeaders headers;
+    private final InputStream body;
+    private final Runnable abort;
+
+    StreamedResponse(
+            int statusCode,
+            String statusText,
+            HttpHeaders headers,
+            InputStream body,
+            Runnable abort
+    ) {
+        this.statusCode = statusCode;
+        this.statusText = statusText;
+        this.headers = headers;
+        this.body = body;
+        this.abort = abort;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getStatusText() {
+        return statusText;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    /**
+     * Stops the rest of the body arriving, by closing the connection,
+     * rather than reading it to the end. Reads of the body then fail. This
+     * is not counted as a failure of the endpoint.
+     */
+    public void abort() {
+        abort.run();
+    }
+
+}
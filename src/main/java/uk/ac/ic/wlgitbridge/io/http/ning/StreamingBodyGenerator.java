@@ -0,0 +1,131 @@
+package uk.ac.ic.wlgitbridge.io.http.ning;
+
+import io.netty.buffer.ByteBuf;
+import org.asynchttpclient.request.body.Body;
+import org.asynchttpclient.request.body.generator.BodyGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A request body that is written a part at a time, as the connection
+ * takes it, so that only a part is held in memory at once. The length of
+ * the body isn't known up front, so it is sent chunked.
+ */
+public class StreamingBodyGenerator implements BodyGenerator {
+
+    /**
+     * Writes a body from the beginning. The body may be written more than
+     * once, if the request is retried.
+     */
+    public interface Source {
+
+        Parts open(OutputStream out) throws IOException;
+
+    }
+
+    public interface Parts {
+
+        /**
+         * Writes the next part of the body.
+         * @return false once the whole body has been written
+         * @throws IOException if the part could not be written
+         */
+        boolean writeNext() throws IOException;
+
+    }
+
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    private final Source source;
+    private final boolean gzip;
+    private final LongConsumer onSent;
+
+    public StreamingBodyGenerator(Source source) {
+        this(source, false, n -> {});
+    }
+
+    private StreamingBodyGenerator(
+            Source source,
+            boolean gzip,
+            LongConsumer onSent
+    ) {
+        this.source = source;
+        this.gzip = gzip;
+        this.onSent = onSent;
+    }
+
+    /* The same body, optionally gzipped, reporting the bytes sent */
+    StreamingBodyGenerator encoded(boolean gzip, LongConsumer onSent) {
+        return new StreamingBodyGenerator(source, gzip, onSent);
+    }
+
+    @Override
+    public Body createBody() {
+        return new StreamingBody();
+    }
+
+    private class StreamingBody implements Body {
+
+        private final Buffer buffer = new Buffer();
+        private OutputStream out;
+        private Parts parts;
+        private boolean done = false;
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public BodyState transferTo(ByteBuf target) throws IOException {
+            if (parts == null) {
+                out = gzip
+                        ? new GZIPOutputStream(buffer, GZIP_BUFFER_SIZE)
+                        : buffer;
+                parts = source.open(out);
+            }
+            /* Compressed parts may not produce any output until later */
+            while (buffer.remaining() == 0 && !done) {
+                if (!parts.writeNext()) {
+                    out.close();
+                    done = true;
+                }
+            }
+            onSent.accept(buffer.drainTo(target));
+            return done && buffer.remaining() == 0
+                    ? BodyState.STOP
+                    : BodyState.CONTINUE;
+        }
+
+        @Override
+        public void close() {}
+
+    }
+
+    /* Holds the part being sent, until the connection has taken it all */
+    private static class Buffer extends ByteArrayOutputStream {
+
+        private int pos = 0;
+
+        int remaining() {
+            return count - pos;
+        }
+
+        int drainTo(ByteBuf target) {
+            int n = Math.min(remaining(), target.writableBytes());
+            target.writeBytes(buf, pos, n);
+            pos += n;
+            if (pos == count) {
+                reset();
+                pos = 0;
+            }
+            return n;
+        }
+
+    }
+
+}
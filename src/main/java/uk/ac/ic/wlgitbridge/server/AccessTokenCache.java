@@ -0,0 +1,106 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.prometheus.client.Counter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the access tokens issued for users' passwords, so that the
+ * requests of one git operation, and of clients that poll, don't each ask
+ * the OAuth server for a new one.
+ *
+ * Entries are keyed by a hash of the username, password and client IP,
+ * salted with a random key made at startup, so the passwords themselves
+ * are never kept. The client IP is part of the key because the OAuth
+ * server is told it, and may decide differently for different addresses.
+ *
+ * A token is kept for the configured time, or until it expires, whichever
+ * is sooner, and is dropped as soon as the snapshot API refuses it.
+ */
+class AccessTokenCache {
+
+    private static final long MAX_TOKENS = 10000;
+
+    private static final Counter lookups = Counter.build()
+            .name("wlgb_oauth_token_cache_lookups_total")
+            .help("OAuth access token cache lookups, by result.")
+            .labelNames("result")
+            .register();
+
+    private final HashFunction hash;
+    private final Cache<String, Token> tokens;
+
+    AccessTokenCache(long ttlSeconds) {
+        byte[] salt = new byte[32];
+        new SecureRandom().nextBytes(salt);
+        hash = Hashing.hmacSha256(salt);
+        tokens = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .maximumSize(MAX_TOKENS)
+                .build();
+    }
+
+    String keyFor(String username, String password, String clientIp) {
+        return hash.newHasher()
+                .putString(username, StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(password, StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(clientIp, StandardCharsets.UTF_8)
+                .hash()
+                .toString();
+    }
+
+    /**
+     * @param key from {@link #keyFor(String, String, String)}
+     * @return the cached access token, or null if there isn't a live one
+     */
+    String get(String key) {
+        Token token = tokens.getIfPresent(key);
+        if (token != null && token.expired()) {
+            tokens.asMap().remove(key, token);
+            token = null;
+        }
+        lookups.labels(token == null ? "miss" : "hit").inc();
+        return token == null ? null : token.accessToken;
+    }
+
+    /**
+     * @param key from {@link #keyFor(String, String, String)}
+     * @param accessToken the token issued
+     * @param expiresInSeconds the token's lifetime, if the server gave one
+     */
+    void put(String key, String accessToken, Long expiresInSeconds) {
+        long expiresAt = expiresInSeconds == null
+                ? Long.MAX_VALUE
+                : System.currentTimeMillis() + expiresInSeconds * 1000;
+        tokens.put(key, new Token(accessToken, expiresAt));
+    }
+
+    void invalidate(String key) {
+        tokens.invalidate(key);
+    }
+
+    private static class Token {
+
+        private final String accessToken;
+        private final long expiresAt;
+
+        Token(String accessToken, long expiresAt) {
+            this.accessToken = accessToken;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean expired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+
+    }
+
+}
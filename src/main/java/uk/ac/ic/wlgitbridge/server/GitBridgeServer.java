@@ -11,15 +11,23 @@ import uk.ac.ic.wlgitbridge.application.config.Config;
 import uk.ac.ic.wlgitbridge.application.jetty.NullLogger;
 import uk.ac.ic.wlgitbridge.bridge.Bridge;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.cache.CachingDBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.jdbc.JdbcDBStore;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SqliteDBStore;
 import uk.ac.ic.wlgitbridge.bridge.repo.FSGitRepoStore;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStoreConfig;
+import uk.ac.ic.wlgitbridge.bridge.snapshot.CachingSnapshotApi;
+import uk.ac.ic.wlgitbridge.bridge.snapshot.HedgingSnapshotApi;
 import uk.ac.ic.wlgitbridge.bridge.snapshot.NetSnapshotApi;
 import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApi;
+import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApiConfig;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStore;
 import uk.ac.ic.wlgitbridge.git.servlet.WLGitServlet;
+import uk.ac.ic.wlgitbridge.io.http.ning.PooledHttpClient;
+import uk.ac.ic.wlgitbridge.snapshot.base.Request;
 import uk.ac.ic.wlgitbridge.snapshot.base.SnapshotAPIRequest;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.GetForVersionRequest;
 import uk.ac.ic.wlgitbridge.util.Log;
 import uk.ac.ic.wlgitbridge.util.Util;
 
@@ -58,20 +66,41 @@ public class GitBridgeServer {
                 rootGitDirectoryPath,
                 config.getRepoStore().flatMap(RepoStoreConfig::getMaxFileSize)
         );
-        DBStore dbStore = new SqliteDBStore(
+        DBStore dbStore = config.getDatabase().<DBStore>map(
+                JdbcDBStore::new
+        ).orElseGet(() -> new CachingDBStore(new SqliteDBStore(
                 Paths.get(
                         repoStore.getRootDirectory().getAbsolutePath()
                 ).resolve(".wlgb").resolve("wlgb.db").toFile(),
                 config.getSqliteHeapLimitBytes()
-        );
+        )));
         SwapStore swapStore = SwapStore.fromConfig(config.getSwapStore());
+        SnapshotApiConfig snapshotApiConfig = config.getSnapshotApi()
+                .orElseGet(SnapshotApiConfig::new);
+        PooledHttpClient httpClient = snapshotApiConfig.makeHttpClient();
+        Request.setHttpClient(httpClient);
         SnapshotApi snapshotApi = new NetSnapshotApi();
+        if (snapshotApiConfig.getHedgePercentile().isPresent()) {
+            snapshotApi = new HedgingSnapshotApi(
+                    snapshotApi,
+                    () -> httpClient.hasQueuedRequests(
+                            GetForVersionRequest.class.getSimpleName()
+                    ),
+                    snapshotApiConfig.getHedgePercentile().get(),
+                    snapshotApiConfig.getHedgeBudgetPercent()
+            );
+        }
+        long docCacheMillis = snapshotApiConfig.getDocCacheMillis();
+        if (docCacheMillis > 0) {
+            snapshotApi = new CachingSnapshotApi(snapshotApi, docCacheMillis);
+        }
         bridge = Bridge.make(
                 config,
                 repoStore,
                 dbStore,
                 swapStore,
-                snapshotApi
+                snapshotApi,
+                httpClient
         );
         jettyServer = new Server();
         configureJettyServer(config, repoStore, snapshotApi);
@@ -87,8 +116,8 @@ public class GitBridgeServer {
      */
     public void start() {
         try {
-            bridge.checkDB();
             jettyServer.start();
+            bridge.startReconciliation();
             bridge.startBackgroundJobs();
             Log.info(Util.getServiceName() + "-Git Bridge server started");
             Log.info("Listening on port: " + port);
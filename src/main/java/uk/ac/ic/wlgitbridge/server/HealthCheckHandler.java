@@ -37,7 +37,11 @@ public class HealthCheckHandler extends AbstractHandler {
       Log.info(method + " <- /health_check");
       baseRequest.setHandled(true);
       response.setContentType("text/plain");
-      if (bridge.healthCheck()) {
+      if (!bridge.isReady()) {
+        /* Still reconciling the repo store with the DB after a restart */
+        response.setStatus(503);
+        response.getWriter().println("starting");
+      } else if (bridge.healthCheck()) {
         response.setStatus(200);
         response.getWriter().println("ok");
       } else {
@@ -8,7 +8,6 @@ import uk.ac.ic.wlgitbridge.application.config.Oauth2;
 import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApi;
 import uk.ac.ic.wlgitbridge.snapshot.base.MissingRepositoryException;
 import uk.ac.ic.wlgitbridge.snapshot.base.ForbiddenException;
-import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocRequest;
 import uk.ac.ic.wlgitbridge.util.Instance;
 import uk.ac.ic.wlgitbridge.util.Log;
 import uk.ac.ic.wlgitbridge.util.Util;
@@ -32,9 +31,15 @@ public class Oauth2Filter implements Filter {
 
     private final Oauth2 oauth2;
 
+    /* Null if tokens aren't cached */
+    private final AccessTokenCache tokenCache;
+
     public Oauth2Filter(SnapshotApi snapshotApi, Oauth2 oauth2) {
         this.snapshotApi = snapshotApi;
         this.oauth2 = oauth2;
+        tokenCache = oauth2.getTokenCacheSeconds() > 0
+                ? new AccessTokenCache(oauth2.getTokenCacheSeconds())
+                : null;
     }
 
     @Override
@@ -98,8 +103,6 @@ public class Oauth2Filter implements Filter {
             return;
         }
         Log.info("[{}] Checking if auth needed", project);
-        GetDocRequest doc = new GetDocRequest(project);
-        doc.request();
         try {
             SnapshotApi.getResult(
                     snapshotApi.getDoc(Optional.empty(), project));
@@ -155,26 +158,43 @@ public class Oauth2Filter implements Filter {
                             if (username.length() > 0) {
                                 capturedUsername = username;
                             }
-                            try {
-                                accessToken = new PasswordTokenRequest(
-                                        Instance.httpTransport,
-                                        Instance.jsonFactory,
-                                        new GenericUrl(
-                                                oauth2.getOauth2Server()
-                                                        + "/oauth/token?client_ip="
-                                                        + clientIp
-                                        ),
-                                        username,
-                                        password
-                                ).setClientAuthentication(
-                                        new ClientParametersAuthentication(
-                                                oauth2.getOauth2ClientID(),
-                                                oauth2.getOauth2ClientSecret()
-                                        )
-                                ).execute().getAccessToken();
-                            } catch (TokenResponseException e) {
-                                handleNeedAuthorization(projectName, capturedUsername, e.getStatusCode(), request, response);
-                                return;
+                            String tokenKey = tokenCache == null
+                                    ? null
+                                    : tokenCache.keyFor(
+                                            username, password, clientIp);
+                            if (tokenKey != null) {
+                                accessToken = tokenCache.get(tokenKey);
+                            }
+                            if (accessToken == null) {
+                                try {
+                                    TokenResponse token = new PasswordTokenRequest(
+                                            Instance.httpTransport,
+                                            Instance.jsonFactory,
+                                            new GenericUrl(
+                                                    oauth2.getOauth2Server()
+                                                            + "/oauth/token?client_ip="
+                                                            + clientIp
+                                            ),
+                                            username,
+                                            password
+                                    ).setClientAuthentication(
+                                            new ClientParametersAuthentication(
+                                                    oauth2.getOauth2ClientID(),
+                                                    oauth2.getOauth2ClientSecret()
+                                            )
+                                    ).execute();
+                                    accessToken = token.getAccessToken();
+                                    if (tokenKey != null) {
+                                        tokenCache.put(
+                                                tokenKey,
+                                                accessToken,
+                                                token.getExpiresInSeconds()
+                                        );
+                                    }
+                                } catch (TokenResponseException e) {
+                                    handleNeedAuthorization(projectName, capturedUsername, e.getStatusCode(), request, response);
+                                    return;
+                                }
                             }
                             final Credential cred = new Credential.Builder(
                                     BearerToken.authorizationHeaderAccessMethod(
@@ -187,6 +207,15 @@ public class Oauth2Filter implements Filter {
                                     servletRequest,
                                     servletResponse
                             );
+                            /* The token may have been revoked */
+                            if (
+                                    tokenKey != null && (
+                                            response.getStatus() == 401 ||
+                                            response.getStatus() == 403
+                                    )
+                            ) {
+                                tokenCache.invalidate(tokenKey);
+                            }
                         } else {
                             handleNeedAuthorization(projectName, capturedUsername, 0, request, response);
                         }
@@ -1,204 +1,308 @@
 package uk.ac.ic.wlgitbridge.snapshot.base;
 
-import com.google.api.client.http.*;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import org.asynchttpclient.AsyncHttpClient;
-import static org.asynchttpclient.Dsl.*;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+import org.asynchttpclient.RequestBuilder;
+import uk.ac.ic.wlgitbridge.io.http.ning.PooledHttpClient;
+import uk.ac.ic.wlgitbridge.io.http.ning.StreamedResponse;
+import uk.ac.ic.wlgitbridge.io.http.ning.StreamingBodyGenerator;
 import uk.ac.ic.wlgitbridge.snapshot.exception.FailedConnectionException;
 import uk.ac.ic.wlgitbridge.util.Instance;
 import uk.ac.ic.wlgitbridge.util.Log;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.asynchttpclient.Dsl.get;
+import static org.asynchttpclient.Dsl.post;
 
 /**
  * Created by Winston on 06/11/14.
  */
 public abstract class Request<T extends Result> {
 
-    public static final AsyncHttpClient httpClient = asyncHttpClient();
+    /* Shared by all snapshot API requests. Made on first use, unless
+       set. Guarded by the class */
+    private static PooledHttpClient httpClient;
 
-    private static final Executor executor = Executors.newCachedThreadPool();
+    /* Parses response bodies as they arrive, off the HTTP client's event
+       loop. A parser waits on the network between parts of a body, so
+       there is up to one thread per connection of the client. Guarded by
+       the class */
+    private static ThreadPoolExecutor parser;
 
     private final String url;
 
-    private Future<HttpResponse> future;
-
     public Request(String url) {
         this.url = url;
     }
 
+    public static synchronized void setHttpClient(PooledHttpClient client) {
+        httpClient = client;
+        if (parser != null) {
+            parser.shutdown();
+        }
+        parser = newParser(client.getMaxConnections());
+    }
+
+    private static synchronized PooledHttpClient getHttpClient() {
+        if (httpClient == null) {
+            setHttpClient(new PooledHttpClient());
+        }
+        return httpClient;
+    }
+
+    /* Beyond a queued body per connection, something is stuck, and
+       responses fail rather than pile up */
+    private static ThreadPoolExecutor newParser(int maxConnections) {
+        ThreadPoolExecutor ret = new ThreadPoolExecutor(
+                maxConnections,
+                maxConnections,
+                60,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(maxConnections),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("snapshot-api-parse-%d")
+                        .setDaemon(true)
+                        .build()
+        );
+        ret.allowCoreThreadTimeOut(true);
+        return ret;
+    }
+
     public CompletableFuture<T> request() {
+        RequestBuilder request;
         switch (httpMethod()) {
             case GET:
-                performGetRequest();
+                Log.info("GET -> " + url);
+                request = get(url);
                 break;
             case POST:
-                performPostRequest();
+                Log.info("POST -> " + url);
+                request = post(url)
+                        .setHeader("Content-Type", "application/json")
+                        .setBody(new StreamingBodyGenerator(getPostBody()));
                 break;
             default:
-                break;
+                throw new IllegalStateException(
+                        "unknown method: " + httpMethod()
+                );
+        }
+        onBeforeRequest(request);
+        PooledHttpClient client;
+        ThreadPoolExecutor parse;
+        synchronized (Request.class) {
+            client = getHttpClient();
+            parse = parser;
         }
         CompletableFuture<T> ret = new CompletableFuture<>();
-        executor.execute(() -> {
+        CompletableFuture<StreamedResponse> sent = client.execute(
+                getClass().getSimpleName(),
+                request.build()
+        );
+        /* Stops the request if nobody wants the result any more */
+        ret.whenComplete((r, t) -> {
+            if (ret.isCancelled()) {
+                sent.cancel(false);
+            }
+        });
+        sent.whenComplete((response, t) -> {
             try {
-                ret.complete(getResult());
-            } catch (Throwable t) {
-                ret.completeExceptionally(t);
+                parse.execute(() -> complete(ret, response, t));
+            } catch (RejectedExecutionException e) {
+                discard(response);
+                ret.completeExceptionally(new FailedConnectionException(e));
             }
         });
         return ret;
     }
 
-    private T getResult() throws MissingRepositoryException, FailedConnectionException, ForbiddenException {
+    private void complete(
+            CompletableFuture<T> ret,
+            StreamedResponse response,
+            Throwable t
+    ) {
+        if (ret.isCancelled()) {
+            discard(response);
+            return;
+        }
         try {
-            HttpResponse response = future.get();
-            Log.info(
-                    "{} {} ({}B) -> " + url,
-                    response.getStatusCode(),
-                    response.getStatusMessage(),
-                    response.getHeaders().getContentLength()
-            );
-            JsonElement json = Instance.gson.fromJson(
-                    response.parseAsString(),
-                    JsonElement.class
-            );
-            return parseResponse(json);
-        } catch (InterruptedException e) {
-            throw new FailedConnectionException();
-        } catch (ExecutionException e) {
-            Throwable cause = e.getCause();
-            if (cause instanceof HttpResponseException) {
-                HttpResponseException httpCause = (HttpResponseException) cause;
-                int sc = httpCause.getStatusCode();
-                if (sc == HttpServletResponse.SC_UNAUTHORIZED || sc == HttpServletResponse.SC_FORBIDDEN) {  // 401, 403
-                    throw new ForbiddenException();
-                } else if (sc == HttpServletResponse.SC_CONFLICT) {  // 409
-                    try {
-                        JsonObject json = Instance.gson.fromJson(httpCause.getContent(), JsonObject.class);
-                        String code = json.get("code").getAsString();
-                        if ("projectHasDotGit".equals(code)) {
-                            throw new MissingRepositoryException(Arrays.asList(
-                                    "This project contains a '.git' entity at the top level, indicating that it is",
-                                    "already a git repository. The Overleaf git-bridge cannot work with this project",
-                                    "due to a known problem with handling these '.git' folders.",
-                                    "",
-                                    "We recommend removing the .git folder before trying again.",
-                                    "",
-                                    "If this is unexpected, please contact us at support@overleaf.com, or",
-                                    "see https://www.overleaf.com/help/342 for more information."
-                            ));
-                        } else {
-                            throw new MissingRepositoryException(Arrays.asList("Conflict: 409"));
-                        }
-                    } catch (IllegalStateException
-                            | ClassCastException
-                            | NullPointerException _e) { // json parse errors
-                        throw new MissingRepositoryException(Arrays.asList("Conflict: 409"));
-                    }
-                } else if (sc == HttpServletResponse.SC_NOT_FOUND) {  // 404
-                    try {
-                        JsonObject json = Instance.gson.fromJson(httpCause.getContent(), JsonObject.class);
-                        String message = json.get("message").getAsString();
-                        String newRemote;
-                        if (json.has("newRemote")) {
-                            newRemote = json.get("newRemote").getAsString();
-                        } else {
-                            newRemote = null;
-                        }
-
-                        if ("Exported to v2".equals(message)) {
-                            throw new MissingRepositoryException(
-                                MissingRepositoryException.buildExportedToV2Message(newRemote)
-                            );
-                        } else if ("Overleaf v1 is Deprecated".equals(message)) {
-                            String newUrl;
-                            if (json.has("newUrl")) {
-                                newUrl = json.get("newUrl").getAsString();
-                            } else {
-                                newUrl = null;
-                            }
-                            throw new MissingRepositoryException(
-                                    MissingRepositoryException.buildDeprecatedMessage(newUrl)
-                            );
-                        }
-                    } catch (IllegalStateException
-                            | ClassCastException
-                            | NullPointerException _) {
-                        // disregard any errors that arose while handling the JSON
-                    }
-
-                    throw new MissingRepositoryException();
-                } else if (sc >= 400 && sc < 500) {
-                    throw new MissingRepositoryException(MissingRepositoryException.GENERIC_REASON);
-                }
-                throw new FailedConnectionException(cause);
-            } else {
-                throw new FailedConnectionException(cause);
+            if (t != null) {
+                throw new FailedConnectionException(unwrap(t));
             }
-        } catch (IOException e) {
-            Log.error("Failed to parse JSON.", e);
-            throw new FailedConnectionException();
+            ret.complete(getResult(response));
+        } catch (MissingRepositoryException
+                | FailedConnectionException
+                | ForbiddenException
+                | RuntimeException e) {
+            ret.completeExceptionally(e);
         }
     }
 
-    protected abstract HTTPMethod httpMethod();
-
-    protected void onBeforeRequest(HttpRequest request) throws IOException {
-
+    /* Drops the rest of a body that won't be parsed */
+    private static void discard(StreamedResponse response) {
+        if (response == null) {
+            return;
+        }
+        try {
+            response.getBody().close();
+        } catch (IOException e) {
+            /* Nothing more to do */
+        }
     }
 
-    protected abstract
-    T parseResponse(JsonElement json) throws FailedConnectionException;
-
-    protected String getPostBody() {
-        return null;
+    private static Throwable unwrap(Throwable t) {
+        if (t instanceof CompletionException && t.getCause() != null) {
+            return t.getCause();
+        }
+        return t;
     }
 
-    private void performGetRequest() {
-        Log.info("GET -> " + url);
-        try {
-            HttpRequest request = Instance.httpRequestFactory.buildGetRequest(
-                    new GenericUrl(url)
+    private T getResult(
+            StreamedResponse response
+    ) throws MissingRepositoryException, FailedConnectionException, ForbiddenException {
+        int sc = response.getStatusCode();
+        Log.info("{} {} -> " + url, sc, response.getStatusText());
+        if (sc >= 200 && sc < 300) {
+            try (JsonReader reader = new JsonReader(new InputStreamReader(
+                    response.getBody(),
+                    StandardCharsets.UTF_8
+            ))) {
+                return parseResponse(reader);
+            } catch (MalformedJsonException
+                    | IllegalStateException
+                    | JsonParseException e) {
+                Log.error("Failed to parse JSON.", e);
+                throw new FailedConnectionException();
+            } catch (IOException e) {
+                throw new FailedConnectionException(e);
+            }
+        }
+        String content;
+        try (InputStream body = response.getBody()) {
+            content = new String(
+                    ByteStreams.toByteArray(body),
+                    StandardCharsets.UTF_8
             );
-            setTimeouts(request);
-            request(request);
         } catch (IOException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+            throw new FailedConnectionException(e);
         }
-    }
+        if (sc == HttpServletResponse.SC_UNAUTHORIZED || sc == HttpServletResponse.SC_FORBIDDEN) {  // 401, 403
+            throw new ForbiddenException();
+        } else if (sc == HttpServletResponse.SC_CONFLICT) {  // 409
+            try {
+                JsonObject json = Instance.gson.fromJson(content, JsonObject.class);
+                String code = json.get("code").getAsString();
+                if ("projectHasDotGit".equals(code)) {
+                    throw new MissingRepositoryException(Arrays.asList(
+                            "This project contains a '.git' entity at the top level, indicating that it is",
+                            "already a git repository. The Overleaf git-bridge cannot work with this project",
+                            "due to a known problem with handling these '.git' folders.",
+                            "",
+                            "We recommend removing the .git folder before trying again.",
+                            "",
+                            "If this is unexpected, please contact us at support@overleaf.com, or",
+                            "see https://www.overleaf.com/help/342 for more information."
+                    ));
+                } else {
+                    throw new MissingRepositoryException(Arrays.asList("Conflict: 409"));
+                }
+            } catch (IllegalStateException
+                    | ClassCastException
+                    | NullPointerException
+                    | JsonParseException _e) { // json parse errors
+                throw new MissingRepositoryException(Arrays.asList("Conflict: 409"));
+            }
+        } else if (sc == HttpServletResponse.SC_NOT_FOUND) {  // 404
+            try {
+                JsonObject json = Instance.gson.fromJson(content, JsonObject.class);
+                String message = json.get("message").getAsString();
+                String newRemote;
+                if (json.has("newRemote")) {
+                    newRemote = json.get("newRemote").getAsString();
+                } else {
+                    newRemote = null;
+                }
 
-    private void performPostRequest() {
-        Log.info("POST -> " + url);
-        try {
-            HttpRequest request = Instance.httpRequestFactory.buildPostRequest(
-                    new GenericUrl(url),
-                    new ByteArrayContent(
-                            "application/json",
-                            getPostBody().getBytes()
-                    )
-            );
-            setTimeouts(request);
-            request(request);
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+                if ("Exported to v2".equals(message)) {
+                    throw new MissingRepositoryException(
+                        MissingRepositoryException.buildExportedToV2Message(newRemote)
+                    );
+                } else if ("Overleaf v1 is Deprecated".equals(message)) {
+                    String newUrl;
+                    if (json.has("newUrl")) {
+                        newUrl = json.get("newUrl").getAsString();
+                    } else {
+                        newUrl = null;
+                    }
+                    throw new MissingRepositoryException(
+                            MissingRepositoryException.buildDeprecatedMessage(newUrl)
+                    );
+                }
+            } catch (IllegalStateException
+                    | ClassCastException
+                    | NullPointerException
+                    | JsonParseException _) {
+                // disregard any errors that arose while handling the JSON
+            }
+
+            throw new MissingRepositoryException();
+        } else if (sc >= 400 && sc < 500) {
+            throw new MissingRepositoryException(MissingRepositoryException.GENERIC_REASON);
         }
+        throw new FailedConnectionException(new IOException(
+                sc + " " + response.getStatusText() + " -> " + url
+        ));
     }
 
-    private void request(HttpRequest request) throws IOException {
-        onBeforeRequest(request);
-        future = request.executeAsync();
+    protected abstract HTTPMethod httpMethod();
+
+    protected void onBeforeRequest(RequestBuilder request) {
+
+    }
+
+    /**
+     * Parses a successful response as it arrives. By default, this reads the
+     * whole body into a tree and passes it to
+     * {@link #parseResponse(JsonElement)}; requests with large responses
+     * can override it to decode the body without holding it all at once.
+     * @param reader the response body
+     * @return the result
+     * @throws IOException if the body could not be read
+     * @throws FailedConnectionException if the body was not a valid result
+     */
+    protected T parseResponse(
+            JsonReader reader
+    ) throws IOException, FailedConnectionException {
+        return parseResponse(
+                Instance.gson.<JsonElement>fromJson(reader, JsonElement.class)
+        );
     }
 
-    private void setTimeouts(HttpRequest request) {
-        // timeouts are 20s by default
-        int threeMinutesInMs = 1000 * 60 * 3;
-        request.setReadTimeout(threeMinutesInMs);
+    protected abstract
+    T parseResponse(JsonElement json) throws FailedConnectionException;
+
+    /**
+     * The body of a POST request, which is written as it is sent.
+     * @return the body
+     */
+    protected StreamingBodyGenerator.Source getPostBody() {
+        return null;
     }
 
 }
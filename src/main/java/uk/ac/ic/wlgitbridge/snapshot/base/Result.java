@@ -19,6 +19,11 @@ public abstract class Result implements JSONSource {
     protected Result() {
     }
 
+    /* For results decoded without a tree */
+    protected Result(Request request) {
+        this.request = request;
+    }
+
     public Request getRequest() {
         return request;
     }
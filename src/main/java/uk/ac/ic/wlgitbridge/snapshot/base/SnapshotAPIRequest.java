@@ -1,8 +1,8 @@
 package uk.ac.ic.wlgitbridge.snapshot.base;
 
 import com.google.api.client.auth.oauth2.Credential;
-import com.google.api.client.http.BasicAuthentication;
-import com.google.api.client.http.HttpRequest;
+import org.asynchttpclient.RequestBuilder;
+import uk.ac.ic.wlgitbridge.util.Log;
 
 import java.io.IOException;
 
@@ -11,6 +11,9 @@ import java.io.IOException;
  */
 public abstract class SnapshotAPIRequest<T extends Result> extends Request<T> {
 
+    /* The same margin as Credential.intercept */
+    private static final long REFRESH_WITHIN_SECONDS = 60;
+
     private static String BASE_URL;
 
     private final Credential oauth2;
@@ -24,14 +27,27 @@ public abstract class SnapshotAPIRequest<T extends Result> extends Request<T> {
         this.oauth2 = oauth2;
     }
 
+    /* Refreshes the token first if it has expired, as Credential.intercept
+       does for google-http-client requests */
     @Override
     protected void onBeforeRequest(
-            HttpRequest request
+            RequestBuilder request
     ) {
-        if (oauth2 != null) {
-            request.setInterceptor(request1 -> {
-                oauth2.intercept(request1);
-            });
+        if (oauth2 == null) {
+            return;
+        }
+        Long expiresIn = oauth2.getExpiresInSeconds();
+        if (oauth2.getAccessToken() == null
+                || (expiresIn != null && expiresIn <= REFRESH_WITHIN_SECONDS)) {
+            try {
+                oauth2.refreshToken();
+            } catch (IOException e) {
+                Log.warn("Failed to refresh access token", e);
+            }
+        }
+        String accessToken = oauth2.getAccessToken();
+        if (accessToken != null) {
+            request.setHeader("Authorization", "Bearer " + accessToken);
         }
     }
 
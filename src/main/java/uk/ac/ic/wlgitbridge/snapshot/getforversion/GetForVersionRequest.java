@@ -2,11 +2,14 @@ package uk.ac.ic.wlgitbridge.snapshot.getforversion;
 
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
 import uk.ac.ic.wlgitbridge.snapshot.base.HTTPMethod;
 import uk.ac.ic.wlgitbridge.snapshot.base.SnapshotAPIRequest;
 import uk.ac.ic.wlgitbridge.snapshot.exception.FailedConnectionException;
 import uk.ac.ic.wlgitbridge.util.Log;
 
+import java.io.IOException;
+
 /**
  * Created by Winston on 06/11/14.
  */
@@ -37,6 +40,14 @@ public class GetForVersionRequest
         return HTTPMethod.GET;
     }
 
+    /* Snapshots can be large, so decode the files straight from the body */
+    @Override
+    protected GetForVersionResult parseResponse(
+            JsonReader reader
+    ) throws IOException {
+        return new GetForVersionResult(this, new SnapshotData(reader));
+    }
+
     @Override
     protected GetForVersionResult parseResponse(
             JsonElement json
@@ -16,6 +16,12 @@ public class GetForVersionResult extends Result {
         super(request, json);
     }
 
+    public GetForVersionResult(Request request, SnapshotData snapshotData) {
+        super(request);
+        this.snapshotData = snapshotData;
+        Log.info("GetForVersionResult({})", snapshotData);
+    }
+
     public GetForVersionResult(SnapshotData snapshotData) {
         this.snapshotData = snapshotData;
     }
@@ -3,8 +3,11 @@ package uk.ac.ic.wlgitbridge.snapshot.getforversion;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
 import uk.ac.ic.wlgitbridge.snapshot.base.JSONSource;
 
+import java.io.IOException;
+
 /**
  * Created by Winston on 06/11/14.
  */
@@ -17,6 +20,16 @@ public class SnapshotAttachment implements JSONSource {
         fromJSON(json);
     }
 
+    public SnapshotAttachment(JsonReader reader) throws IOException {
+        reader.beginArray();
+        url = reader.nextString();
+        path = reader.nextString();
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+    }
+
     @Override
     public String toString() {
         return "SnapshotAttachment(url: " + url + ", path: " + path + ")";
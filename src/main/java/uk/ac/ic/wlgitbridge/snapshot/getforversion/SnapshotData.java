@@ -3,8 +3,10 @@ package uk.ac.ic.wlgitbridge.snapshot.getforversion;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 import uk.ac.ic.wlgitbridge.snapshot.base.JSONSource;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,6 +27,36 @@ public class SnapshotData implements JSONSource {
         fromJSON(json);
     }
 
+    /**
+     * Decodes snapshot data from a stream, one file at a time.
+     * @param reader positioned at the start of the object
+     * @throws IOException if the stream could not be read or decoded
+     */
+    public SnapshotData(JsonReader reader) throws IOException {
+        srcs = new ArrayList<>();
+        atts = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(JSON_KEY_SRCS)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    srcs.add(new SnapshotFile(reader));
+                }
+                reader.endArray();
+            } else if (name.equals(JSON_KEY_ATTS)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    atts.add(new SnapshotAttachment(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
     public SnapshotData(
             List<SnapshotFile> srcs,
             List<SnapshotAttachment> atts
@@ -3,9 +3,12 @@ package uk.ac.ic.wlgitbridge.snapshot.getforversion;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
 import uk.ac.ic.wlgitbridge.snapshot.base.JSONSource;
 
+import java.io.IOException;
+
 /**
  * Created by Winston on 06/11/14.
  */
@@ -18,6 +21,16 @@ public class SnapshotFile extends RawFile implements JSONSource {
         fromJSON(json);
     }
 
+    public SnapshotFile(JsonReader reader) throws IOException {
+        reader.beginArray();
+        contents = reader.nextString().getBytes();
+        path = reader.nextString();
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+    }
+
     @Override
     public String toString() {
         return "SnapshotFile(path: "
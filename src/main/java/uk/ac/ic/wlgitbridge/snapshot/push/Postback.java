@@ -0,0 +1,62 @@
+package uk.ac.ic.wlgitbridge.snapshot.push;
+
+import com.google.gson.JsonObject;
+import uk.ac.ic.wlgitbridge.snapshot.push.exception.SnapshotPostException;
+import uk.ac.ic.wlgitbridge.snapshot.push.exception.SnapshotPostExceptionBuilder;
+import uk.ac.ic.wlgitbridge.snapshot.push.exception.UnexpectedPostbackException;
+import uk.ac.ic.wlgitbridge.util.Util;
+
+/**
+ * The outcome of a push, as the API reports it, either in a postback or in
+ * the push's response. It is either the push's new version id, or the
+ * error that the push failed with.
+ */
+public class Postback {
+
+    private static final String CODE_SUCCESS = "upToDate";
+
+    private final int versionID;
+    private final SnapshotPostException exception;
+
+    /**
+     * @param json the postback
+     * @throws UnexpectedPostbackException if the postback has an unknown
+     * code
+     */
+    public Postback(JsonObject json) throws UnexpectedPostbackException {
+        String code = Util.getCodeFromResponse(json);
+        if (code.equals(CODE_SUCCESS)) {
+            versionID = json.get("latestVerId").getAsInt();
+            exception = null;
+        } else {
+            versionID = 0;
+            exception = new SnapshotPostExceptionBuilder().build(code, json);
+        }
+    }
+
+    /**
+     * @return the version id of the push, or 0 if it failed
+     */
+    public int getVersionID() {
+        return versionID;
+    }
+
+    /**
+     * @return the error the push failed with, or null if it succeeded
+     */
+    public SnapshotPostException getException() {
+        return exception;
+    }
+
+    /**
+     * @return the version id of the push
+     * @throws SnapshotPostException the error the push failed with
+     */
+    public int getVersionIdOrThrow() throws SnapshotPostException {
+        if (exception != null) {
+            throw exception;
+        }
+        return versionID;
+    }
+
+}
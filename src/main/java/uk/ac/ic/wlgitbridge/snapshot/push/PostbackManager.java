@@ -43,6 +43,15 @@ public class PostbackManager {
         }
     }
 
+    /**
+     * Forgets the postback for a push whose outcome came with the push's
+     * response, so that none is expected.
+     * @param projectName the project
+     */
+    public void discardPostbackForProject(String projectName) {
+        postbackContentsTable.remove(projectName);
+    }
+
     public void postVersionIDForProject(
             String projectName,
             int versionID,
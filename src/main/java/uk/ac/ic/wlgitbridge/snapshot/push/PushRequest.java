@@ -3,6 +3,7 @@ package uk.ac.ic.wlgitbridge.snapshot.push;
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.gson.JsonElement;
 import uk.ac.ic.wlgitbridge.data.CandidateSnapshot;
+import uk.ac.ic.wlgitbridge.io.http.ning.StreamingBodyGenerator;
 import uk.ac.ic.wlgitbridge.snapshot.base.HTTPMethod;
 import uk.ac.ic.wlgitbridge.snapshot.base.SnapshotAPIRequest;
 import uk.ac.ic.wlgitbridge.snapshot.exception.FailedConnectionException;
@@ -40,8 +41,11 @@ public class PushRequest extends SnapshotAPIRequest<PushResult> {
     }
 
     @Override
-    protected String getPostBody() {
-        return candidateSnapshot.getJsonRepresentation(postbackKey).toString();
+    protected StreamingBodyGenerator.Source getPostBody() {
+        return out -> candidateSnapshot.writeJsonRepresentation(
+                out,
+                postbackKey
+        );
     }
 
     @Override
@@ -1,19 +1,29 @@
 package uk.ac.ic.wlgitbridge.snapshot.push;
 
+import com.google.common.base.Preconditions;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import uk.ac.ic.wlgitbridge.snapshot.base.Result;
 import uk.ac.ic.wlgitbridge.snapshot.base.Request;
 import uk.ac.ic.wlgitbridge.snapshot.exception.FailedConnectionException;
+import uk.ac.ic.wlgitbridge.snapshot.push.exception.SnapshotPostException;
+import uk.ac.ic.wlgitbridge.snapshot.push.exception.UnexpectedPostbackException;
 import uk.ac.ic.wlgitbridge.util.Log;
 import uk.ac.ic.wlgitbridge.util.Util;
 
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
 /**
  * Created by Winston on 16/11/14.
  */
 public class PushResult extends Result {
 
     private boolean success;
+    private Set<String> neededHashes;
+    /* The postback, if it came in the response instead */
+    private Postback postback;
 
     public PushResult(
             Request request,
@@ -31,6 +41,34 @@ public class PushResult extends Result {
         return success;
     }
 
+    /**
+     * Whether the API finished the push before it responded, as it can if
+     * the push asked it to wait. If so, there will be no postback, and the
+     * outcome is in this result.
+     */
+    public boolean isComplete() {
+        return postback != null;
+    }
+
+    /**
+     * @return the version id of the push, if it is complete
+     * @throws SnapshotPostException the error that the postback would have
+     * had
+     */
+    public int getVersionIdOrThrow() throws SnapshotPostException {
+        Preconditions.checkState(isComplete());
+        return postback.getVersionIdOrThrow();
+    }
+
+    /**
+     * The blob hashes of the changed files that the API still needs, if it
+     * said. It doesn't fetch the others, since it already has them.
+     * @return the hashes, or empty if the API will fetch every changed file
+     */
+    public Optional<Set<String>> getNeededHashes() {
+        return Optional.ofNullable(neededHashes);
+    }
+
     @Override
     public void fromJSON(JsonElement json) {
         Log.info("PushResult({})", json);
@@ -39,6 +77,24 @@ public class PushResult extends Result {
 
         if (code.equals("accepted")) {
             success = true;
+            if (responseObject.has("neededHashes")) {
+                neededHashes = new HashSet<>();
+                for (
+                        JsonElement hash :
+                        responseObject.getAsJsonArray("neededHashes")
+                ) {
+                    neededHashes.add(hash.getAsString());
+                }
+            }
+            if (responseObject.has("postback")) {
+                try {
+                    postback = new Postback(
+                            responseObject.getAsJsonObject("postback")
+                    );
+                } catch (UnexpectedPostbackException e) {
+                    throw new RuntimeException(e);
+                }
+            }
         } else if (code.equals("outOfDate")) {
             success = false;
         } else {
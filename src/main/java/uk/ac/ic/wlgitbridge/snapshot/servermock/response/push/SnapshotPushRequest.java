@@ -0,0 +1,111 @@
+package uk.ac.ic.wlgitbridge.snapshot.servermock.response.push;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The body of a push, as received by the mock API. A changed file is
+ * either sent in the push, with its content, or has a url to fetch it
+ * from, and has the hash git gives its contents.
+ */
+public class SnapshotPushRequest {
+
+    private final int latestVerId;
+    private final String postbackUrl;
+    private final long waitMillis;
+    private final List<String> unchanged;
+    private final Map<String, byte[]> inline;
+    private final Map<String, String> urls;
+    private final Map<String, String> hashes;
+
+    public SnapshotPushRequest(JsonObject json) {
+        latestVerId = json.get("latestVerId").getAsInt();
+        postbackUrl = json.get("postbackUrl").getAsString();
+        waitMillis = json.has("waitMillis")
+                ? json.get("waitMillis").getAsLong()
+                : 0;
+        unchanged = new ArrayList<>();
+        inline = new HashMap<>();
+        urls = new HashMap<>();
+        hashes = new HashMap<>();
+        for (JsonElement element : json.get("files").getAsJsonArray()) {
+            JsonObject file = element.getAsJsonObject();
+            String name = file.get("name").getAsString();
+            if (file.has("hash")) {
+                hashes.put(name, file.get("hash").getAsString());
+            }
+            if (file.has("content")) {
+                inline.put(name, decode(file));
+            } else if (file.has("url")) {
+                urls.put(name, file.get("url").getAsString());
+            } else {
+                unchanged.add(name);
+            }
+        }
+    }
+
+    private static byte[] decode(JsonObject file) {
+        String content = file.get("content").getAsString();
+        String encoding = file.get("encoding").getAsString();
+        switch (encoding) {
+            case "utf-8":
+                return content.getBytes(StandardCharsets.UTF_8);
+            case "base64":
+                return Base64.getDecoder().decode(content);
+            default:
+                throw new IllegalArgumentException(
+                        "unknown encoding: " + encoding
+                );
+        }
+    }
+
+    public int getLatestVerId() {
+        return latestVerId;
+    }
+
+    public String getPostbackUrl() {
+        return postbackUrl;
+    }
+
+    /**
+     * @return how long the bridge will wait for the push to finish before
+     * the response, or 0 if it wants a postback
+     */
+    public long getWaitMillis() {
+        return waitMillis;
+    }
+
+    public List<String> getUnchanged() {
+        return Collections.unmodifiableList(unchanged);
+    }
+
+    /**
+     * @return the contents of the files sent in the push, by name
+     */
+    public Map<String, byte[]> getInline() {
+        return Collections.unmodifiableMap(inline);
+    }
+
+    /**
+     * @return the urls of the changed files not sent in the push, by name
+     */
+    public Map<String, String> getUrls() {
+        return Collections.unmodifiableMap(urls);
+    }
+
+    /**
+     * @return the blob hashes of the changed files, by name
+     */
+    public Map<String, String> getHashes() {
+        return Collections.unmodifiableMap(hashes);
+    }
+
+}
@@ -1,9 +1,13 @@
 package uk.ac.ic.wlgitbridge.snapshot.servermock.response.push;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import uk.ac.ic.wlgitbridge.snapshot.servermock.response.SnapshotResponse;
 import uk.ac.ic.wlgitbridge.snapshot.servermock.response.push.postback.SnapshotPostbackRequest;
 import uk.ac.ic.wlgitbridge.snapshot.servermock.response.push.data.SnapshotPushResult;
 
+import java.util.Collection;
+
 /**
  * Created by Winston on 09/01/15.
  */
@@ -11,6 +15,8 @@ public class SnapshotPushResponse extends SnapshotResponse {
 
     private final SnapshotPushResult stateForPush;
     private final SnapshotPostbackRequest stateForPostback;
+    private Collection<String> neededHashes;
+    private boolean synchronous = false;
 
     public SnapshotPushResponse(
             SnapshotPushResult stateForPush,
@@ -20,14 +26,42 @@ public class SnapshotPushResponse extends SnapshotResponse {
         this.stateForPostback = stateForPostback;
     }
 
+    /**
+     * Tells the bridge which of the pushed files to serve, as the API does
+     * when it already has some of them.
+     * @param neededHashes the blob hashes of the files to fetch
+     */
+    public void setNeededHashes(Collection<String> neededHashes) {
+        this.neededHashes = neededHashes;
+    }
+
+    /**
+     * Sends the postback in the response instead, as the API does when it
+     * finishes the push in time.
+     */
+    public void setSynchronous(boolean synchronous) {
+        this.synchronous = synchronous;
+    }
+
     @Override
     public String respond() {
-        return stateForPush.toJson().toString();
+        JsonObject json = stateForPush.toJson().getAsJsonObject();
+        if (neededHashes != null && stateForPush.hasPostback()) {
+            JsonArray hashes = new JsonArray();
+            for (String hash : neededHashes) {
+                hashes.add(hash);
+            }
+            json.add("neededHashes", hashes);
+        }
+        if (synchronous && stateForPush.hasPostback()) {
+            json.add("postback", stateForPostback.toJson());
+        }
+        return json.toString();
     }
 
     @Override
     public String postback() {
-        if (stateForPush.hasPostback()) {
+        if (stateForPush.hasPostback() && !synchronous) {
             return stateForPostback.toJson().toString();
         } else {
             return null;
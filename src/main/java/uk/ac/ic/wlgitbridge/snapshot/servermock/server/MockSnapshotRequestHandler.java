@@ -1,16 +1,23 @@
 package uk.ac.ic.wlgitbridge.snapshot.servermock.server;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import uk.ac.ic.wlgitbridge.snapshot.servermock.exception.
         InvalidAPICallException;
 import uk.ac.ic.wlgitbridge.snapshot.servermock.response.*;
+import uk.ac.ic.wlgitbridge.snapshot.servermock.response.push.SnapshotPushRequest;
+import uk.ac.ic.wlgitbridge.snapshot.servermock.response.push.SnapshotPushResponse;
 import uk.ac.ic.wlgitbridge.util.Log;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by Winston on 09/01/15.
@@ -19,6 +26,17 @@ public class MockSnapshotRequestHandler extends AbstractHandler {
 
     private final SnapshotResponseBuilder responseBuilder;
 
+    /* Injected faults, for testing how the bridge copes with a slow or
+       failing API */
+    private volatile long latencyMillis = 0;
+    private volatile int failureStatus = 0;
+
+    private volatile SnapshotPushRequest lastPush;
+
+    /* The blob hashes of every file pushed so far, which the API would
+       already have */
+    private final Set<String> knownHashes = ConcurrentHashMap.newKeySet();
+
     public MockSnapshotRequestHandler(
             SnapshotResponseBuilder responseBuilder
     ) {
@@ -38,14 +56,40 @@ public class MockSnapshotRequestHandler extends AbstractHandler {
                     = responseBuilder.buildWithTarget(
                             target, baseRequest.getMethod()
                     );
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            if (failureStatus != 0) {
+                response.setStatus(failureStatus);
+                baseRequest.setHandled(true);
+                return;
+            }
+            String postbackUrl = null;
+            if (snapshotResponse instanceof SnapshotPushResponse) {
+                lastPush = new SnapshotPushRequest(new Gson().fromJson(
+                        baseRequest.getReader(),
+                        JsonObject.class
+                ));
+                postbackUrl = lastPush.getPostbackUrl();
+                SnapshotPushResponse pushResponse =
+                        (SnapshotPushResponse) snapshotResponse;
+                pushResponse.setNeededHashes(neededHashes(lastPush));
+                /* Pushes finish in no time, unless latency is injected */
+                pushResponse.setSynchronous(
+                        lastPush.getWaitMillis() > latencyMillis
+                );
+            }
             response.getWriter().println(snapshotResponse.respond());
             new PostbackThread(
-                    baseRequest.getReader(),
+                    postbackUrl,
                     snapshotResponse.postback()
             ).startIfNotNull();
             handled = true;
         } catch (InvalidAPICallException e) {
             handled = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            handled = true;
         } catch (RuntimeException e) {
             Log.warn("Runtime exception when handling request", e);
             handled = true;
@@ -53,4 +97,28 @@ public class MockSnapshotRequestHandler extends AbstractHandler {
         baseRequest.setHandled(handled);
     }
 
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void setFailureStatus(int failureStatus) {
+        this.failureStatus = failureStatus;
+    }
+
+    private Set<String> neededHashes(SnapshotPushRequest push) {
+        Set<String> needed = new HashSet<>();
+        for (String name : push.getUrls().keySet()) {
+            String hash = push.getHashes().get(name);
+            if (hash != null && !knownHashes.contains(hash)) {
+                needed.add(hash);
+            }
+        }
+        knownHashes.addAll(push.getHashes().values());
+        return needed;
+    }
+
+    public SnapshotPushRequest getLastPush() {
+        return lastPush;
+    }
+
 }
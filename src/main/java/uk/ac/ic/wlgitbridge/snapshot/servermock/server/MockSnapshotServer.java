@@ -1,10 +1,14 @@
 package uk.ac.ic.wlgitbridge.snapshot.servermock.server;
 
+import org.eclipse.jetty.io.ConnectionStatistics;
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.NetworkConnector;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.HandlerCollection;
 import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
 import uk.ac.ic.wlgitbridge.snapshot.servermock.response.SnapshotResponseBuilder;
+import uk.ac.ic.wlgitbridge.snapshot.servermock.response.push.SnapshotPushRequest;
 import uk.ac.ic.wlgitbridge.snapshot.servermock.state.SnapshotAPIState;
 import uk.ac.ic.wlgitbridge.util.Log;
 
@@ -17,21 +21,36 @@ public class MockSnapshotServer {
 
     private final Server server;
     private final SnapshotResponseBuilder responseBuilder;
+    private final MockSnapshotRequestHandler requestHandler;
+    private final ConnectionStatistics stats;
     private int port;
 
     public MockSnapshotServer(int port, File resourceBase) {
         server = new Server(port);
         responseBuilder = new SnapshotResponseBuilder();
-        server.setHandler(getHandlerForResourceBase(resourceBase));
+        requestHandler = new MockSnapshotRequestHandler(responseBuilder);
+        server.setHandler(gzip(getHandlerForResourceBase(resourceBase)));
+        stats = new ConnectionStatistics();
+        server.getConnectors()[0].addBean(stats);
     }
 
     private HandlerCollection getHandlerForResourceBase(File resourceBase) {
         HandlerCollection handlers = new HandlerCollection();
-        handlers.addHandler(new MockSnapshotRequestHandler(responseBuilder));
+        handlers.addHandler(requestHandler);
         handlers.addHandler(resourceHandlerWithBase(resourceBase));
         return handlers;
     }
 
+    /* Like the real API, compresses responses for clients that ask, and
+       accepts compressed request bodies */
+    private GzipHandler gzip(Handler handler) {
+        GzipHandler gzip = new GzipHandler();
+        gzip.setIncludedMethods("GET", "POST");
+        gzip.setInflateBufferSize(8192);
+        gzip.setHandler(handler);
+        return gzip;
+    }
+
     private ResourceHandler resourceHandlerWithBase(File resourceBase) {
         ResourceHandler resourceHandler = new ResourceHandler();
         resourceHandler.setResourceBase(resourceBase.getAbsolutePath());
@@ -59,4 +78,48 @@ public class MockSnapshotServer {
         responseBuilder.setState(state);
     }
 
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the body of the last push received, or null if none has been
+     */
+    public SnapshotPushRequest getLastPush() {
+        return requestHandler.getLastPush();
+    }
+
+    /**
+     * The bytes received over the wire since the server started, for
+     * measuring how much compression saves. Bytes are counted as
+     * connections close, so read this after {@link #stop()}.
+     */
+    public long getBytesReceived() {
+        return stats.getReceivedBytes();
+    }
+
+    /**
+     * The bytes sent over the wire since the server started.
+     */
+    public long getBytesSent() {
+        return stats.getSentBytes();
+    }
+
+    /**
+     * Delays every API response, as if the API were overloaded.
+     * @param latencyMillis the delay, or 0 for none
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        requestHandler.setLatencyMillis(latencyMillis);
+    }
+
+    /**
+     * Answers every API request with the given status, as if the API were
+     * failing.
+     * @param failureStatus the status, or 0 to answer normally
+     */
+    public void setFailureStatus(int failureStatus) {
+        requestHandler.setFailureStatus(failureStatus);
+    }
+
 }
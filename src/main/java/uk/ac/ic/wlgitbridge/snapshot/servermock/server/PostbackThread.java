@@ -1,12 +1,8 @@
 package uk.ac.ic.wlgitbridge.snapshot.servermock.server;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import static org.asynchttpclient.Dsl.*;
 import uk.ac.ic.wlgitbridge.util.Log;
 
-import java.io.IOException;
-import java.io.Reader;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -17,12 +13,9 @@ public class PostbackThread extends Thread {
     private String url;
     private String postback;
 
-    public PostbackThread(Reader reader, String postback) {
+    public PostbackThread(String url, String postback) {
         if (postback != null) {
-            url = new Gson().fromJson(
-                    reader,
-                    JsonObject.class
-            ).get("postbackUrl").getAsString();
+            this.url = url;
             this.postback = postback;
         }
     }
@@ -12,6 +12,7 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.HttpEntity;
 import org.apache.http.util.EntityUtils;
@@ -928,7 +929,7 @@ public class WLGitBridgeIntegrationTest {
         assertEquals(200, statusResponse.getStatusLine().getStatusCode());
         // Health Check
         HttpGet healthCheckRequest = new HttpGet(urlBase+"/health_check");
-        HttpResponse healthCheckResponse = client.execute(healthCheckRequest);
+        HttpResponse healthCheckResponse = executeWhenReady(client, healthCheckRequest);
         assertEquals(200, healthCheckResponse.getStatusLine().getStatusCode());
     }
 
@@ -951,7 +952,7 @@ public class WLGitBridgeIntegrationTest {
         assertEquals(200, statusResponse.getStatusLine().getStatusCode());
         // Health Check
         HttpGet healthCheckRequest = new HttpGet(urlBase+"/health_check/");
-        HttpResponse healthCheckResponse = client.execute(healthCheckRequest);
+        HttpResponse healthCheckResponse = executeWhenReady(client, healthCheckRequest);
         assertEquals(200, healthCheckResponse.getStatusLine().getStatusCode());
     }
 
@@ -974,7 +975,7 @@ public class WLGitBridgeIntegrationTest {
         assertEquals(200, statusResponse.getStatusLine().getStatusCode());
         // Health Check
         HttpHead healthCheckRequest = new HttpHead(urlBase+"/health_check");
-        HttpResponse healthCheckResponse = client.execute(healthCheckRequest);
+        HttpResponse healthCheckResponse = executeWhenReady(client, healthCheckRequest);
         assertEquals(200, healthCheckResponse.getStatusLine().getStatusCode());
     }
 
@@ -1045,6 +1046,79 @@ public class WLGitBridgeIntegrationTest {
       assertTrue(f.exists());
     }
 
+    private static final String PUSH_WAIT_CONFIG =
+            "{\"pushWaitMillis\": 5000}";
+
+    /* The mock sends no postback when it answers synchronously, so a push
+       that waited for one would time out */
+    @Test(timeout = 60000)
+    public void canPushWithThePostbackInTheResponse()
+            throws IOException, InterruptedException {
+        int gitBridgePort = 33893;
+        int mockServerPort = 3893;
+        server = new MockSnapshotServer(mockServerPort, getResource("/canPushFilesSuccessfully").toFile());
+        server.start();
+        server.setState(states.get("canPushFilesSuccessfully").get("state"));
+        wlgb = new GitBridgeApp(new String[] {
+            makeConfigFile(gitBridgePort, mockServerPort, null, PUSH_WAIT_CONFIG)
+        });
+        wlgb.run();
+        File testprojDir = gitClone("testproj", gitBridgePort, dir);
+        assertEquals(0, runtime.exec("touch push.tex", null, testprojDir).waitFor());
+        gitAdd(testprojDir);
+        gitCommit(testprojDir, "push");
+        gitPush(testprojDir);
+        assertEquals(5000, server.getLastPush().getWaitMillis());
+    }
+
+    private static final String EXPECTED_OUT_PUSH_OUT_OF_DATE_IN_RESPONSE =
+      "error: failed to push some refs to 'http://127.0.0.1:33894/testproj.git'\n" +
+      "hint: Updates were rejected because the tip of your current branch is behind\n" +
+      "hint: its remote counterpart. Integrate the remote changes (e.g.\n" +
+      "hint: 'git pull ...') before pushing again.\n" +
+      "hint: See the 'Note about fast-forwards' in 'git push --help' for details.\n";
+
+    @Test(timeout = 60000)
+    public void pushFailsWithTheOutOfDatePostbackInTheResponse()
+            throws IOException, InterruptedException {
+        int gitBridgePort = 33894;
+        int mockServerPort = 3894;
+        server = new MockSnapshotServer(mockServerPort, getResource("/pushFailsOnSecondStageOutOfDate").toFile());
+        server.start();
+        server.setState(states.get("pushFailsOnSecondStageOutOfDate").get("state"));
+        wlgb = new GitBridgeApp(new String[] {
+            makeConfigFile(gitBridgePort, mockServerPort, null, PUSH_WAIT_CONFIG)
+        });
+        wlgb.run();
+        File testprojDir = gitClone("testproj", gitBridgePort, dir);
+        runtime.exec("touch push.tex", null, testprojDir).waitFor();
+        gitAdd(testprojDir);
+        gitCommit(testprojDir, "push");
+        Process push = gitPush(testprojDir, 1);
+        assertEquals(EXPECTED_OUT_PUSH_OUT_OF_DATE_IN_RESPONSE, Util.fromStream(push.getErrorStream(), 2));
+        assertEquals(5000, server.getLastPush().getWaitMillis());
+    }
+
+    /* The health check fails until the startup reconciliation is done */
+    private static HttpResponse executeWhenReady(
+            HttpClient client,
+            HttpUriRequest request
+    ) throws IOException {
+        for (int attempt = 1; ; ++attempt) {
+            HttpResponse response = client.execute(request);
+            if (response.getStatusLine().getStatusCode() != 503
+                    || attempt >= 100) {
+                return response;
+            }
+            EntityUtils.consume(response.getEntity());
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
     private String makeConfigFile(
             int port,
             int apiPort
@@ -1056,6 +1130,15 @@ public class WLGitBridgeIntegrationTest {
             int port,
             int apiPort,
             SwapJobConfig swapCfg
+    ) throws IOException {
+        return makeConfigFile(port, apiPort, swapCfg, null);
+    }
+
+    private String makeConfigFile(
+            int port,
+            int apiPort,
+            SwapJobConfig swapCfg,
+            String snapshotApi
     ) throws IOException {
         File wlgb = folder.newFolder();
         File config = folder.newFile();
@@ -1103,6 +1186,10 @@ public class WLGitBridgeIntegrationTest {
                     "\n" +
                     "    }\n";
         }
+        if (snapshotApi != null) {
+            cfgStr += ",\n" +
+                    "    \"snapshotApi\": " + snapshotApi + "\n";
+        }
         cfgStr += "}\n";
         writer.print(cfgStr);
         writer.close();
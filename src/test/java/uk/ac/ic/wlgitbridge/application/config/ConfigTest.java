@@ -90,12 +90,15 @@ public class ConfigTest {
                 "  \"oauth2\": {\n" +
                 "    \"oauth2ClientID\": \"<oauth2ClientID>\",\n" +
                 "    \"oauth2ClientSecret\": \"<oauth2ClientSecret>\",\n" +
-                "    \"oauth2Server\": \"https://www.overleaf.com\"\n" +
+                "    \"oauth2Server\": \"https://www.overleaf.com\",\n" +
+                "    \"tokenCacheSeconds\": null\n" +
                 "  },\n" +
                 "  \"repoStore\": null,\n" +
                 "  \"swapStore\": null,\n" +
                 "  \"swapJob\": null,\n" +
-                "  \"sqliteHeapLimitBytes\": 0\n" +
+                "  \"sqliteHeapLimitBytes\": 0,\n" +
+                "  \"database\": null,\n" +
+                "  \"snapshotApi\": null\n" +
                 "}";
         assertEquals(
                 "sanitised config did not hide sensitive fields",
@@ -1,7 +1,10 @@
 package uk.ac.ic.wlgitbridge.bridge;
 
 import org.junit.Before;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import uk.ac.ic.wlgitbridge.application.config.Config;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
@@ -9,17 +12,25 @@ import uk.ac.ic.wlgitbridge.bridge.gc.GcJob;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
+import uk.ac.ic.wlgitbridge.bridge.repo.SwappedProjectRepository;
 import uk.ac.ic.wlgitbridge.bridge.resource.ResourceCache;
 import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApiFacade;
 import uk.ac.ic.wlgitbridge.bridge.swap.job.SwapJob;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStore;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
+import uk.ac.ic.wlgitbridge.io.http.ning.PooledHttpClient;
 import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocResult;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
@@ -30,6 +41,9 @@ import static org.mockito.Mockito.*;
  */
 public class BridgeTest {
 
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
     private Bridge bridge;
 
     private ProjectLock lock;
@@ -40,6 +54,7 @@ public class BridgeTest {
     private ResourceCache resourceCache;
     private SwapJob swapJob;
     private GcJob gcJob;
+    private PooledHttpClient httpClient;
 
     @Before
     public void setup() {
@@ -51,6 +66,7 @@ public class BridgeTest {
         resourceCache = mock(ResourceCache.class);
         swapJob = mock(SwapJob.class);
         gcJob = mock(GcJob.class);
+        httpClient = mock(PooledHttpClient.class);
         bridge = new Bridge(
                 new Config(
                         0,
@@ -64,7 +80,9 @@ public class BridgeTest {
                         null,
                         null,
                         null,
-                        0),
+                        0,
+                        null,
+                        null),
                 lock,
                 repoStore,
                 dbStore,
@@ -72,18 +90,32 @@ public class BridgeTest {
                 swapJob,
                 gcJob,
                 snapshotAPI,
-                resourceCache
+                resourceCache,
+                httpClient
         );
     }
 
     @Test
-    public void shutdownStopsSwapAndGcJobs() {
+    public void failedReconciliationIsRetried() throws Exception {
+        when(repoStore.getRootDirectory()).thenReturn(tmpFolder.getRoot());
+        when(dbStore.getProjectStates())
+                .thenThrow(new RuntimeException("DB unavailable"))
+                .thenReturn(Collections.emptyMap());
+        bridge.startReconciliation().get(10, TimeUnit.SECONDS);
+        assertTrue(bridge.isReady());
+        verify(dbStore, times(2)).getProjectStates();
+    }
+
+    @Test
+    public void shutdownStopsSwapAndGcJobs() throws IOException {
         bridge.startBackgroundJobs();
         verify(swapJob).start();
         verify(gcJob).start();
         bridge.doShutdown();
         verify(swapJob).stop();
         verify(gcJob).stop();
+        verify(httpClient).close();
+        verify(dbStore).close();
     }
 
     @Test
@@ -98,6 +130,7 @@ public class BridgeTest {
         ).thenReturn(Optional.of(mock(GetDocResult.class)));
         when(
                 snapshotAPI.getSnapshots(
+                        any(),
                         any(),
                         any(),
                         anyInt()
@@ -107,4 +140,35 @@ public class BridgeTest {
         verify(dbStore).setLastAccessedTime(eq("asdf"), any());
     }
 
+    @Test
+    public void upToDateSwappedProjectIsAdvertisedWithoutRestoring(
+    ) throws IOException, GitUserException {
+        GetDocResult doc = mock(GetDocResult.class);
+        when(doc.getVersionID()).thenReturn(3);
+        when(
+                snapshotAPI.getDoc(Optional.empty(), "asdf")
+        ).thenReturn(Optional.of(doc));
+        when(dbStore.getProjectState("asdf")).thenReturn(ProjectState.SWAPPED);
+        when(dbStore.getLatestVersionForProject("asdf")).thenReturn(3);
+        Map<String, String> refs = new HashMap<>();
+        refs.put("HEAD", "ref: refs/heads/master");
+        refs.put(
+                "refs/heads/master",
+                "6c12c07aa2d6a9d1a3fe2b02d5ae0f5bd4b8e0b0"
+        );
+        when(dbStore.getSwappedRefs("asdf")).thenReturn(refs);
+        Repository repo = bridge.getRepoForRefAdvertisement(
+                Optional.empty(),
+                "asdf"
+        );
+        assertTrue(repo instanceof SwappedProjectRepository);
+        assertEquals(
+                "refs/heads/master",
+                ((SwappedProjectRepository) repo).getAdvertisedRefs()
+                        .get("HEAD").getTarget().getName()
+        );
+        verify(swapJob, never()).restore(any());
+        verify(dbStore, never()).setLastAccessedTime(any(), any());
+    }
+
 }
@@ -0,0 +1,43 @@
+package uk.ac.ic.wlgitbridge.bridge.db;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Behaviour that every {@link DBStore} must share, so that callers don't
+ * depend on which store is configured. Each store's test extends this.
+ */
+public abstract class DBStoreContractTest {
+
+    protected abstract DBStore store();
+
+    @Test
+    public void swappingASwappedProjectDoesNothing() {
+        store().setLatestVersionForProject("proj", 1);
+        store().swap("proj", "gzip");
+        store().swap("proj", "gzip");
+        assertEquals(ProjectState.SWAPPED, store().getProjectState("proj"));
+        assertEquals(0, store().getNumUnswappedProjects());
+    }
+
+    @Test
+    public void clearingTheAccessTimeOfASwappedProjectDoesNothing() {
+        store().setLatestVersionForProject("proj", 1);
+        store().setLastAccessedTime("proj", null);
+        store().setLastAccessedTime("proj", null);
+        assertEquals(ProjectState.SWAPPED, store().getProjectState("proj"));
+    }
+
+    @Test
+    public void swappingAMissingProjectDoesNothing() {
+        store().swap("missing", null);
+        store().setLastAccessedTime("missing", null);
+        assertEquals(
+                ProjectState.NOT_PRESENT,
+                store().getProjectState("missing")
+        );
+        assertEquals(0, store().getNumProjects());
+    }
+
+}
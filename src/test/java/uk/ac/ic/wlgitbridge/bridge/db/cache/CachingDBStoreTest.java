@@ -0,0 +1,135 @@
+package uk.ac.ic.wlgitbridge.bridge.db.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SqliteDBStore;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+public class CachingDBStoreTest {
+
+    private SqliteDBStore sqlite;
+    private CachingDBStore dbStore;
+
+    @Before
+    public void setup() throws IOException {
+        TemporaryFolder tmpFolder = new TemporaryFolder();
+        tmpFolder.create();
+        sqlite = new SqliteDBStore(tmpFolder.newFile("dbStore.db"));
+        dbStore = new CachingDBStore(sqlite);
+    }
+
+    @After
+    public void teardown() {
+        dbStore.close();
+    }
+
+    @Test
+    public void countsAreKeptInStepWithTheDB() {
+        assertEquals(0, dbStore.getNumProjects());
+        assertEquals(0, dbStore.getNumUnswappedProjects());
+        dbStore.setLatestVersionForProject("proj1", 1);
+        dbStore.setLatestVersionForProject("proj2", 1);
+        dbStore.setLatestVersionForProject("proj2", 2);
+        dbStore.swap("proj1", "gzip");
+        dbStore.swap("missing", "gzip");
+        assertEquals(sqlite.getNumProjects(), dbStore.getNumProjects());
+        assertEquals(2, dbStore.getNumProjects());
+        assertEquals(
+                sqlite.getNumUnswappedProjects(),
+                dbStore.getNumUnswappedProjects()
+        );
+        assertEquals(1, dbStore.getNumUnswappedProjects());
+        dbStore.restore("proj1");
+        assertEquals(2, dbStore.getNumUnswappedProjects());
+        assertEquals(2, sqlite.getNumUnswappedProjects());
+    }
+
+    @Test
+    public void writesUpdateTheCachedValues() {
+        assertEquals(
+                ProjectState.NOT_PRESENT,
+                dbStore.getProjectState("proj")
+        );
+        dbStore.setLatestVersionForProject("proj", 3);
+        assertEquals(ProjectState.PRESENT, dbStore.getProjectState("proj"));
+        assertEquals(3, dbStore.getLatestVersionForProject("proj"));
+        dbStore.swap("proj", "bzip2");
+        assertEquals(ProjectState.SWAPPED, dbStore.getProjectState("proj"));
+        assertEquals("bzip2", dbStore.getSwapCompression("proj"));
+        dbStore.restore("proj");
+        assertEquals(ProjectState.PRESENT, dbStore.getProjectState("proj"));
+        assertNull(dbStore.getSwapCompression("proj"));
+        assertEquals(
+                sqlite.getProjectState("proj"),
+                dbStore.getProjectState("proj")
+        );
+    }
+
+    @Test
+    public void batchedWritesUpdateTheCacheOnceWritten() {
+        assertEquals(0, dbStore.getNumProjects());
+        try (DBStore.Batch batch = dbStore.beginBatch()) {
+            dbStore.setLatestVersionForProject("proj", 1);
+            dbStore.setLatestVersionForProject("proj", 2);
+            assertEquals(
+                    ProjectState.NOT_PRESENT,
+                    dbStore.getProjectState("proj")
+            );
+        }
+        assertEquals(ProjectState.PRESENT, dbStore.getProjectState("proj"));
+        assertEquals(2, dbStore.getLatestVersionForProject("proj"));
+        assertEquals(1, dbStore.getNumProjects());
+        assertEquals(sqlite.getNumProjects(), dbStore.getNumProjects());
+    }
+
+    @Test
+    public void failedBatchLeavesTheCacheAsItWas() {
+        DBStore delegate = mock(DBStore.class);
+        when(delegate.getProjectState("proj"))
+                .thenReturn(ProjectState.NOT_PRESENT);
+        when(delegate.getNumProjects()).thenReturn(0);
+        when(delegate.beginBatch()).thenReturn(() -> {
+            throw new RuntimeException("rolled back");
+        });
+        CachingDBStore cached = new CachingDBStore(delegate);
+        assertEquals(0, cached.getNumProjects());
+        DBStore.Batch batch = cached.beginBatch();
+        cached.setLatestVersionForProject("proj", 1);
+        try {
+            batch.close();
+            fail("the batch fails when closed");
+        } catch (RuntimeException expected) {
+        }
+        assertEquals(
+                ProjectState.NOT_PRESENT,
+                cached.getProjectState("proj")
+        );
+        assertEquals(0, cached.getNumProjects());
+    }
+
+    @Test
+    public void repeatedReadsAreServedFromTheCache() {
+        DBStore delegate = mock(DBStore.class);
+        when(delegate.getProjectState("proj"))
+                .thenReturn(ProjectState.PRESENT);
+        when(delegate.getLatestVersionForProject("proj")).thenReturn(7);
+        CachingDBStore cached = new CachingDBStore(delegate);
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(ProjectState.PRESENT, cached.getProjectState("proj"));
+            assertEquals(7, cached.getLatestVersionForProject("proj"));
+        }
+        verify(delegate, times(1)).getProjectState("proj");
+        verify(delegate, times(1)).getLatestVersionForProject("proj");
+    }
+
+}
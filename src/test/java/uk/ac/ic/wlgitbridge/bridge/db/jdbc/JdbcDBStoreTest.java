@@ -0,0 +1,285 @@
+package uk.ac.ic.wlgitbridge.bridge.db.jdbc;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.bridge.db.ConcurrentUpdateException;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStoreContractTest;
+import uk.ac.ic.wlgitbridge.bridge.db.EvictionPolicy;
+import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class JdbcDBStoreTest extends DBStoreContractTest {
+
+    private JdbcDataSource dataSource;
+    private JdbcDBStore dbStore;
+
+    @Before
+    public void setup() {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL(
+                "jdbc:h2:mem:" + UUID.randomUUID()
+                        + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1"
+        );
+        dbStore = new JdbcDBStore(dataSource);
+    }
+
+    @Override
+    protected DBStore store() {
+        return dbStore;
+    }
+
+    @Test
+    public void migrationsCanBeRunAgain() {
+        dbStore.setLatestVersionForProject("proj", 2);
+        JdbcDBStore again = new JdbcDBStore(dataSource);
+        assertEquals(2, again.getLatestVersionForProject("proj"));
+    }
+
+    @Test
+    public void projectsAreSwappedAndRestored() {
+        assertEquals(
+                ProjectState.NOT_PRESENT,
+                dbStore.getProjectState("proj")
+        );
+        dbStore.setLatestVersionForProject("proj", 1);
+        dbStore.setLatestVersionForProject("proj", 2);
+        assertEquals(1, dbStore.getNumProjects());
+        assertEquals(2, dbStore.getLatestVersionForProject("proj"));
+        assertEquals(ProjectState.PRESENT, dbStore.getProjectState("proj"));
+        dbStore.swap("proj", "gzip");
+        assertEquals(ProjectState.SWAPPED, dbStore.getProjectState("proj"));
+        assertEquals("gzip", dbStore.getSwapCompression("proj"));
+        assertEquals(0, dbStore.getNumUnswappedProjects());
+        dbStore.restore("proj");
+        assertEquals(ProjectState.PRESENT, dbStore.getProjectState("proj"));
+        assertNull(dbStore.getSwapCompression("proj"));
+        assertEquals(1, dbStore.getNumUnswappedProjects());
+    }
+
+    @Test
+    public void swappingAProjectAnotherNodeSwappedDoesNothing() {
+        dbStore.setLatestVersionForProject("proj", 1);
+        DBStore otherNode = new JdbcDBStore(dataSource);
+        otherNode.swap("proj", "gzip");
+        dbStore.swap("proj", null);
+        assertEquals(ProjectState.SWAPPED, dbStore.getProjectState("proj"));
+        assertEquals("gzip", dbStore.getSwapCompression("proj"));
+    }
+
+    /* A store whose conditional updates first let interference run, as if
+       another node changed the row after this one read it */
+    private JdbcDBStore racingStore(
+            Runnable interference,
+            int times,
+            AtomicInteger attempts
+    ) {
+        AtomicInteger remaining = new AtomicInteger(times);
+        DataSource racing = (DataSource) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] { DataSource.class },
+                (proxy, method, args) -> {
+                    Object ret = invoke(dataSource, method, args);
+                    if (!method.getName().equals("getConnection")) {
+                        return ret;
+                    }
+                    Connection connection = (Connection) ret;
+                    return Proxy.newProxyInstance(
+                            getClass().getClassLoader(),
+                            new Class<?>[] { Connection.class },
+                            (p, m, a) -> {
+                                if (m.getName().equals("prepareStatement")
+                                        && isConditionalUpdate(a[0])) {
+                                    attempts.incrementAndGet();
+                                    if (remaining.getAndDecrement() > 0) {
+                                        interference.run();
+                                    }
+                                }
+                                return invoke(connection, m, a);
+                            }
+                    );
+                }
+        );
+        return new JdbcDBStore(racing);
+    }
+
+    private static boolean isConditionalUpdate(Object sql) {
+        return sql instanceof String
+                && ((String) sql).startsWith("UPDATE projects\nSET")
+                && ((String) sql).endsWith("AND row_version = ?");
+    }
+
+    private static Object invoke(
+            Object target,
+            Method method,
+            Object[] args
+    ) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void bumpRowVersion(String projectName) {
+        try (
+                Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement(
+                        "UPDATE projects SET row_version = row_version + 1\n"
+                                + "WHERE name = ?"
+                )
+        ) {
+            statement.setString(1, projectName);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void conflictingUpdateIsRetried() {
+        dbStore.setLatestVersionForProject("proj", 1);
+        AtomicInteger attempts = new AtomicInteger();
+        JdbcDBStore racing = racingStore(
+                () -> bumpRowVersion("proj"),
+                1,
+                attempts
+        );
+        racing.setLatestVersionForProject("proj", 2);
+        assertEquals(2, attempts.get());
+        assertEquals(2, dbStore.getLatestVersionForProject("proj"));
+    }
+
+    @Test
+    public void updateThatAlwaysConflictsGivesUp() {
+        dbStore.setLatestVersionForProject("proj", 1);
+        AtomicInteger attempts = new AtomicInteger();
+        JdbcDBStore racing = racingStore(
+                () -> bumpRowVersion("proj"),
+                Integer.MAX_VALUE,
+                attempts
+        );
+        try {
+            racing.swap("proj", "gzip");
+            fail("the swap always conflicts");
+        } catch (ConcurrentUpdateException e) {
+            assertEquals(5, attempts.get());
+        }
+        assertEquals(ProjectState.PRESENT, dbStore.getProjectState("proj"));
+    }
+
+    @Test
+    public void restoringAProjectAnotherNodeRestoredFails() {
+        dbStore.setLatestVersionForProject("proj", 1);
+        dbStore.swap("proj", "gzip");
+        DBStore otherNode = new JdbcDBStore(dataSource);
+        AtomicInteger attempts = new AtomicInteger();
+        JdbcDBStore racing = racingStore(
+                () -> otherNode.restore("proj"),
+                1,
+                attempts
+        );
+        try {
+            racing.restore("proj");
+            fail("the other node restored it first");
+        } catch (ConcurrentUpdateException e) {
+            assertEquals(1, attempts.get());
+        }
+        assertEquals(ProjectState.PRESENT, dbStore.getProjectState("proj"));
+    }
+
+    @Test
+    public void accessTimesDoNotUnswapAProject() {
+        dbStore.setLatestVersionForProject("older", 1);
+        dbStore.setLatestVersionForProject("newer", 1);
+        dbStore.setLastAccessedTime("older", new Timestamp(1000));
+        dbStore.setLastAccessedTime("newer", new Timestamp(2000));
+        assertEquals("older", dbStore.getOldestUnswappedProject());
+        assertEquals(
+                Arrays.asList("older", "newer"),
+                dbStore.getSwapCandidates(EvictionPolicy.LRU, 2)
+        );
+        dbStore.swap("older", null);
+        dbStore.setLastAccessedTime("older", new Timestamp(3000));
+        assertEquals(ProjectState.SWAPPED, dbStore.getProjectState("older"));
+        assertEquals("newer", dbStore.getOldestUnswappedProject());
+    }
+
+    @Test
+    public void biggerProjectsAreSwappedFirstBySizeIdle() {
+        Timestamp time = new Timestamp(System.currentTimeMillis() - 60000);
+        for (String project : Arrays.asList("small", "big")) {
+            dbStore.setLatestVersionForProject(project, 1);
+            dbStore.setLastAccessedTime(project, time);
+        }
+        dbStore.setDiskSize("small", 10);
+        dbStore.setDiskSize("big", 1000);
+        assertEquals(
+                Collections.singletonList("big"),
+                dbStore.getSwapCandidates(EvictionPolicy.SIZE_IDLE, 1)
+        );
+    }
+
+    @Test
+    public void urlIndexReplacesUrlsAndPaths() {
+        dbStore.setLatestVersionForProject("proj", 1);
+        dbStore.addURLIndexForProject("proj", "http://a", "a.png");
+        dbStore.addURLIndexForProject("proj", "http://b", "a.png");
+        dbStore.addURLIndexForProject("proj", "http://c", "c.png");
+        assertNull(dbStore.getPathForURLInProject("proj", "http://a"));
+        assertEquals(
+                "a.png",
+                dbStore.getPathForURLInProject("proj", "http://b")
+        );
+        dbStore.deleteFilesForProject("proj", "c.png");
+        Map<String, String> expected = new HashMap<>();
+        expected.put("http://b", "a.png");
+        assertEquals(expected, dbStore.getURLIndexForProject("proj"));
+    }
+
+    @Test
+    public void swappedRefsAreKept() {
+        dbStore.setLatestVersionForProject("proj", 1);
+        Map<String, String> refs = new HashMap<>();
+        refs.put("refs/heads/master", "0123456789abcdef");
+        dbStore.setSwappedRefs("proj", refs);
+        dbStore.swap("proj", null);
+        assertEquals(refs, dbStore.getSwappedRefs("proj"));
+        dbStore.restore("proj");
+        assertNull(dbStore.getSwappedRefs("proj"));
+    }
+
+    @Test
+    public void batchedUpdatesAreWrittenWhenTheBatchIsClosed() {
+        try (DBStore.Batch batch = dbStore.beginBatch()) {
+            dbStore.setLatestVersionForProject("proj", 1);
+            dbStore.addURLIndexForProject("proj", "http://a", "a.png");
+            assertEquals(0, dbStore.getNumProjects());
+        }
+        assertEquals(1, dbStore.getLatestVersionForProject("proj"));
+        assertEquals(
+                "a.png",
+                dbStore.getPathForURLInProject("proj", "http://a")
+        );
+    }
+
+}
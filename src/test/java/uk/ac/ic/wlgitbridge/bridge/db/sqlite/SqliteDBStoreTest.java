@@ -1,22 +1,38 @@
 package uk.ac.ic.wlgitbridge.bridge.db.sqlite;
 
+import io.prometheus.client.CollectorRegistry;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStoreContractTest;
+import uk.ac.ic.wlgitbridge.bridge.db.EvictionPolicy;
 import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
 
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by winston on 23/08/2016.
  */
-public class SqliteDBStoreTest {
+public class SqliteDBStoreTest extends DBStoreContractTest {
 
     private SqliteDBStore dbStore;
 
@@ -27,6 +43,16 @@ public class SqliteDBStoreTest {
         dbStore = new SqliteDBStore(tmpFolder.newFile("dbStore.db"));
     }
 
+    @After
+    public void teardown() {
+        dbStore.close();
+    }
+
+    @Override
+    protected DBStore store() {
+        return dbStore;
+    }
+
     @Test
     public void testGetNumProjects() {
         assertEquals(0, dbStore.getNumProjects());
@@ -82,6 +108,23 @@ public class SqliteDBStoreTest {
       assertEquals(dbStore.getSwapCompression(projectName), null);
     }
 
+    @Test
+    public void swappedRefsAreKeptUntilRestore() {
+        Map<String, String> refs = new LinkedHashMap<>();
+        refs.put("HEAD", "ref: refs/heads/master");
+        refs.put(
+                "refs/heads/master",
+                "6c12c07aa2d6a9d1a3fe2b02d5ae0f5bd4b8e0b0"
+        );
+        dbStore.setLatestVersionForProject("proj", 42);
+        assertNull(dbStore.getSwappedRefs("proj"));
+        dbStore.setSwappedRefs("proj", refs);
+        dbStore.swap("proj", "gzip");
+        assertEquals(refs, dbStore.getSwappedRefs("proj"));
+        dbStore.restore("proj");
+        assertNull(dbStore.getSwappedRefs("proj"));
+    }
+
     @Test
     public void noOldestProjectIfAllEvicted() {
         dbStore.setLatestVersionForProject("older", 3);
@@ -135,6 +178,56 @@ public class SqliteDBStoreTest {
         assertEquals(0, dbStore.getNumUnswappedProjects());
     }
 
+    @Test
+    public void lruSwapCandidatesAreOldestFirst() {
+        dbStore.setLatestVersionForProject("older", 1);
+        dbStore.setLastAccessedTime(
+                "older",
+                Timestamp.valueOf(
+                        LocalDateTime.now().minus(5, ChronoUnit.SECONDS)
+                )
+        );
+        dbStore.setLatestVersionForProject("newer", 1);
+        dbStore.setLastAccessedTime(
+                "newer",
+                Timestamp.valueOf(LocalDateTime.now())
+        );
+        dbStore.setLatestVersionForProject("swapped", 1);
+        dbStore.swap("swapped", "gzip");
+        assertEquals(
+                Arrays.asList("older", "newer"),
+                dbStore.getSwapCandidates(EvictionPolicy.LRU, 10)
+        );
+        assertEquals(
+                Arrays.asList("older"),
+                dbStore.getSwapCandidates(EvictionPolicy.LRU, 1)
+        );
+    }
+
+    @Test
+    public void sizeIdleSwapCandidatesPreferBigIdleProjects() {
+        dbStore.setLatestVersionForProject("tinyAndOld", 1);
+        dbStore.setLastAccessedTime(
+                "tinyAndOld",
+                Timestamp.valueOf(LocalDateTime.now().minus(7, ChronoUnit.DAYS))
+        );
+        dbStore.setDiskSize("tinyAndOld", 2_000);
+        dbStore.setLatestVersionForProject("hugeAndLessOld", 1);
+        dbStore.setLastAccessedTime(
+                "hugeAndLessOld",
+                Timestamp.valueOf(LocalDateTime.now().minus(6, ChronoUnit.DAYS))
+        );
+        dbStore.setDiskSize("hugeAndLessOld", 4_000_000_000L);
+        assertEquals(
+                Arrays.asList("hugeAndLessOld", "tinyAndOld"),
+                dbStore.getSwapCandidates(EvictionPolicy.SIZE_IDLE, 10)
+        );
+        assertEquals(
+                Arrays.asList("tinyAndOld", "hugeAndLessOld"),
+                dbStore.getSwapCandidates(EvictionPolicy.LRU, 10)
+        );
+    }
+
     @Test
     public void projectStateIsNotPresentIfNotInDBAtAll() {
         assertEquals(
@@ -160,4 +253,135 @@ public class SqliteDBStoreTest {
         assertEquals(ProjectState.SWAPPED, dbStore.getProjectState("asdf"));
     }
 
+    @Test
+    public void concurrentReadersSeeCommittedWrites(
+    ) throws InterruptedException, ExecutionException {
+        int numProjects = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(
+                SqliteDBStore.DEFAULT_READ_POOL_SIZE * 2
+        );
+        try {
+            List<Future<Integer>> versions = new ArrayList<>();
+            for (int i = 0; i < numProjects; ++i) {
+                String projectName = "proj" + i;
+                int version = i;
+                versions.add(executor.submit(() -> {
+                    dbStore.setLatestVersionForProject(projectName, version);
+                    return dbStore.getLatestVersionForProject(projectName);
+                }));
+            }
+            for (int i = 0; i < numProjects; ++i) {
+                assertEquals(i, (int) versions.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(numProjects, dbStore.getNumProjects());
+    }
+
+    @Test
+    public void batchedUpdatesAreWrittenWhenTheBatchIsClosed() {
+        try (DBStore.Batch batch = dbStore.beginBatch()) {
+            dbStore.setLatestVersionForProject("asdf", 1);
+            dbStore.addURLIndexForProject("asdf", "http://a/b", "b.png");
+            try (DBStore.Batch inner = dbStore.beginBatch()) {
+                dbStore.setLatestVersionForProject("asdf", 2);
+            }
+            assertEquals(0, dbStore.getNumProjects());
+        }
+        assertEquals(2, dbStore.getLatestVersionForProject("asdf"));
+        assertEquals(
+                "b.png",
+                dbStore.getPathForURLInProject("asdf", "http://a/b")
+        );
+    }
+
+    @Test
+    public void pendingAccessTimesAreUsedToPickSwapCandidates() {
+        dbStore.setLatestVersionForProject("older", 1);
+        dbStore.setLatestVersionForProject("newer", 1);
+        LocalDateTime now = LocalDateTime.now();
+        dbStore.setLastAccessedTime(
+                "older",
+                Timestamp.valueOf(now.minus(2, ChronoUnit.DAYS))
+        );
+        dbStore.setLastAccessedTime(
+                "newer",
+                Timestamp.valueOf(now.minus(1, ChronoUnit.DAYS))
+        );
+        assertEquals("older", dbStore.getOldestUnswappedProject());
+        dbStore.setLastAccessedTime("older", Timestamp.valueOf(now));
+        assertEquals(
+                Arrays.asList("newer", "older"),
+                dbStore.getSwapCandidates(EvictionPolicy.LRU, 10)
+        );
+    }
+
+    @Test
+    public void pendingAccessTimeDoesNotUnswapAProject() {
+        dbStore.setLatestVersionForProject("asdf", 1);
+        dbStore.setLastAccessedTime(
+                "asdf",
+                Timestamp.valueOf(LocalDateTime.now())
+        );
+        dbStore.swap("asdf", "gzip");
+        dbStore.flush();
+        assertEquals(ProjectState.SWAPPED, dbStore.getProjectState("asdf"));
+    }
+
+    @Test
+    public void urlIndexIsReadForOneProject() {
+        dbStore.setLatestVersionForProject("asdf", 1);
+        dbStore.setLatestVersionForProject("other", 1);
+        dbStore.addURLIndexForProject("asdf", "http://a/1", "1.png");
+        dbStore.addURLIndexForProject("asdf", "http://a/2", "2.png");
+        dbStore.addURLIndexForProject("other", "http://a/3", "3.png");
+        dbStore.deleteFilesForProject("asdf", "2.png");
+        Map<String, String> expected = new HashMap<>();
+        expected.put("http://a/1", "1.png");
+        assertEquals(expected, dbStore.getURLIndexForProject("asdf"));
+    }
+
+    @Test
+    public void statementsAreTimedByOperation() {
+        double before = statementCount("GetProjectState");
+        dbStore.setLatestVersionForProject("asdf", 1);
+        dbStore.getProjectState("asdf");
+        dbStore.getProjectState("asdf");
+        assertEquals(2, statementCount("GetProjectState") - before, 0);
+        assertTrue(statementCount("SetProjectSQLUpdate") >= 1);
+    }
+
+    @Test
+    public void closingReturnsTheReadConnectionsToTheGauge() {
+        double before = readConnections();
+        dbStore.close();
+        assertEquals(
+                SqliteDBStore.DEFAULT_READ_POOL_SIZE,
+                before - readConnections(),
+                0
+        );
+        dbStore.close();
+        assertEquals(
+                SqliteDBStore.DEFAULT_READ_POOL_SIZE,
+                before - readConnections(),
+                0
+        );
+    }
+
+    private static double readConnections() {
+        return CollectorRegistry.defaultRegistry.getSampleValue(
+                "wlgb_sqlite_read_connections"
+        );
+    }
+
+    private static double statementCount(String operation) {
+        Double count = CollectorRegistry.defaultRegistry.getSampleValue(
+                "wlgb_sqlite_statement_duration_seconds_count",
+                new String[] {"operation"},
+                new String[] {operation}
+        );
+        return count == null ? 0 : count;
+    }
+
 }
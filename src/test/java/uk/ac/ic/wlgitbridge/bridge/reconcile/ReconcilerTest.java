@@ -0,0 +1,75 @@
+package uk.ac.ic.wlgitbridge.bridge.reconcile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SqliteDBStore;
+import uk.ac.ic.wlgitbridge.bridge.repo.FSGitRepoStore;
+import uk.ac.ic.wlgitbridge.data.ProjectLockImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReconcilerTest {
+
+    private File rootDir;
+    private SqliteDBStore dbStore;
+    private Reconciler reconciler;
+
+    @Before
+    public void setup() throws IOException {
+        TemporaryFolder tmpFolder = new TemporaryFolder();
+        tmpFolder.create();
+        rootDir = tmpFolder.newFolder("rootdir");
+        File wlgb = new File(rootDir, ".wlgb");
+        assertTrue(wlgb.mkdirs());
+        dbStore = new SqliteDBStore(new File(wlgb, "wlgb.db"));
+        reconciler = new Reconciler(
+                new ProjectLockImpl(),
+                new FSGitRepoStore(rootDir.getAbsolutePath(), Optional.empty()),
+                dbStore,
+                2
+        );
+    }
+
+    @After
+    public void teardown() {
+        dbStore.close();
+    }
+
+    @Test
+    public void directoriesOfProjectsNotInTheDBArePurged()
+            throws IOException, InterruptedException {
+        for (int i = 0; i < 2500; ++i) {
+            assertTrue(new File(rootDir, "proj" + i + "/.git").mkdirs());
+            if (i % 2 == 0) {
+                dbStore.setLatestVersionForProject("proj" + i, 1);
+            }
+        }
+        assertTrue(new File(rootDir, "stray.txt").createNewFile());
+        reconciler.run();
+        for (int i = 0; i < 2500; ++i) {
+            assertTrue(
+                    new File(rootDir, "proj" + i).exists() == (i % 2 == 0)
+            );
+        }
+        assertFalse(new File(rootDir, "stray.txt").exists());
+        assertTrue(new File(rootDir, ".wlgb/wlgb.db").exists());
+    }
+
+    @Test
+    public void swappedProjectsAreKept()
+            throws IOException, InterruptedException {
+        assertTrue(new File(rootDir, "proj/.git").mkdirs());
+        dbStore.setLatestVersionForProject("proj", 1);
+        dbStore.swap("proj", "gzip");
+        reconciler.run();
+        assertTrue(new File(rootDir, "proj").exists());
+    }
+
+}
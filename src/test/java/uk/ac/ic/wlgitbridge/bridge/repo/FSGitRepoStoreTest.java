@@ -9,7 +9,6 @@ import uk.ac.ic.wlgitbridge.util.Files;
 import java.io.*;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
 import java.util.Optional;
 
 import static org.junit.Assert.*;
@@ -47,18 +46,23 @@ public class FSGitRepoStoreTest {
     }
 
     @Test
-    public void testPurgeNonexistentProjects() {
+    public void testPurgeNonexistentProject() throws IOException {
         File toDelete = new File(
                 repoStore.getRootDirectory(), "idontexist"
         );
         File wlgb = new File(repoStore.getRootDirectory(), ".wlgb");
         assertTrue(toDelete.exists());
         assertTrue(wlgb.exists());
-        repoStore.purgeNonexistentProjects(Arrays.asList("proj1", "proj2"));
+        repoStore.purgeNonexistentProject("idontexist");
         assertFalse(toDelete.exists());
         assertTrue(wlgb.exists());
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void wlgbIsNeverPurged() throws IOException {
+        repoStore.purgeNonexistentProject(".wlgb");
+    }
+
     @Test
     public void totalSizeShouldChangeWhenFilesAreCreatedAndDeleted()
             throws IOException {
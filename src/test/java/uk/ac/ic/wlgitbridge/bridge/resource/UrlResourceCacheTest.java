@@ -5,17 +5,25 @@ import io.netty.handler.codec.http.DefaultHttpHeaders;
 import org.junit.Test;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.util.CastUtil;
+import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
+import uk.ac.ic.wlgitbridge.data.filestore.RepositoryFile;
 import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
 import uk.ac.ic.wlgitbridge.io.http.ning.NingHttpClientFacade;
+import uk.ac.ic.wlgitbridge.io.http.ning.PooledHttpClient;
 import uk.ac.ic.wlgitbridge.util.FunctionT;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
 
@@ -31,7 +39,9 @@ public class UrlResourceCacheTest {
 
     private final DBStore dbStore = mock(DBStore.class);
 
-    private final UrlResourceCache cache = new UrlResourceCache(dbStore, http);
+    private final UrlIndex urlIndex = new UrlIndex(dbStore, PROJ);
+
+    private final UrlResourceCache cache = new UrlResourceCache(http);
 
     private static HttpHeaders withContentLength(long cl) {
         return new DefaultHttpHeaders().add("Content-Length", String.valueOf(cl));
@@ -56,11 +66,11 @@ public class UrlResourceCacheTest {
     private void getWithMaxLength(Optional<Long> max)
         throws IOException, SizeLimitExceededException {
         cache.get(
-                PROJ, URL, NEW_PATH, new HashMap<>(), new HashMap<>(), max);
+                urlIndex, URL, NEW_PATH, new HashMap<>(), new HashMap<>(), max);
     }
 
     private void getUrl(String url) throws IOException, SizeLimitExceededException {
-        cache.get(PROJ, url, NEW_PATH, new HashMap<>(), new HashMap<>(), Optional.empty());
+        cache.get(urlIndex, url, NEW_PATH, new HashMap<>(), new HashMap<>(), Optional.empty());
     }
 
     private void getWithMaxLength(long max)
@@ -110,14 +120,52 @@ public class UrlResourceCacheTest {
         getWithMaxLength(5);
     }
 
+    @Test
+    public void filesAreFetchedUncompressedSoTheirSizeIsKnown() {
+        PooledHttpClient pooled = mock(PooledHttpClient.class);
+        new UrlResourceCache(pooled);
+        verify(pooled).setCompression("UrlResourceCache", false, false);
+    }
+
     @Test
     public void tokenIsRemovedFromCacheKey() throws Exception {
         String url = "http://history.overleaf.com/projects/1234/blobs/abdef?token=secretencryptedstuff&_path=test.tex";
         String cacheKey = "http://history.overleaf.com/projects/1234/blobs/abdef?token=REMOVED&_path=test.tex";
         respondWithContentLength(123);
         getUrl(url);
-        verify(dbStore).getPathForURLInProject(PROJ, cacheKey);
+        assertEquals(NEW_PATH, urlIndex.getPath(cacheKey));
+        urlIndex.save();
         verify(dbStore).addURLIndexForProject(PROJ, cacheKey, NEW_PATH);
     }
 
+    @Test
+    public void urlIndexIsLoadedOnceAndReusedForSeenUrls() throws Exception {
+        String seenPath = "seen.jpg";
+        String seenContents = "seen";
+        Map<String, String> index = new HashMap<>();
+        index.put("http://localhost/seen.jpg", seenPath);
+        when(dbStore.getURLIndexForProject(PROJ)).thenReturn(index);
+        respondWithContentLength(3);
+        Map<String, RawFile> fileTable = new HashMap<>();
+        fileTable.put(
+                seenPath,
+                new RepositoryFile(seenPath, seenContents.getBytes())
+        );
+        RawFile seen = cache.get(
+                urlIndex,
+                "http://localhost/seen.jpg",
+                "renamed.jpg",
+                fileTable,
+                new HashMap<>(),
+                Optional.empty()
+        );
+        assertEquals("renamed.jpg", seen.getPath());
+        assertArrayEquals(seenContents.getBytes(), seen.getContents());
+        getUrl(URL);
+        getUrl("http://localhost/other.jpg");
+        verify(dbStore, times(1)).getURLIndexForProject(PROJ);
+        verify(dbStore, never()).getPathForURLInProject(any(), any());
+        verify(http, times(2)).get(any(), any());
+    }
+
 }
@@ -0,0 +1,90 @@
+package uk.ac.ic.wlgitbridge.bridge.snapshot;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.data.CandidateSnapshot;
+import uk.ac.ic.wlgitbridge.snapshot.exception.FailedConnectionException;
+import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocResult;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingSnapshotApiTest {
+
+    private SnapshotApi delegate;
+    private CachingSnapshotApi api;
+
+    @Before
+    public void setup() {
+        delegate = mock(SnapshotApi.class);
+        when(
+                delegate.getDoc(Optional.empty(), "proj")
+        ).thenAnswer(__ -> CompletableFuture.completedFuture(
+                mock(GetDocResult.class)
+        ));
+        api = new CachingSnapshotApi(delegate, 60 * 1000);
+    }
+
+    @Test
+    public void docIsFetchedOnceWhileCached() {
+        api.getDoc(Optional.empty(), "proj").join();
+        api.getDoc(Optional.empty(), "proj").join();
+        api.getDoc(Optional.empty(), "proj").join();
+        verify(delegate, times(1)).getDoc(Optional.empty(), "proj");
+    }
+
+    @Test
+    public void docsAreCachedPerCredential() {
+        Credential cred = new Credential(
+                BearerToken.authorizationHeaderAccessMethod()
+        ).setAccessToken("token");
+        when(
+                delegate.getDoc(Optional.of(cred), "proj")
+        ).thenReturn(CompletableFuture.completedFuture(
+                mock(GetDocResult.class)
+        ));
+        api.getDoc(Optional.empty(), "proj").join();
+        api.getDoc(Optional.of(cred), "proj").join();
+        api.getDoc(Optional.of(cred), "proj").join();
+        verify(delegate, times(1)).getDoc(Optional.empty(), "proj");
+        verify(delegate, times(1)).getDoc(Optional.of(cred), "proj");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void delegateExceptionsAreThrownAsTheyAre() {
+        when(
+                delegate.getDoc(Optional.empty(), "broken")
+        ).thenThrow(new IllegalStateException("broken"));
+        api.getDoc(Optional.empty(), "broken");
+    }
+
+    @Test
+    public void pushDropsTheProjectsDocs() {
+        CandidateSnapshot candidate = mock(CandidateSnapshot.class);
+        when(candidate.getProjectName()).thenReturn("proj");
+        api.getDoc(Optional.empty(), "proj").join();
+        api.push(Optional.empty(), candidate, "key");
+        api.getDoc(Optional.empty(), "proj").join();
+        verify(delegate, times(2)).getDoc(Optional.empty(), "proj");
+    }
+
+    @Test
+    public void connectionFailuresAreNotCached() {
+        CompletableFuture<GetDocResult> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new FailedConnectionException());
+        when(
+                delegate.getDoc(Optional.empty(), "down")
+        ).thenReturn(failed);
+        api.getDoc(Optional.empty(), "down");
+        api.getDoc(Optional.empty(), "down");
+        verify(delegate, times(2)).getDoc(Optional.empty(), "down");
+    }
+
+}
@@ -0,0 +1,112 @@
+package uk.ac.ic.wlgitbridge.bridge.snapshot;
+
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.GetForVersionResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HedgingSnapshotApiTest {
+
+    private final AtomicBoolean queued = new AtomicBoolean();
+    private SnapshotApi delegate;
+    private HedgingSnapshotApi api;
+
+    @Before
+    public void setup() {
+        delegate = mock(SnapshotApi.class);
+        when(
+                delegate.getForVersion(Optional.empty(), "proj", 1)
+        ).thenAnswer(__ -> CompletableFuture.completedFuture(
+                mock(GetForVersionResult.class)
+        ));
+        api = new HedgingSnapshotApi(delegate, queued::get, 90, 10);
+    }
+
+    /* Gives the hedger enough quick calls to go on, and 2 hedges */
+    private void warmUp() {
+        for (int i = 0; i < 20; ++i) {
+            api.getForVersion(Optional.empty(), "proj", 1).join();
+        }
+    }
+
+    @Test
+    public void stalledCallIsAnsweredByTheHedge() throws Exception {
+        warmUp();
+        GetForVersionResult hedged = mock(GetForVersionResult.class);
+        CompletableFuture<GetForVersionResult> stalled =
+                new CompletableFuture<>();
+        when(
+                delegate.getForVersion(Optional.empty(), "proj", 2)
+        ).thenReturn(
+                stalled,
+                CompletableFuture.completedFuture(hedged)
+        );
+        assertSame(
+                hedged,
+                api.getForVersion(
+                        Optional.empty(),
+                        "proj",
+                        2
+                ).get(10, TimeUnit.SECONDS)
+        );
+        /* The losing copy is no longer wanted */
+        assertTrue(stalled.isCancelled());
+    }
+
+    @Test
+    public void nothingIsHedgedWhileCallsAreQueued() throws Exception {
+        warmUp();
+        queued.set(true);
+        when(
+                delegate.getForVersion(Optional.empty(), "proj", 2)
+        ).thenReturn(new CompletableFuture<>());
+        CompletableFuture<GetForVersionResult> result =
+                api.getForVersion(Optional.empty(), "proj", 2);
+        Thread.sleep(100);
+        assertFalse(result.isDone());
+        verify(delegate, times(1)).getForVersion(Optional.empty(), "proj", 2);
+    }
+
+    @Test
+    public void nothingIsHedgedWithoutEnoughSamples() throws Exception {
+        when(
+                delegate.getForVersion(Optional.empty(), "proj", 2)
+        ).thenReturn(new CompletableFuture<>());
+        CompletableFuture<GetForVersionResult> result =
+                api.getForVersion(Optional.empty(), "proj", 2);
+        Thread.sleep(100);
+        assertFalse(result.isDone());
+        verify(delegate, times(1)).getForVersion(Optional.empty(), "proj", 2);
+    }
+
+    @Test
+    public void hedgesStayWithinTheBudget() throws Exception {
+        warmUp();
+        when(
+                delegate.getForVersion(Optional.empty(), "proj", 2)
+        ).thenAnswer(__ -> new CompletableFuture<>());
+        List<CompletableFuture<GetForVersionResult>> stalled =
+                new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            stalled.add(api.getForVersion(Optional.empty(), "proj", 2));
+        }
+        Thread.sleep(200);
+        /* 10 calls, plus the 2 hedges from warming up and 1 earned */
+        verify(delegate, times(13)).getForVersion(Optional.empty(), "proj", 2);
+    }
+
+}
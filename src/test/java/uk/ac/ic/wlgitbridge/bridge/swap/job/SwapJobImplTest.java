@@ -6,6 +6,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.EvictionPolicy;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SqliteDBStore;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 import uk.ac.ic.wlgitbridge.bridge.repo.FSGitRepoStore;
@@ -16,13 +17,27 @@ import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStore;
 import uk.ac.ic.wlgitbridge.data.ProjectLockImpl;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
 
 /**
  * Created by winston on 20/08/2016.
@@ -81,6 +96,7 @@ public class SwapJobImplTest {
         if(swapJob != null) {
             swapJob.stop();
         }
+        dbStore.close();
     }
 
     private void waitASecond() {
@@ -163,4 +179,184 @@ public class SwapJobImplTest {
         assertEquals("proj2", dbStore.getOldestUnswappedProject());
     }
 
+    @Test
+    public void incrementalSwapOnlyUploadsNewPacks() throws IOException {
+        List<String> uploads = new ArrayList<>();
+        swapStore = new InMemorySwapStore() {
+            @Override
+            public void upload(
+                    String projectName,
+                    InputStream uploadStream,
+                    long contentLength
+            ) throws IOException {
+                uploads.add(projectName);
+                super.upload(projectName, uploadStream, contentLength);
+            }
+        };
+        swapJob = new SwapJobImpl(
+                1,
+                15000,
+                30000,
+                Duration.ofMillis(100),
+                SwapJob.CompressionMethod.Gzip,
+                EvictionPolicy.LRU,
+                1,
+                true,
+                lock,
+                repoStore,
+                dbStore,
+                swapStore
+        );
+        swapJob.evict("proj2");
+        assertEquals("packs", dbStore.getSwapCompression("proj2"));
+        assertTrue(uploads.contains("proj2"));
+        assertTrue(uploads.contains("proj2.meta"));
+        assertTrue(uploads.stream().anyMatch(
+                key -> key.startsWith("proj2.pack-")
+        ));
+        swapJob.restore("proj2");
+        assertEquals(null, dbStore.getSwapCompression("proj2"));
+        assertTrue(repoStore.listPackFiles("proj2").stream().anyMatch(
+                file -> file.endsWith(".keep")
+        ));
+        uploads.clear();
+        swapJob.evict("proj2");
+        assertEquals(Arrays.asList("proj2.meta", "proj2"), uploads);
+        swapJob.restore("proj2");
+        assertNotNull(repoStore.getExistingRepo("proj2"));
+    }
+
+    @Test
+    public void refsThatCantBeRecordedAreCleared() throws IOException {
+        /* Left by an earlier eviction that failed to upload */
+        dbStore.setSwappedRefs(
+                "proj2",
+                Collections.singletonMap(
+                        "refs/heads/master",
+                        "0000000000000000000000000000000000000000"
+                )
+        );
+        RepoStore brokenRepoStore = spy(repoStore);
+        doThrow(new IOException("broken")).when(
+                brokenRepoStore
+        ).getExistingRepo("proj2");
+        swapJob = new SwapJobImpl(
+                1,
+                15000,
+                30000,
+                Duration.ofMillis(100),
+                SwapJob.CompressionMethod.Bzip2,
+                lock,
+                brokenRepoStore,
+                dbStore,
+                swapStore
+        );
+        swapJob.evict("proj2");
+        assertEquals("bzip2", dbStore.getSwapCompression("proj2"));
+        assertNull(dbStore.getSwappedRefs("proj2"));
+    }
+
+    @Test
+    public void keptPacksAreRemovedOnceSuperseded() throws IOException {
+        Set<String> keys = ConcurrentHashMap.newKeySet();
+        swapStore = new InMemorySwapStore() {
+            @Override
+            public void upload(
+                    String projectName,
+                    InputStream uploadStream,
+                    long contentLength
+            ) throws IOException {
+                keys.add(projectName);
+                super.upload(projectName, uploadStream, contentLength);
+            }
+
+            @Override
+            public void remove(String projectName) {
+                keys.remove(projectName);
+                super.remove(projectName);
+            }
+        };
+        swapJob = new SwapJobImpl(
+                1,
+                15000,
+                30000,
+                Duration.ofMillis(100),
+                SwapJob.CompressionMethod.Gzip,
+                EvictionPolicy.LRU,
+                1,
+                true,
+                lock,
+                repoStore,
+                dbStore,
+                swapStore
+        );
+        swapJob.evict("proj2");
+        swapJob.restore("proj2");
+        assertTrue(keys.contains("proj2.kept"));
+        assertTrue(keys.stream().anyMatch(
+                key -> key.startsWith("proj2.pack-")
+        ));
+        swapJob.stop();
+        swapJob = new SwapJobImpl(
+                1,
+                15000,
+                30000,
+                Duration.ofMillis(100),
+                SwapJob.CompressionMethod.Gzip,
+                EvictionPolicy.LRU,
+                1,
+                false,
+                lock,
+                repoStore,
+                dbStore,
+                swapStore
+        );
+        swapJob.evict("proj2");
+        assertEquals(Collections.singleton("proj2"), keys);
+        swapJob.restore("proj2");
+        assertNotNull(repoStore.getExistingRepo("proj2"));
+    }
+
+    @Test
+    public void candidatesSwappedSinceTheBatchWasFetchedAreSkipped() {
+        List<String> uploads = new ArrayList<>();
+        swapStore = new InMemorySwapStore() {
+            @Override
+            public void upload(
+                    String projectName,
+                    InputStream uploadStream,
+                    long contentLength
+            ) throws IOException {
+                uploads.add(projectName);
+                super.upload(projectName, uploadStream, contentLength);
+            }
+        };
+        DBStore racingDbStore = spy(dbStore);
+        doAnswer(invocation -> {
+            Object candidates = invocation.callRealMethod();
+            /* Another node swaps the first candidate in the meantime */
+            dbStore.swap("proj2", "bzip2");
+            return candidates;
+        }).when(racingDbStore).getSwapCandidates(any(), anyInt());
+        swapJob = new SwapJobImpl(
+                1,
+                16384,
+                30000,
+                Duration.ofMillis(100),
+                SwapJob.CompressionMethod.Bzip2,
+                EvictionPolicy.LRU,
+                2,
+                false,
+                lock,
+                repoStore,
+                racingDbStore,
+                swapStore
+        );
+        swapJob.start();
+        do { waitASecond(); } while (swapJob.swaps.get() < 1);
+        assertTrue(uploads.isEmpty());
+        assertEquals(1, dbStore.getNumUnswappedProjects());
+        assertEquals("proj1", dbStore.getOldestUnswappedProject());
+    }
+
 }
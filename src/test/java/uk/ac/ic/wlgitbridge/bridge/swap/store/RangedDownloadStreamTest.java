@@ -0,0 +1,178 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.store;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RangedDownloadStreamTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    private static byte[] randomBytes(int n) {
+        byte[] bytes = new byte[n];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void partsAreReassembledInOrder() throws IOException {
+        byte[] contents = randomBytes(10_000);
+        InMemorySwapStore swapStore = new InMemorySwapStore();
+        swapStore.upload(
+                "proj",
+                new ByteArrayInputStream(contents),
+                contents.length
+        );
+        Random delays = new Random(0);
+        try (
+                InputStream in = new RangedDownloadStream(
+                        contents.length,
+                        333,
+                        4,
+                        executor,
+                        (start, length) -> {
+                            try {
+                                Thread.sleep(delays.nextInt(5));
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                            byte[] all = IOUtils.toByteArray(
+                                    swapStore.openDownloadStream("proj")
+                            );
+                            return Arrays.copyOfRange(
+                                    all,
+                                    (int) start,
+                                    (int) (start + length)
+                            );
+                        }
+                )
+        ) {
+            assertArrayEquals(contents, IOUtils.toByteArray(in));
+        }
+    }
+
+    @Test
+    public void neverHasMoreThanParallelismPartsInFlight() throws IOException {
+        byte[] contents = randomBytes(1000);
+        AtomicInteger inFlight = new AtomicInteger(0);
+        AtomicInteger maxInFlight = new AtomicInteger(0);
+        try (
+                InputStream in = new RangedDownloadStream(
+                        contents.length,
+                        10,
+                        3,
+                        executor,
+                        (start, length) -> {
+                            int now = inFlight.incrementAndGet();
+                            maxInFlight.accumulateAndGet(now, Math::max);
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                            inFlight.decrementAndGet();
+                            return Arrays.copyOfRange(
+                                    contents,
+                                    (int) start,
+                                    (int) (start + length)
+                            );
+                        }
+                )
+        ) {
+            assertArrayEquals(contents, IOUtils.toByteArray(in));
+        }
+        assertTrue(maxInFlight.get() <= 3);
+    }
+
+    @Test
+    public void partBeingReadCountsTowardsParallelism() throws IOException {
+        byte[] contents = randomBytes(1000);
+        AtomicInteger fetched = new AtomicInteger(0);
+        try (
+                InputStream in = new RangedDownloadStream(
+                        contents.length,
+                        10,
+                        3,
+                        MoreExecutors.newDirectExecutorService(),
+                        (start, length) -> {
+                            fetched.incrementAndGet();
+                            return Arrays.copyOfRange(
+                                    contents,
+                                    (int) start,
+                                    (int) (start + length)
+                            );
+                        }
+                )
+        ) {
+            assertEquals(3, fetched.get());
+            assertEquals(contents[0] & 0xff, in.read());
+            assertEquals(3, fetched.get());
+            assertEquals(9, in.skip(9));
+            assertEquals(contents[10] & 0xff, in.read());
+            assertEquals(4, fetched.get());
+        }
+    }
+
+    @Test
+    public void emptyObjectIsEmptyStream() throws IOException {
+        try (
+                InputStream in = new RangedDownloadStream(
+                        0,
+                        10,
+                        3,
+                        executor,
+                        (start, length) -> {
+                            throw new AssertionError("should not fetch");
+                        }
+                )
+        ) {
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void failedPartIsRethrownToTheReader() throws IOException {
+        try (
+                InputStream in = new RangedDownloadStream(
+                        100,
+                        10,
+                        2,
+                        executor,
+                        (start, length) -> {
+                            if (start == 50) {
+                                throw new IOException("connection reset");
+                            }
+                            return new byte[(int) length];
+                        }
+                )
+        ) {
+            IOUtils.toByteArray(in);
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.store;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class TieredSwapStoreTest {
+
+    @Rule
+    public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private File localDir;
+    private InMemorySwapStore remote;
+
+    @Before
+    public void setup() throws IOException {
+        localDir = tmpFolder.newFolder("swap");
+        remote = new InMemorySwapStore();
+    }
+
+    private static void upload(
+            SwapStore store,
+            String projectName,
+            byte[] contents
+    ) throws IOException {
+        store.upload(
+                projectName,
+                new ByteArrayInputStream(contents),
+                contents.length
+        );
+    }
+
+    @Test
+    public void uploadsAreSpilledToTheRemoteAndServedLocally(
+    ) throws IOException {
+        TieredSwapStore tiered = new TieredSwapStore(localDir, 100, remote);
+        byte[] contents = "proj1 contents".getBytes();
+        upload(tiered, "proj1", contents);
+        assertTrue(tiered.isLocal("proj1"));
+        tiered.awaitPendingSpills();
+        assertArrayEquals(
+                contents,
+                IOUtils.toByteArray(remote.openDownloadStream("proj1"))
+        );
+        assertArrayEquals(
+                contents,
+                IOUtils.toByteArray(tiered.openDownloadStream("proj1"))
+        );
+    }
+
+    @Test
+    public void leastRecentlyUsedSpilledArchivesAreDroppedOverBudget(
+    ) throws IOException {
+        TieredSwapStore tiered = new TieredSwapStore(localDir, 25, remote);
+        byte[] contents = "0123456789".getBytes();
+        upload(tiered, "proj1", contents);
+        upload(tiered, "proj2", contents);
+        tiered.awaitPendingSpills();
+        tiered.openDownloadStream("proj1").close();
+        upload(tiered, "proj3", contents);
+        tiered.awaitPendingSpills();
+        assertTrue(tiered.getLocalBytes() <= 25);
+        assertTrue(tiered.isLocal("proj1"));
+        assertFalse(tiered.isLocal("proj2"));
+        assertTrue(tiered.isLocal("proj3"));
+        assertFalse(new File(localDir, "proj2").exists());
+        assertArrayEquals(
+                contents,
+                IOUtils.toByteArray(tiered.openDownloadStream("proj2"))
+        );
+    }
+
+    @Test
+    public void archivesBiggerThanTheBudgetGoStraightToTheRemote(
+    ) throws IOException {
+        TieredSwapStore tiered = new TieredSwapStore(localDir, 5, remote);
+        byte[] contents = "too big for the tier".getBytes();
+        upload(tiered, "proj1", contents);
+        assertFalse(tiered.isLocal("proj1"));
+        assertArrayEquals(
+                contents,
+                IOUtils.toByteArray(remote.openDownloadStream("proj1"))
+        );
+    }
+
+    @Test
+    public void removeDeletesFromBothTiers() throws IOException {
+        TieredSwapStore tiered = new TieredSwapStore(localDir, 100, remote);
+        upload(tiered, "proj1", "contents".getBytes());
+        tiered.remove("proj1");
+        tiered.awaitPendingSpills();
+        assertFalse(tiered.isLocal("proj1"));
+        assertFalse(new File(localDir, "proj1").exists());
+        try {
+            remote.openDownloadStream("proj1");
+            fail("archive should have been removed from the remote");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void leftoverArchivesAreSpilledOnStartup() throws IOException {
+        byte[] contents = "left behind".getBytes();
+        FileUtils.writeByteArrayToFile(new File(localDir, "proj1"), contents);
+        FileUtils.writeByteArrayToFile(
+                new File(localDir, "proj2.uploading"),
+                contents
+        );
+        TieredSwapStore tiered = new TieredSwapStore(localDir, 100, remote);
+        tiered.awaitPendingSpills();
+        assertTrue(tiered.isLocal("proj1"));
+        assertArrayEquals(
+                contents,
+                IOUtils.toByteArray(remote.openDownloadStream("proj1"))
+        );
+        assertFalse(new File(localDir, "proj2.uploading").exists());
+    }
+
+}
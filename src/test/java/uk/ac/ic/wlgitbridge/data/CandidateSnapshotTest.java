@@ -0,0 +1,158 @@
+package uk.ac.ic.wlgitbridge.data;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
+import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
+import uk.ac.ic.wlgitbridge.data.filestore.RepositoryFile;
+import uk.ac.ic.wlgitbridge.io.http.ning.StreamingBodyGenerator;
+import uk.ac.ic.wlgitbridge.snapshot.servermock.response.push.SnapshotPushRequest;
+import uk.ac.ic.wlgitbridge.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CandidateSnapshotTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private static final byte[] BINARY = new byte[] { (byte) 0xff, 0, 1 };
+
+    private CandidateSnapshot candidate() {
+        Util.setPostbackURL("http://bridge/");
+        return new CandidateSnapshot(
+                "proj",
+                7,
+                directory(
+                        file("same.tex", "same"),
+                        file("small.tex", "new"),
+                        new RepositoryFile("small.png", BINARY),
+                        file("large.tex", "a much longer file")
+                ),
+                directory(
+                        file("same.tex", "same"),
+                        file("small.tex", "old"),
+                        file("large.tex", "short")
+                ),
+                10,
+                0
+        );
+    }
+
+    @Test
+    public void smallChangedFilesAreSentInThePush() throws IOException {
+        SnapshotPushRequest push = new SnapshotPushRequest(
+                new Gson().fromJson(write(candidate()), JsonObject.class)
+        );
+        assertEquals(7, push.getLatestVerId());
+        assertEquals(
+                "http://bridge/api/proj/key/postback",
+                push.getPostbackUrl()
+        );
+        assertEquals(Arrays.asList("same.tex"), push.getUnchanged());
+        assertEquals(2, push.getInline().size());
+        assertArrayEquals(
+                "new".getBytes(StandardCharsets.UTF_8),
+                push.getInline().get("small.tex")
+        );
+        assertArrayEquals(BINARY, push.getInline().get("small.png"));
+        assertEquals(1, push.getUrls().size());
+        assertTrue(push.getUrls().get("large.tex").endsWith("?key=key"));
+    }
+
+    @Test
+    public void changedFilesHaveTheirBlobHashes() throws IOException {
+        SnapshotPushRequest push = new SnapshotPushRequest(
+                new Gson().fromJson(write(candidate()), JsonObject.class)
+        );
+        assertEquals(3, push.getHashes().size());
+        assertEquals(
+                "a691de2e65b34cab525d77577ccfbd3388032acf",
+                push.getHashes().get("large.tex")
+        );
+    }
+
+    @Test
+    public void filesTheApiAlreadyHasAreNotServed() throws IOException {
+        File root = tmpFolder.getRoot();
+        try (CandidateSnapshot candidate = candidate()) {
+            candidate.writeServletFiles(root);
+            assertEquals(
+                    1,
+                    candidate.releaseUnneededFiles(Collections.emptySet())
+            );
+            assertEquals(0, new File(root, ".wlgb/atts/proj").list().length);
+        }
+    }
+
+    @Test
+    public void onlyLargeChangedFilesAreWrittenForTheApiToFetch()
+            throws IOException {
+        File root = tmpFolder.getRoot();
+        try (CandidateSnapshot candidate = candidate()) {
+            candidate.writeServletFiles(root);
+            String[] written = new File(root, ".wlgb/atts/proj").list();
+            assertEquals(1, written.length);
+        }
+    }
+
+    @Test
+    public void emptyFilesAreNotSentInThePushByDefault() throws IOException {
+        Util.setPostbackURL("http://bridge/");
+        File root = tmpFolder.getRoot();
+        try (CandidateSnapshot candidate = new CandidateSnapshot(
+                "proj",
+                7,
+                directory(file("empty.tex", "")),
+                directory(),
+                0,
+                0
+        )) {
+            SnapshotPushRequest push = new SnapshotPushRequest(
+                    new Gson().fromJson(write(candidate), JsonObject.class)
+            );
+            assertTrue(push.getInline().isEmpty());
+            assertTrue(push.getUrls().get("empty.tex").endsWith("?key=key"));
+            candidate.writeServletFiles(root);
+            assertEquals(1, new File(root, ".wlgb/atts/proj").list().length);
+        }
+    }
+
+    private static String write(CandidateSnapshot candidate) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingBodyGenerator.Parts parts =
+                candidate.writeJsonRepresentation(out, "key");
+        while (parts.writeNext());
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static RawFile file(String path, String contents) {
+        return new RepositoryFile(
+                path,
+                contents.getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    private static RawDirectory directory(RawFile... files) {
+        Map<String, RawFile> table = new HashMap<>();
+        for (RawFile file : files) {
+            table.put(file.getPath(), file);
+        }
+        return new RawDirectory(table);
+    }
+
+}
@@ -12,11 +12,14 @@ import uk.ac.ic.wlgitbridge.bridge.repo.FSGitRepoStore;
 import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
 import uk.ac.ic.wlgitbridge.bridge.resource.ResourceCache;
+import uk.ac.ic.wlgitbridge.bridge.resource.UrlIndex;
 import uk.ac.ic.wlgitbridge.bridge.resource.UrlResourceCache;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
+import uk.ac.ic.wlgitbridge.io.http.ning.PooledHttpClient;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -56,14 +59,18 @@ public class ResourceFetcherTest {
         final DBStore dbStore = context.mock(DBStore.class);
         context.checking(new Expectations() {{
             // It should fetch the file once it finds it is missing.
-            oneOf(dbStore).getPathForURLInProject(testProjectName, testUrl);
-            will(returnValue(oldTestPath));
+            oneOf(dbStore).getURLIndexForProject(testProjectName);
+            will(returnValue(Collections.singletonMap(testUrl, oldTestPath)));
 
             // It should update the URL index store once it has fetched; at present, it does not actually change the stored path.
+            oneOf(dbStore).beginBatch();
+            will(returnValue((DBStore.Batch) () -> {}));
             oneOf(dbStore).addURLIndexForProject(testProjectName, testUrl, oldTestPath);
         }});
 
-        ResourceCache resources = new UrlResourceCache(dbStore);
+        PooledHttpClient http = new PooledHttpClient();
+        ResourceCache resources = new UrlResourceCache(http);
+        UrlIndex urlIndex = new UrlIndex(dbStore, testProjectName);
         TemporaryFolder repositoryFolder = new TemporaryFolder();
         repositoryFolder.create();
         String repoStorePath = repositoryFolder.getRoot().getAbsolutePath();
@@ -72,8 +79,11 @@ public class ResourceFetcherTest {
         Map<String, RawFile> fileTable = repo.getDirectory().getFileTable();
         Map<String, byte[]> fetchedUrls = new HashMap<>();
         resources.get(
-                testProjectName, testUrl, newTestPath,
+                urlIndex, testUrl, newTestPath,
                 fileTable, fetchedUrls, Optional.empty());
+        urlIndex.save();
+        http.close();
+        context.assertIsSatisfied();
 
         // We don't bother caching in this case, at present.
         assertEquals(0, fetchedUrls.size());
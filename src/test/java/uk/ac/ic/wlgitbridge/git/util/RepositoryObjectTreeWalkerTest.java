@@ -0,0 +1,108 @@
+package uk.ac.ic.wlgitbridge.git.util;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
+import uk.ac.ic.wlgitbridge.git.exception.FileLimitExceededException;
+import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RepositoryObjectTreeWalkerTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private Git git;
+    private ObjectId commit;
+
+    @Before
+    public void setup() throws Exception {
+        File dir = tmpFolder.newFolder("repo");
+        git = Git.init().setDirectory(dir).call();
+        write(new File(dir, "main.tex"), "0123456789");
+        write(new File(dir, "sub/figure.png"), "01234");
+        write(new File(dir, "sub/data.csv"), "012");
+        git.add().addFilepattern(".").call();
+        commit = git.commit().setMessage("files").call().getId();
+    }
+
+    private static void write(File file, String contents) throws Exception {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private RepositoryObjectTreeWalker walker() throws Exception {
+        return new RepositoryObjectTreeWalker(git.getRepository(), commit);
+    }
+
+    @Test
+    public void pushWithinTheLimitsPasses() throws Exception {
+        walker().checkLimits(Optional.of(10L), Optional.of(3L), Optional.of(18L));
+        walker().checkLimits(
+                Optional.empty(),
+                Optional.empty(),
+                Optional.empty()
+        );
+    }
+
+    @Test
+    public void filesHaveTheHashOfTheirBlob() throws Exception {
+        RawFile file = walker().getDirectoryContents(
+                Optional.empty()
+        ).getFileTable().get("main.tex");
+        assertEquals(
+                git.getRepository().resolve(commit.getName() + ":main.tex")
+                        .getName(),
+                file.getBlobHash()
+        );
+    }
+
+    @Test(expected = FileLimitExceededException.class)
+    public void tooManyFilesAreRejected() throws Exception {
+        walker().checkLimits(Optional.empty(), Optional.of(2L), Optional.empty());
+    }
+
+    @Test
+    public void tooLargeFileIsRejectedWithItsPath() throws Exception {
+        try {
+            walker().checkLimits(
+                    Optional.of(9L),
+                    Optional.empty(),
+                    Optional.empty()
+            );
+            fail("main.tex is too large");
+        } catch (SizeLimitExceededException e) {
+            assertEquals("file too big", e.getMessage());
+            assertEquals(
+                    "File 'main.tex' is",
+                    e.getDescriptionLines().get(0).substring(0, 18)
+            );
+        }
+    }
+
+    @Test
+    public void tooLargeProjectIsRejected() throws Exception {
+        try {
+            walker().checkLimits(
+                    Optional.empty(),
+                    Optional.empty(),
+                    Optional.of(17L)
+            );
+            fail("files are too large in total");
+        } catch (SizeLimitExceededException e) {
+            assertEquals("project too big", e.getMessage());
+        }
+    }
+
+}
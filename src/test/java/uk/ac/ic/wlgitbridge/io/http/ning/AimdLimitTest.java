@@ -0,0 +1,43 @@
+package uk.ac.ic.wlgitbridge.io.http.ning;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AimdLimitTest {
+
+    private static final long SLOW = 1000;
+
+    @Test
+    public void failuresCutTheLimitOncePerRound() {
+        AimdLimit limit = new AimdLimit(100, SLOW);
+        for (int i = 0; i < 50; ++i) {
+            /* A burst of calls that all started at 0 */
+            limit.record(0, 10, true);
+        }
+        assertEquals(90, limit.get());
+        limit.record(20, 10, true);
+        assertEquals(81, limit.get());
+    }
+
+    @Test
+    public void slowCallsCountAsFailures() {
+        AimdLimit limit = new AimdLimit(100, SLOW);
+        limit.record(0, SLOW + 1, false);
+        assertEquals(90, limit.get());
+    }
+
+    @Test
+    public void successesRaiseTheLimitBackToTheMax() {
+        AimdLimit limit = new AimdLimit(10, SLOW);
+        long t = 0;
+        while (limit.get() > 1) {
+            limit.record(++t, 1, true);
+        }
+        for (int i = 0; i < 100; ++i) {
+            limit.record(++t, 1, false);
+        }
+        assertEquals(10, limit.get());
+    }
+
+}
@@ -0,0 +1,87 @@
+package uk.ac.ic.wlgitbridge.io.http.ning;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class CircuitBreakerTest {
+
+    private static final long OPEN = 1000;
+
+    private final CircuitBreaker breaker = new CircuitBreaker(OPEN);
+
+    private void call(long now, boolean failed) {
+        long permit = breaker.tryAcquire(now);
+        assertNotEquals(CircuitBreaker.REFUSED, permit);
+        breaker.record(permit, now, failed);
+    }
+
+    @Test
+    public void opensWhenMostCallsFail() {
+        for (int i = 0; i < 9; ++i) {
+            call(0, true);
+        }
+        /* Too few calls to judge */
+        call(0, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(OPEN - 1));
+    }
+
+    @Test
+    public void staysClosedWhileHalfTheCallsSucceed() {
+        for (int i = 0; i < 100; ++i) {
+            call(0, i % 2 == 1);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void trialCallClosesOrReopens() {
+        for (int i = 0; i < 10; ++i) {
+            call(0, true);
+        }
+        long trial = breaker.tryAcquire(OPEN);
+        assertNotEquals(CircuitBreaker.REFUSED, trial);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        /* Only one trial at a time */
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(OPEN));
+        breaker.record(trial, OPEN + 1, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(2 * OPEN));
+        trial = breaker.tryAcquire(2 * OPEN + 1);
+        assertNotEquals(CircuitBreaker.REFUSED, trial);
+        breaker.record(trial, 2 * OPEN + 2, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertNotEquals(
+                CircuitBreaker.REFUSED,
+                breaker.tryAcquire(2 * OPEN + 3)
+        );
+    }
+
+    @Test
+    public void callsFromBeforeTheTrialDoNotDecideIt() {
+        long stale = breaker.tryAcquire(0);
+        for (int i = 0; i < 10; ++i) {
+            call(0, true);
+        }
+        long trial = breaker.tryAcquire(OPEN);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.record(stale, OPEN + 1, false);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(OPEN + 1));
+        breaker.record(trial, OPEN + 2, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void releasedTrialLetsAnotherThrough() {
+        for (int i = 0; i < 10; ++i) {
+            call(0, true);
+        }
+        long trial = breaker.tryAcquire(OPEN);
+        breaker.release(trial);
+        assertNotEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(OPEN));
+    }
+
+}
@@ -0,0 +1,394 @@
+package uk.ac.ic.wlgitbridge.io.http.ning;
+
+import com.google.common.io.ByteStreams;
+import io.prometheus.client.CollectorRegistry;
+import org.asynchttpclient.RequestBuilder;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.snapshot.servermock.server.MockSnapshotServer;
+import uk.ac.ic.wlgitbridge.snapshot.servermock.state.SnapshotAPIState;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.asynchttpclient.Dsl.get;
+import static org.asynchttpclient.Dsl.post;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PooledHttpClientTest {
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile String requestEncoding;
+    private volatile boolean responseGzipped;
+
+    private final List<PooledHttpClient> clients = new ArrayList<>();
+
+    private Server server;
+    private String url;
+
+    @Before
+    public void setup() throws Exception {
+        server = new Server(0);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(
+                    String target,
+                    Request baseRequest,
+                    HttpServletRequest request,
+                    HttpServletResponse response
+            ) throws IOException {
+                if (target.equals("/echo")) {
+                    requestEncoding = request.getHeader("Content-Encoding");
+                    InputStream in = request.getInputStream();
+                    if ("gzip".equals(requestEncoding)) {
+                        in = new GZIPInputStream(in);
+                    }
+                    byte[] body = ByteStreams.toByteArray(in);
+                    OutputStream out = response.getOutputStream();
+                    String accept = request.getHeader("Accept-Encoding");
+                    responseGzipped = accept != null && accept.contains("gzip");
+                    if (responseGzipped) {
+                        response.setHeader("Content-Encoding", "gzip");
+                        out = new GZIPOutputStream(out);
+                    }
+                    out.write(body);
+                    out.close();
+                    baseRequest.setHandled(true);
+                    return;
+                }
+                if (target.equals("/body")) {
+                    response.setStatus(200);
+                    response.getWriter().print("hello\n");
+                    response.flushBuffer();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    response.getWriter().print("world\n");
+                    baseRequest.setHandled(true);
+                    return;
+                }
+                maxRunning.accumulateAndGet(
+                        running.incrementAndGet(),
+                        Math::max
+                );
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                response.setStatus(200);
+                baseRequest.setHandled(true);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:"
+                + ((ServerConnector) server.getConnectors()[0]).getLocalPort()
+                + "/";
+    }
+
+    @After
+    public void teardown() throws Exception {
+        release.countDown();
+        for (PooledHttpClient client : clients) {
+            client.close();
+        }
+        server.stop();
+    }
+
+    private PooledHttpClient client(
+            int maxConnections,
+            int maxRequestsPerEndpoint
+    ) {
+        return client(
+                maxConnections,
+                maxRequestsPerEndpoint,
+                PooledHttpClient.DEFAULT_SLOW_CALL_MILLIS,
+                PooledHttpClient.DEFAULT_CIRCUIT_OPEN_MILLIS
+        );
+    }
+
+    private PooledHttpClient client(
+            int maxConnections,
+            int maxRequestsPerEndpoint,
+            long slowCallMillis,
+            long circuitOpenMillis
+    ) {
+        PooledHttpClient client = new PooledHttpClient(
+                maxConnections,
+                maxRequestsPerEndpoint,
+                slowCallMillis,
+                circuitOpenMillis
+        );
+        clients.add(client);
+        return client;
+    }
+
+    @Test
+    public void requestsToAnEndpointWaitForAFreeSlot() throws Exception {
+        PooledHttpClient http = client(16, 2);
+        List<CompletableFuture<StreamedResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < 6; ++i) {
+            responses.add(http.execute("test", get(url).build()));
+        }
+        Thread.sleep(500);
+        assertEquals(2, running.get());
+        release.countDown();
+        for (CompletableFuture<StreamedResponse> response : responses) {
+            assertEquals(200, response.get(10, TimeUnit.SECONDS).getStatusCode());
+        }
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void endpointsHaveSeparateLimits() throws Exception {
+        PooledHttpClient http = client(16, 1);
+        CompletableFuture<StreamedResponse> a =
+                http.execute("a", get(url).build());
+        CompletableFuture<StreamedResponse> b =
+                http.execute("b", get(url).build());
+        Thread.sleep(500);
+        assertEquals(2, running.get());
+        release.countDown();
+        assertEquals(200, a.get(10, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(200, b.get(10, TimeUnit.SECONDS).getStatusCode());
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void callsThatWaitTooLongFail() throws Exception {
+        PooledHttpClient http = client(16, 1, 100, 60000);
+        CompletableFuture<StreamedResponse> running =
+                http.execute("test", get(url).build());
+        CompletableFuture<StreamedResponse> waiting =
+                http.execute("test", get(url).build());
+        assertFailsWithin(waiting, 1000);
+        assertFailsWithin(running, 1000);
+    }
+
+    private static void assertFailsWithin(
+            CompletableFuture<StreamedResponse> response,
+            long millis
+    ) throws Exception {
+        try {
+            response.get(millis, TimeUnit.MILLISECONDS);
+            fail("call should have timed out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CircuitOpenException);
+        }
+    }
+
+    @Test
+    public void bodyCanBeReadBeforeItHasAllArrived() throws Exception {
+        PooledHttpClient http = client(16, 1);
+        StreamedResponse response = http.execute(
+                "test",
+                get(url + "body").build()
+        ).get(10, TimeUnit.SECONDS);
+        assertEquals(200, response.getStatusCode());
+        BufferedReader body = new BufferedReader(new InputStreamReader(
+                response.getBody(),
+                StandardCharsets.UTF_8
+        ));
+        assertEquals("hello", body.readLine());
+        release.countDown();
+        assertEquals("world", body.readLine());
+        assertNull(body.readLine());
+    }
+
+    @Test
+    public void requestBodiesAreOnlyCompressedIfConfigured() throws Exception {
+        PooledHttpClient http = client(16, 1);
+        http.setCompression("gzipped", true, true);
+        assertEquals("{\"a\": 1}", echo(http, "gzipped"));
+        assertEquals("gzip", requestEncoding);
+        assertEquals("{\"a\": 1}", echo(http, "plain"));
+        assertNull(requestEncoding);
+    }
+
+    @Test
+    public void compressedResponsesAreDecompressed() throws Exception {
+        PooledHttpClient http = client(16, 1);
+        http.setCompression("identity", false, false);
+        assertEquals("{\"a\": 1}", echo(http, "identity"));
+        assertFalse(responseGzipped);
+        assertEquals("{\"a\": 1}", echo(http, "compressed"));
+        assertTrue(responseGzipped);
+    }
+
+    @Test
+    public void streamedBodiesAreSentInParts() throws Exception {
+        PooledHttpClient http = client(16, 1);
+        http.setCompression("gzipped", true, true);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            expected.append(i).append('\n');
+        }
+        StreamingBodyGenerator body = new StreamingBodyGenerator(out -> {
+            AtomicInteger i = new AtomicInteger();
+            return () -> {
+                out.write((i + "\n").getBytes(StandardCharsets.UTF_8));
+                return i.incrementAndGet() < 100000;
+            };
+        });
+        assertEquals(
+                expected.toString(),
+                echo(http, "plain", post(url + "echo").setBody(body))
+        );
+        assertEquals(
+                expected.toString(),
+                echo(http, "gzipped", post(url + "echo").setBody(body))
+        );
+        assertEquals("gzip", requestEncoding);
+    }
+
+    private String echo(
+            PooledHttpClient http,
+            String endpoint
+    ) throws Exception {
+        return echo(
+                http,
+                endpoint,
+                post(url + "echo").setBody("{\"a\": 1}")
+        );
+    }
+
+    private String echo(
+            PooledHttpClient http,
+            String endpoint,
+            RequestBuilder request
+    ) throws Exception {
+        StreamedResponse response = http.execute(
+                endpoint,
+                request.build()
+        ).get(10, TimeUnit.SECONDS);
+        assertEquals(200, response.getStatusCode());
+        return new String(
+                ByteStreams.toByteArray(response.getBody()),
+                StandardCharsets.UTF_8
+        );
+    }
+
+    @Test
+    public void failingApiOpensTheCircuit() throws Exception {
+        MockSnapshotServer api = startMockApi();
+        try {
+            api.setFailureStatus(503);
+            PooledHttpClient http = client(16, 4, 60000, 60000);
+            for (int i = 0; i < 10; ++i) {
+                assertEquals(503, http.execute(
+                        "failing",
+                        get(docUrl(api)).build()
+                ).get(10, TimeUnit.SECONDS).getStatusCode());
+            }
+            awaitOpenCircuit("failing");
+            assertFailsFast(http, "failing", docUrl(api));
+        } finally {
+            api.stop();
+        }
+    }
+
+    @Test
+    public void slowApiLowersTheLimitAndOpensTheCircuit() throws Exception {
+        MockSnapshotServer api = startMockApi();
+        try {
+            /* Slow, but well within the deadline of 4 slow calls */
+            api.setLatencyMillis(100);
+            PooledHttpClient http = client(16, 4, 50, 60000);
+            for (int i = 0; i < 10; ++i) {
+                StreamedResponse response = http.execute(
+                        "slow",
+                        get(docUrl(api)).build()
+                ).get(10, TimeUnit.SECONDS);
+                assertEquals(200, response.getStatusCode());
+                ByteStreams.toByteArray(response.getBody());
+                /* Let the call free its slot, so the next one never waits */
+                Thread.sleep(20);
+            }
+            awaitOpenCircuit("slow");
+            assertTrue(CollectorRegistry.defaultRegistry.getSampleValue(
+                    "wlgb_http_concurrency_limit",
+                    new String[] { "endpoint" },
+                    new String[] { "slow" }
+            ) < 4);
+            assertFailsFast(http, "slow", docUrl(api));
+        } finally {
+            api.stop();
+        }
+    }
+
+    private MockSnapshotServer startMockApi() {
+        MockSnapshotServer api = new MockSnapshotServer(0, new File("."));
+        api.setState(new SnapshotAPIState());
+        api.start();
+        return api;
+    }
+
+    private static String docUrl(MockSnapshotServer api) {
+        return "http://127.0.0.1:" + api.getPort() + "/api/v0/docs/1826rqgsdb";
+    }
+
+    /* Outcomes are recorded once the whole response has arrived, just
+       after the response is handed over */
+    private static void awaitOpenCircuit(
+            String endpoint
+    ) throws InterruptedException {
+        for (int i = 0; i < 100; ++i) {
+            Double state = CollectorRegistry.defaultRegistry.getSampleValue(
+                    "wlgb_http_circuit_state",
+                    new String[] { "endpoint" },
+                    new String[] { endpoint }
+            );
+            if (state != null && state == CircuitBreaker.State.OPEN.value) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("circuit did not open");
+    }
+
+    private static void assertFailsFast(
+            PooledHttpClient http,
+            String endpoint,
+            String url
+    ) throws Exception {
+        long start = System.currentTimeMillis();
+        try {
+            http.execute(endpoint, get(url).build()).get(10, TimeUnit.SECONDS);
+            fail("circuit should be open");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CircuitOpenException);
+        }
+        assertTrue(System.currentTimeMillis() - start < 100);
+    }
+
+}
@@ -0,0 +1,85 @@
+package uk.ac.ic.wlgitbridge.io.http.ning;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResponseBodyStreamTest {
+
+    private static final int PART = 32 * 1024;
+
+    private final ResponseBodyStream body = new ResponseBodyStream();
+    private ChannelConfig config;
+
+    @Before
+    public void setup() {
+        Channel channel = mock(Channel.class);
+        config = mock(ChannelConfig.class);
+        when(channel.config()).thenReturn(config);
+        body.setChannel(channel);
+    }
+
+    private void addParts(int n) {
+        for (int i = 0; i < n; ++i) {
+            body.add(new byte[PART]);
+        }
+    }
+
+    private void readParts(int n) throws IOException {
+        byte[] buf = new byte[PART];
+        for (int i = 0; i < n; ++i) {
+            assertEquals(PART, body.read(buf, 0, PART));
+        }
+    }
+
+    @Test
+    public void connectionPausesWhenTheReaderFallsBehind() throws IOException {
+        int toFill = (int) (ResponseBodyStream.HIGH_WATER_BYTES / PART);
+        addParts(toFill);
+        verify(config, never()).setAutoRead(false);
+        addParts(1);
+        verify(config).setAutoRead(false);
+        readParts(toFill
+                - (int) (ResponseBodyStream.LOW_WATER_BYTES / PART));
+        verify(config, never()).setAutoRead(true);
+        readParts(1);
+        verify(config).setAutoRead(true);
+    }
+
+    @Test
+    public void closingResumesTheConnection() {
+        addParts((int) (ResponseBodyStream.HIGH_WATER_BYTES / PART) + 1);
+        body.close();
+        verify(config).setAutoRead(true);
+    }
+
+    @Test
+    public void endingResumesTheConnectionAndLetsGoOfIt() throws IOException {
+        int full = (int) (ResponseBodyStream.HIGH_WATER_BYTES / PART) + 1;
+        addParts(full);
+        body.end();
+        verify(config).setAutoRead(true);
+        readParts(full);
+        assertEquals(-1, body.read());
+        verify(config, times(1)).setAutoRead(false);
+        verify(config, times(1)).setAutoRead(true);
+    }
+
+    @Test
+    public void failingResumesTheConnection() {
+        addParts((int) (ResponseBodyStream.HIGH_WATER_BYTES / PART) + 1);
+        body.fail(new IOException("reset"));
+        verify(config).setAutoRead(true);
+    }
+
+}
@@ -0,0 +1,51 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class AccessTokenCacheTest {
+
+    private final AccessTokenCache cache = new AccessTokenCache(60);
+
+    @Test
+    public void tokenIsReusedForTheSameCredentials() {
+        String key = cache.keyFor("user", "pass", "1.2.3.4");
+        cache.put(key, "token", null);
+        assertEquals(
+                "token",
+                cache.get(cache.keyFor("user", "pass", "1.2.3.4"))
+        );
+    }
+
+    @Test
+    public void keysDependOnPasswordAndClientIp() {
+        String key = cache.keyFor("user", "pass", "1.2.3.4");
+        assertNotEquals(key, cache.keyFor("user", "other", "1.2.3.4"));
+        assertNotEquals(key, cache.keyFor("user", "pass", "5.6.7.8"));
+        assertFalse(key.contains("pass"));
+    }
+
+    @Test
+    public void keysAreSaltedPerCache() {
+        assertNotEquals(
+                cache.keyFor("user", "pass", "1.2.3.4"),
+                new AccessTokenCache(60).keyFor("user", "pass", "1.2.3.4")
+        );
+    }
+
+    @Test
+    public void expiredAndInvalidatedTokensAreNotReturned() {
+        String expired = cache.keyFor("a", "pass", "1.2.3.4");
+        cache.put(expired, "token", 0L);
+        assertNull(cache.get(expired));
+        String revoked = cache.keyFor("b", "pass", "1.2.3.4");
+        cache.put(revoked, "token", 3600L);
+        cache.invalidate(revoked);
+        assertNull(cache.get(revoked));
+    }
+
+}
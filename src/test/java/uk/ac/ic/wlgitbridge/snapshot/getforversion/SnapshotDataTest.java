@@ -0,0 +1,56 @@
+package uk.ac.ic.wlgitbridge.snapshot.getforversion;
+
+import com.google.gson.stream.JsonReader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SnapshotDataTest {
+
+    @Test
+    public void streamedDataMatchesTheTree() throws IOException {
+        SnapshotData data = new SnapshotData(
+                Arrays.asList(
+                        new SnapshotFile("\\documentclass{article}\n", "main.tex"),
+                        new SnapshotFile("caf\u00e9 \"quoted\"", "dir/notes.txt")
+                ),
+                Arrays.asList(
+                        new SnapshotAttachment("http://example.com/a", "a.png")
+                )
+        );
+        SnapshotData streamed = new SnapshotData(new JsonReader(
+                new StringReader(data.toJson().toString())
+        ));
+        assertEquals(2, streamed.getSrcs().size());
+        for (int i = 0; i < 2; ++i) {
+            SnapshotFile expected = data.getSrcs().get(i);
+            SnapshotFile actual = streamed.getSrcs().get(i);
+            assertEquals(expected.getPath(), actual.getPath());
+            assertArrayEquals(expected.getContents(), actual.getContents());
+        }
+        assertEquals(1, streamed.getAtts().size());
+        assertEquals(
+                "http://example.com/a",
+                streamed.getAtts().get(0).getUrl()
+        );
+        assertEquals("a.png", streamed.getAtts().get(0).getPath());
+    }
+
+    @Test
+    public void unknownKeysAreSkipped() throws IOException {
+        SnapshotData streamed = new SnapshotData(new JsonReader(new StringReader(
+                "{\"atts\": [], \"extra\": {\"x\": [1]}, "
+                        + "\"srcs\": [[\"hi\", \"a.tex\", 0]]}"
+        )));
+        assertEquals(1, streamed.getSrcs().size());
+        assertEquals("a.tex", streamed.getSrcs().get(0).getPath());
+        assertArrayEquals("hi".getBytes(), streamed.getSrcs().get(0).getContents());
+        assertEquals(0, streamed.getAtts().size());
+    }
+
+}
@@ -56,4 +56,11 @@ public class PostbackManagerTest {
         Assert.assertTrue(postbackManager.postbackContentsTable.isEmpty());
     }
 
+    @Test
+    public void testDiscardedPostbackIsForgotten() {
+        postbackManager.makeKeyForProject("proj");
+        postbackManager.discardPostbackForProject("proj");
+        Assert.assertTrue(postbackManager.postbackContentsTable.isEmpty());
+    }
+
 }
@@ -0,0 +1,56 @@
+package uk.ac.ic.wlgitbridge.snapshot.push;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.snapshot.exception.FailedConnectionException;
+import uk.ac.ic.wlgitbridge.snapshot.push.exception.OutOfDateException;
+import uk.ac.ic.wlgitbridge.snapshot.push.exception.SnapshotPostException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PushResultTest {
+
+    private static PushResult parse(
+            String json
+    ) throws FailedConnectionException {
+        return new PushResult(null, new Gson().fromJson(
+                json,
+                JsonElement.class
+        ));
+    }
+
+    @Test
+    public void acceptedPushWithoutPostbackIsNotComplete()
+            throws FailedConnectionException {
+        PushResult result = parse("{\"code\": \"accepted\"}");
+        assertTrue(result.wasSuccessful());
+        assertFalse(result.isComplete());
+    }
+
+    @Test
+    public void postbackInTheResponseCompletesThePush()
+            throws FailedConnectionException, SnapshotPostException {
+        PushResult result = parse(
+                "{\"code\": \"accepted\", \"postback\": "
+                        + "{\"code\": \"upToDate\", \"latestVerId\": 8}}"
+        );
+        assertTrue(result.isComplete());
+        assertEquals(8, result.getVersionIdOrThrow());
+    }
+
+    @Test(expected = OutOfDateException.class)
+    public void errorInTheResponseIsThrown()
+            throws FailedConnectionException, SnapshotPostException {
+        PushResult result = parse(
+                "{\"code\": \"accepted\", \"postback\": "
+                        + "{\"code\": \"outOfDate\", "
+                        + "\"message\": \"Out of Date\"}}"
+        );
+        assertTrue(result.isComplete());
+        result.getVersionIdOrThrow();
+    }
+
+}